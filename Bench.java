@@ -0,0 +1,293 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+// ====== Stage benchmarks ======
+// The same stages run under JMH itself in the jmh/ module (see README); this is the
+// harness that needs no extra jars: warmup + measured iterations per
+// benchmark, average time per op and, like "-prof gc", bytes allocated per op plus
+// GC count/time during the measured iterations.
+//  - forks: like JMH -f, each benchmark runs in -f fresh JVMs (same JVM flags), so JIT
+//    profiles and heap state of one benchmark don't leak into the next; iterations of
+//    all forks are pooled. -f 0 runs everything in this JVM.
+//  - CPU and allocation are process-wide (Metrics.processCpuNanos / allocatedBytes):
+//    the parallel stages do their work on ForkJoin workers
+//  - a benchmark can have a per-invocation setup (JMH Level.Invocation) that is not
+//    timed or counted, e.g. a fresh copy of the matrix for an in-place solver
+//
+// % java -cp ".:lib/*" Bench                          (all benchmarks, 1 fork each)
+// % java -cp ".:lib/*" Bench fitRBF -wi 2 -i 5 -f 3   (name filter, warmup / measure iterations, forks)
+public class Bench {
+
+    static final String[] MODELS = { "xyz/bunny.xyz", "xyz/armadillo.xyz", "xyz/2torus.xyz" };
+    static final int[] CONSTRAINT_POINTS = { 100, 200, 400 };  // -> ~3x as many constraints
+    static final int[] RES = { 32, 48, 64 };
+
+    // keeps results alive so the JIT can't drop the work
+    static volatile Object sink;
+
+    interface Op { Object run() throws Exception; }
+    interface Setup<S> { S make() throws Exception; }
+    interface OpWith<S> { Object run(S s) throws Exception; }
+
+    enum Mode { RUN, LIST, CHILD }
+
+    static int warmup = 3;
+    static int iters = 5;
+    static int forks = 1;
+    static String filter = null;
+    static Mode mode = Mode.RUN;
+    static final ArrayList<String> listed = new ArrayList<>();
+
+    static final String FORMAT = "%-44s %12s %12s %12s %16s %8s %8s%n";
+
+    public static void main(String[] args) throws Exception {
+        for(int a=0;a<args.length;a++){
+            if(args[a].equals("-wi")) warmup = Integer.parseInt(args[++a]);
+            else if(args[a].equals("-i")) iters = Integer.parseInt(args[++a]);
+            else if(args[a].equals("-f")) forks = Integer.parseInt(args[++a]);
+            else if(args[a].equals("-child")){ mode = Mode.CHILD; filter = args[++a]; }
+            else filter = args[a];
+        }
+
+        PrintStream out = System.out;
+        // the pipeline prints progress; keep it out of the report
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        if(mode != Mode.CHILD){
+            out.printf(FORMAT, "Benchmark", "ms/op", "+-", "cpu ms/op", "alloc B/op", "gc.cnt", "gc.ms");
+        }
+        if(mode == Mode.RUN && forks > 0){
+            // collect the names (setups run, benchmarks don't), then one JVM per fork and benchmark
+            mode = Mode.LIST;
+            runAll(out);
+            for(String full: listed) fork(out, full);
+            return;
+        }
+        runAll(out);
+    }
+
+    static void runAll(PrintStream out) throws Exception {
+        // ---- bundled models ----
+        for(String path: MODELS){
+            if(!new File(path).exists()) continue;
+            String tag = new File(path).getName();
+            if(!wanted(tag)) continue;
+            ArrayList<PointN> pts = Project02.loadXYZ(path);
+            runStages(out, tag, pts, Math.min(pts.size()/5, 400), 32);
+        }
+
+        // ---- synthetic, parameterized ----
+        for(int n: CONSTRAINT_POINTS){
+            if(!wanted("sphere:m=" + n)) continue;
+            runStages(out, "sphere:m=" + n, sphere(4*n, 1.0, 1), n, 32);
+        }
+        if(mode == Mode.CHILD && !filter.contains("[sphere:res=")) return;
+        ArrayList<PointN> sp = sphere(800, 1.0, 2);
+        ArrayList<Constraint> C = Project02.buildConstraints(sp, 200);
+        double[] lambda = Project02.fitRBF(C);
+        Project02.BBox box = Project02.expand(Project02.bbox(sp), 0.10);
+        for(int res: RES){
+            String tag = "sphere:res=" + res;
+            bench(out, "buildField", tag, () -> Project02.buildField(C, lambda, box, res));
+            Project02.ScalarField f = Project02.buildField(C, lambda, box, res);
+            bench(out, "marchingCubesPerCell", tag, () -> Project02.marchingCubesPerCell(f, 0.0));
+            MeshBuffer buf = new MeshBuffer();
+            bench(out, "MCKernel.extract", tag, () -> { buf.clear(); return MCKernel.extract(f, 0.0, buf); });
+            bench(out, "SurfaceTracker.extract", tag, () -> SurfaceTracker.extract(C, lambda, box, res, 0.0));
+        }
+    }
+
+    // a child JVM only sets up the group its benchmark is in
+    static boolean wanted(String tag){
+        return mode != Mode.CHILD || filter.endsWith(" [" + tag + "]");
+    }
+
+    static void runStages(PrintStream out, String tag, ArrayList<PointN> pts, int maxN, int res) throws Exception {
+        String path = tag.endsWith(".xyz") ? "xyz/" + tag : null;
+        if(path != null){
+            bench(out, "loadXYZ", tag, () -> Project02.loadXYZ(path));
+        }
+        bench(out, "buildConstraints", tag, () -> Project02.buildConstraints(pts, maxN));
+
+        ArrayList<Constraint> C = Project02.buildConstraints(pts, maxN);
+        bench(out, "fitRBF", tag, () -> Project02.fitRBF(C));
+        // solvers only: assembly (and the copy the in-place LU needs) is per-invocation setup
+        int m = C.size();
+        double[][] A0 = rbfMatrix(C);
+        double[] y = rhs(C);
+        bench(out, "solveLinearSystem", tag, () -> {
+            double[][] A = new double[m][];
+            for(int i=0;i<m;i++) A[i] = A0[i].clone();
+            return A;
+        }, A -> Project02.solveLinearSystem(A, y));
+        bench(out, "ldlt", tag, () -> SymPacked.rbf(C), A -> {
+            A.factor();
+            return A.solve(y);
+        });
+        bench(out, "SymPacked.rbf", tag, () -> SymPacked.rbf(C));
+
+        double[] lambda = Project02.fitRBF(C);
+        bench(out, "evalRBF(x1000)", tag, () -> evalRBF1000(C, lambda, pts));
+
+        Project02.BBox box = Project02.expand(Project02.bbox(pts), 0.10);
+        bench(out, "buildField:res=" + res, tag, () -> Project02.buildField(C, lambda, box, res));
+
+        Project02.ScalarField field = Project02.buildField(C, lambda, box, res);
+        bench(out, "marchingCubesPerCell:res=" + res, tag, () -> Project02.marchingCubesPerCell(field, 0.0));
+        MeshBuffer buf = new MeshBuffer();
+        bench(out, "MCKernel.extract:res=" + res, tag, () -> { buf.clear(); return MCKernel.extract(field, 0.0, buf); });
+
+        MeshBuffer nb = MCKernel.extract(field, 0.0);
+        bench(out, "vertexNormals:res=" + res, tag, () -> { Project02.vertexNormals(C, lambda, nb); return nb.nrm; });
+        bench(out, "MeshOptimizer.optimize:res=" + res, tag, () -> MCKernel.extract(field, 0.0), mb -> { MeshOptimizer.optimize(mb); return mb; });
+
+        Mesh mesh = Project02.marchingCubes(field, 0.0);
+        bench(out, "ViewerPanel.pack", tag, () -> {
+            Object[] r = { ViewerPanel.packVertices(mesh), ViewerPanel.packIndices(mesh, 0), ViewerPanel.packEdges(mesh), ViewerPanel.packPoints(pts) };
+            return r;
+        });
+    }
+
+    static void bench(PrintStream out, String name, String tag, Op op) throws Exception {
+        bench(out, name, tag, () -> null, s -> op.run());
+    }
+
+    static <S> void bench(PrintStream out, String name, String tag, Setup<S> setup, OpWith<S> op) throws Exception {
+        String full = name + " [" + tag + "]";
+        if(mode == Mode.CHILD){
+            if(!full.equals(filter)) return;
+        }
+        else if(filter != null && !full.contains(filter)) return;
+        if(mode == Mode.LIST){
+            listed.add(full);
+            return;
+        }
+
+        for(int w=0;w<warmup;w++) sink = op.run(setup.make());
+
+        long gcCount0 = gcCount(), gcTime0 = gcTime();
+        long alloc = 0, cpu = 0;
+        double[] ms = new double[iters];
+        for(int i=0;i<iters;i++){
+            S s = setup.make();
+            long a0 = Metrics.allocatedBytes(), c0 = Metrics.processCpuNanos();
+            long t0 = System.nanoTime();
+            sink = op.run(s);
+            ms[i] = (System.nanoTime() - t0) / 1e6;
+            cpu += Math.max(0, Metrics.processCpuNanos() - c0);
+            alloc += Math.max(0, Metrics.allocatedBytes() - a0);
+        }
+        long gcc = gcCount() - gcCount0, gct = gcTime() - gcTime0;
+
+        if(mode == Mode.CHILD){
+            // one line for the parent: name, per-iteration ms, totals
+            StringBuilder sb = new StringBuilder("RESULT\t").append(full).append('\t');
+            for(int i=0;i<iters;i++) sb.append(i == 0 ? "" : ",").append(ms[i]);
+            sb.append('\t').append(cpu).append('\t').append(alloc).append('\t').append(gcc).append('\t').append(gct);
+            out.println(sb);
+            return;
+        }
+        report(out, full, ms, cpu / 1e6 / iters, alloc / iters, gcc, gct);
+    }
+
+    static void report(PrintStream out, String full, double[] ms, double cpuMs, long alloc, long gcc, long gct){
+        int n = ms.length;
+        double mean = 0;
+        for(double v: ms) mean += v;
+        mean /= Math.max(1, n);
+        double var = 0;
+        for(double v: ms) var += (v-mean)*(v-mean);
+        double sd = n > 1 ? Math.sqrt(var/(n-1)) : 0;
+        out.printf(FORMAT, full, String.format(Locale.ROOT, "%.3f", mean), String.format(Locale.ROOT, "%.3f", sd),
+                   String.format(Locale.ROOT, "%.3f", cpuMs), Long.toString(alloc), Long.toString(gcc), Long.toString(gct));
+    }
+
+    // runs one benchmark in `forks` fresh JVMs with this JVM's flags and pools the iterations
+    static void fork(PrintStream out, String full) throws Exception {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ArrayList<Double> ms = new ArrayList<>();
+        long cpu = 0, alloc = 0, gcc = 0, gct = 0;
+        for(int f=0;f<forks;f++){
+            ArrayList<String> cmd = new ArrayList<>();
+            cmd.add(java);
+            cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            cmd.add("-cp"); cmd.add(System.getProperty("java.class.path"));
+            cmd.add("Bench");
+            cmd.add("-wi"); cmd.add(Integer.toString(warmup));
+            cmd.add("-i"); cmd.add(Integer.toString(iters));
+            cmd.add("-child"); cmd.add(full);
+            Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            String result = null;
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                String line;
+                while((line = br.readLine()) != null) if(line.startsWith("RESULT\t")) result = line;
+            }
+            int code = p.waitFor();
+            if(result == null) throw new IOException("fork for " + full + " exited with " + code + " and no result");
+            String[] t = result.split("\t");
+            for(String v: t[2].split(",")) ms.add(Double.parseDouble(v));
+            cpu += Long.parseLong(t[3]); alloc += Long.parseLong(t[4]);
+            gcc += Long.parseLong(t[5]); gct += Long.parseLong(t[6]);
+        }
+        double[] all = new double[ms.size()];
+        for(int i=0;i<all.length;i++) all[i] = ms.get(i);
+        int n = Math.max(1, all.length);
+        report(out, full, all, cpu / 1e6 / n, alloc / n, gcc, gct);
+    }
+
+    static long gcCount(){
+        long s = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) s += Math.max(0, gc.getCollectionCount());
+        return s;
+    }
+
+    static long gcTime(){
+        long s = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) s += Math.max(0, gc.getCollectionTime());
+        return s;
+    }
+
+    // ---- stage inputs (shared with the JMH module) ----
+
+    // the dense system fitRBF solves, without the solver
+    static double[][] rbfMatrix(ArrayList<Constraint> C){
+        int m = C.size();
+        double[][] A = new double[m][m];
+        for(int i=0;i<m;i++){
+            for(int j=0;j<m;j++) A[i][j] = Project02.phi(Project02.dist(C.get(i).x, C.get(j).x));
+            A[i][i] += Project02.DIAG_SHIFT;
+        }
+        return A;
+    }
+
+    static double[] rhs(ArrayList<Constraint> C){
+        double[] y = new double[C.size()];
+        for(int i=0;i<y.length;i++) y[i] = C.get(i).y;
+        return y;
+    }
+
+    static double evalRBF1000(ArrayList<Constraint> C, double[] lambda, ArrayList<PointN> pts){
+        double s = 0;
+        for(int i=0;i<1000;i++) s += Project02.evalRBF(C, lambda, pts.get(i % pts.size()).p);
+        return s;
+    }
+
+    // ---- synthetic inputs ----
+
+    // points on a sphere with exact outward normals (Fibonacci lattice)
+    static ArrayList<PointN> sphere(int n, double r, long seed){
+        ArrayList<PointN> pts = new ArrayList<>(n);
+        Random rnd = new Random(seed);
+        double ga = Math.PI * (3.0 - Math.sqrt(5.0));
+        double rot = rnd.nextDouble() * 2*Math.PI;
+        for(int i=0;i<n;i++){
+            double y = 1.0 - 2.0*(i + 0.5)/n;
+            double rr = Math.sqrt(1.0 - y*y);
+            double th = ga*i + rot;
+            Vector3 nrm = new Vector3(Math.cos(th)*rr, y, Math.sin(th)*rr);
+            pts.add(new PointN(nrm.mul(r), nrm));
+        }
+        return pts;
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.*;
+
+// ====== Sparse brick ScalarField ======
+// Nodes are stored in 8x8x8 bricks. Bricks are indexed by the Morton code of their
+// brick coordinates and nodes inside a brick are Morton-ordered too, so the 8
+// corners of a cell (and neighbouring cells in z) sit close together in memory.
+//
+// A brick whose nodes, and the ring of nodes one step around them, are all on the
+// same side of iso can never contribute an interpolated vertex; it collapses to a
+// single value. Only bricks near the surface hold a double[512].
+//
+// Access goes through get/set(i,j,k), so marchingCubes works unchanged.
+public class BrickField extends Project02.ScalarField {
+
+    static final int B = 8;               // brick edge (nodes)
+    static final int SHIFT = 3;
+    static final int MASK = B - 1;
+
+    // spread bits: abc -> a00b00c
+    private static final int[] SPREAD = new int[1024];
+    static {
+        for(int v=0; v<1024; v++){
+            int r = 0;
+            for(int b=0;b<10;b++) r |= ((v >> b) & 1) << (3*b);
+            SPREAD[v] = r;
+        }
+    }
+
+    final int bx, by, bz;
+    final double[][] bricks;   // by Morton code; null = uniform
+    final double[] uniform;    // value of a collapsed brick
+    final boolean collapsedSignOnly;   // collapsed values only carry the sign w.r.t. iso
+
+    int allocated = 0;
+
+    BrickField(int nx, int ny, int nz, Project02.BBox box, boolean collapsedSignOnly){
+        super(nx, ny, nz, box, false);
+        bx = (nx + MASK) >> SHIFT;
+        by = (ny + MASK) >> SHIFT;
+        bz = (nz + MASK) >> SHIFT;
+        if(Math.max(bx, Math.max(by, bz)) > 1024){
+            throw new IllegalArgumentException("grid too large for BrickField: " + nx + "x" + ny + "x" + nz);
+        }
+        int codes = morton(bx-1, by-1, bz-1) + 1;
+        bricks = new double[codes][];
+        uniform = new double[codes];
+        this.collapsedSignOnly = collapsedSignOnly;
+    }
+
+    static int morton(int i, int j, int k){
+        return SPREAD[i] | (SPREAD[j] << 1) | (SPREAD[k] << 2);
+    }
+
+    @Override
+    double get(int i, int j, int k){
+        int code = morton(i >> SHIFT, j >> SHIFT, k >> SHIFT);
+        double[] b = bricks[code];
+        if(b == null) return uniform[code];
+        return b[morton(i & MASK, j & MASK, k & MASK)];
+    }
+
+    @Override
+    void set(int i, int j, int k, double v){
+        int code = morton(i >> SHIFT, j >> SHIFT, k >> SHIFT);
+        double[] b = bricks[code];
+        if(b == null){
+            b = new double[B*B*B];
+            Arrays.fill(b, uniform[code]);
+            bricks[code] = b;
+            allocated++;
+        }
+        b[morton(i & MASK, j & MASK, k & MASK)] = v;
+    }
+
+    @Override
+    boolean exactEverywhere(){ return !collapsedSignOnly; }
+
+    long bytesUsed(){
+        return (long) allocated * B*B*B * 8 + (long) bricks.length * (8 + 8);
+    }
+
+    // ---- construction ----
+
+    // from a dense field; collapsed bricks keep the exact value of their first node
+    static BrickField compress(Project02.ScalarField dense, double iso){
+        BrickField f = new BrickField(dense.nx, dense.ny, dense.nz, dense.box, true);
+        for(int ck=0;ck<f.bz;ck++){
+            for(int cj=0;cj<f.by;cj++){
+                for(int ci=0;ci<f.bx;ci++){
+                    int code = morton(ci, cj, ck);
+                    int i0 = ci*B, j0 = cj*B, k0 = ck*B;
+                    int i1 = Math.min(i0+B, dense.nx)-1, j1 = Math.min(j0+B, dense.ny)-1, k1 = Math.min(k0+B, dense.nz)-1;
+                    if(sameSide(dense, iso, Math.max(0,i0-1), Math.max(0,j0-1), Math.max(0,k0-1),
+                                Math.min(dense.nx-1,i1+1), Math.min(dense.ny-1,j1+1), Math.min(dense.nz-1,k1+1))){
+                        f.uniform[code] = dense.get(i0, j0, k0);
+                        continue;
+                    }
+                    for(int k=k0;k<=k1;k++)
+                        for(int j=j0;j<=j1;j++)
+                            for(int i=i0;i<=i1;i++)
+                                f.set(i, j, k, dense.get(i, j, k));
+                }
+            }
+        }
+        Metrics.count("brick.allocated", f.allocated);
+        Metrics.count("brick.total", (long) f.bx*f.by*f.bz);
+        return f;
+    }
+
+    // straight from the RBF. Each brick plus its one-node ring is classified with the
+    // bound of HierarchicalField, subdividing down to 2 cells; only blocks the bound
+    // can't settle are evaluated exactly. A brick is allocated only if the result
+    // actually changes sign, so the dense grid is never materialized.
+    static BrickField build(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res, double iso){
+        Metrics.Stage st = Metrics.begin("buildField");
+        BrickField f = new BrickField(res, res, res, box, true);
+        Builder bl = new Builder(f, new HierarchicalField(C, lambda, f, iso), iso);
+
+        for(int ck=0;ck<f.bz;ck++){
+            JobEngine.checkCancelled();
+            for(int cj=0;cj<f.by;cj++){
+                for(int ci=0;ci<f.bx;ci++){
+                    bl.brick(ci, cj, ck);
+                }
+            }
+        }
+
+        Metrics.count("brick.allocated", f.allocated);
+        Metrics.count("brick.total", (long) f.bx*f.by*f.bz);
+        Metrics.count("field.blockEvals", bl.tests);
+        Metrics.count("field.nodes", bl.evals);
+        Metrics.count("kernel.evals", (bl.evals + bl.tests) * (long) C.size());
+        System.out.println("Bricks allocated=" + f.allocated + "/" + (f.bx*f.by*f.bz));
+        st.end();
+        return f;
+    }
+
+    private static class Builder {
+        static final int S = B + 2; // brick + ring
+
+        final BrickField f;
+        final HierarchicalField h;
+        final double iso;
+        final double[] scratch = new double[S*S*S];
+        final boolean[] exact = new boolean[S*S*S]; // sign-only fills must not overwrite these
+        int oi, oj, ok, ni, nj, nk; // scratch origin (grid nodes) and extent
+        long tests = 0, evals = 0;
+
+        Builder(BrickField f, HierarchicalField h, double iso){ this.f = f; this.h = h; this.iso = iso; }
+
+        void brick(int ci, int cj, int ck){
+            int i0 = ci*B, j0 = cj*B, k0 = ck*B;
+            int i1 = Math.min(i0+B, f.nx)-1, j1 = Math.min(j0+B, f.ny)-1, k1 = Math.min(k0+B, f.nz)-1;
+            oi = Math.max(0, i0-1); oj = Math.max(0, j0-1); ok = Math.max(0, k0-1);
+            int ei = Math.min(f.nx-1, i1+1), ej = Math.min(f.ny-1, j1+1), ek = Math.min(f.nz-1, k1+1);
+            ni = ei-oi+1; nj = ej-oj+1; nk = ek-ok+1;
+
+            Arrays.fill(exact, false);
+            refine(0,0,0, ni-1,nj-1,nk-1);
+
+            // collapse if the brick and its ring stay on one side of iso
+            int code = morton(ci, cj, ck);
+            boolean below = scratch[0] < iso;
+            boolean uniformSign = true;
+            for(int t=0, n=ni*nj*nk; t<n && uniformSign; t++){
+                if((scratch[t] < iso) != below) uniformSign = false;
+            }
+            if(uniformSign){
+                f.uniform[code] = scratch[0];
+                return;
+            }
+
+            double[] data = new double[B*B*B];
+            f.bricks[code] = data;
+            f.allocated++;
+            for(int k=k0;k<=k1;k++)
+                for(int j=j0;j<=j1;j++)
+                    for(int i=i0;i<=i1;i++)
+                        data[morton(i & MASK, j & MASK, k & MASK)] = scratch[sidx(i-oi, j-oj, k-ok)];
+        }
+
+        int sidx(int i, int j, int k){ return (k*nj + j)*ni + i; }
+
+        // scratch nodes [i0..i1] x [j0..j1] x [k0..k1]
+        void refine(int i0, int j0, int k0, int i1, int j1, int k1){
+            int di = i1-i0, dj = j1-j0, dk = k1-k0;
+            if(di <= HierarchicalField.LEAF && dj <= HierarchicalField.LEAF && dk <= HierarchicalField.LEAF){
+                for(int k=k0;k<=k1;k++)
+                    for(int j=j0;j<=j1;j++)
+                        for(int i=i0;i<=i1;i++){
+                            int t = sidx(i,j,k);
+                            if(exact[t]) continue;
+                            Vector3 x = f.pos(oi+i, oj+j, ok+k);
+                            scratch[t] = h.eval(x.x, x.y, x.z);
+                            exact[t] = true;
+                            evals++;
+                        }
+                return;
+            }
+
+            Vector3 a = f.pos(oi+i0, oj+j0, ok+k0), b = f.pos(oi+i1, oj+j1, ok+k1);
+            double dx = (b.x-a.x)/2, dy = (b.y-a.y)/2, dz = (b.z-a.z)/2;
+            double[] vb = h.valueAndBound((a.x+b.x)/2, (a.y+b.y)/2, (a.z+b.z)/2, Math.sqrt(dx*dx+dy*dy+dz*dz));
+            tests++;
+            double margin = Math.abs(vb[0] - iso) - vb[1];
+            if(margin > 0){
+                double sv = vb[0] > iso ? iso + margin : iso - margin;
+                for(int k=k0;k<=k1;k++)
+                    for(int j=j0;j<=j1;j++)
+                        for(int i=i0;i<=i1;i++){
+                            int t = sidx(i,j,k);
+                            if(!exact[t]) scratch[t] = sv;
+                        }
+                return;
+            }
+
+            // split the longest axis; children share the middle plane of nodes
+            if(di >= dj && di >= dk){
+                int m = i0 + di/2;
+                refine(i0,j0,k0, m,j1,k1); refine(m,j0,k0, i1,j1,k1);
+            }
+            else if(dj >= dk){
+                int m = j0 + dj/2;
+                refine(i0,j0,k0, i1,m,k1); refine(i0,m,k0, i1,j1,k1);
+            }
+            else{
+                int m = k0 + dk/2;
+                refine(i0,j0,k0, i1,j1,m); refine(i0,j0,m, i1,j1,k1);
+            }
+        }
+    }
+
+    private static boolean sameSide(Project02.ScalarField f, double iso, int i0, int j0, int k0, int i1, int j1, int k1){
+        boolean below = f.get(i0, j0, k0) < iso;
+        for(int k=k0;k<=k1;k++)
+            for(int j=j0;j<=j1;j++)
+                for(int i=i0;i<=i1;i++)
+                    if((f.get(i, j, k) < iso) != below) return false;
+        return true;
+    }
+}
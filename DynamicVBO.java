@@ -0,0 +1,261 @@
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// ====== Growable vertex buffer with dirty-range uploads ======
+// A CPU shadow copy of the packed positions (x,y,z floats) plus one VAO/VBO.
+// Producers change the shadow from any thread (set / write / setLength); that only
+// widens a dirty range. The GL thread calls flush(), which uploads just the dirty
+// range with glBufferSubData:
+//  - GPU capacity doubles when the data outgrows it (glBufferData, then everything
+//    is re-sent once)
+//  - a rewrite of the whole buffer orphans it first (glBufferData with null), so the
+//    driver doesn't have to wait for frames still drawing from the old contents
+// GL3 has no persistent mapping (GL 4.4), so orphaning is the stall-free path here.
+// Optional indices (setIndices / writeIndices) go the same way into an element buffer
+// attached to the VAO, for glDrawElements.
+// new DynamicVBO(true): interleaved x,y,z,nx,ny,nz per vertex, normals at location 1.
+class DynamicVBO {
+
+    private final boolean normals;
+    private final int stride;               // floats per vertex
+
+    private float[] data = new float[0];
+    private int length = 0;                 // floats in use
+    private int dirtyLo = Integer.MAX_VALUE, dirtyHi = 0;
+
+    private int vao = 0, vbo = 0;
+    private int capacity = 0;               // floats allocated on the GPU
+    private FloatBuffer staging = null;
+
+    long uploadedFloats = 0;                // total sent by flush(), for stats
+    private int drawLength = 0;             // length as of the last flush (GL thread only)
+
+    private int[] idx = new int[0];
+    private int idxLength = 0;
+    private int idxLo = Integer.MAX_VALUE, idxHi = 0;
+    private int ebo = 0, idxCapacity = 0;
+    private IntBuffer idxStaging = null;
+    private int drawIndices = 0;
+
+    DynamicVBO(){ this(false); }
+
+    DynamicVBO(boolean normals){
+        this.normals = normals;
+        this.stride = normals ? 6 : 3;
+    }
+
+    // ---- producer side (any thread) ----
+
+    // replace the contents; only floats that differ from the current shadow get marked
+    synchronized void set(float[] src, int n){
+        ensure(n);
+        int common = Math.min(n, length);
+        int lo = 0;
+        while(lo < common && Float.floatToRawIntBits(data[lo]) == Float.floatToRawIntBits(src[lo])) lo++;
+        int hi = common;
+        if(lo < common){
+            while(hi > lo && Float.floatToRawIntBits(data[hi-1]) == Float.floatToRawIntBits(src[hi-1])) hi--;
+        }
+        if(n > length) hi = n;              // appended tail
+        if(lo < hi){
+            System.arraycopy(src, lo, data, lo, hi - lo);
+            mark(lo, hi);
+        }
+        length = n;
+    }
+
+    // overwrite / append src[0, n) at offset (the length grows to cover it)
+    synchronized void write(int offset, float[] src, int n){
+        ensure(offset + n);
+        System.arraycopy(src, 0, data, offset, n);
+        mark(offset, offset + n);
+        length = Math.max(length, offset + n);
+    }
+
+    synchronized void setLength(int n){
+        ensure(n);
+        if(n > length) mark(length, n);
+        length = n;
+    }
+
+    // same as set / write / setLength, for the index stream
+    synchronized void setIndices(int[] src, int n){
+        ensureIdx(n);
+        int common = Math.min(n, idxLength);
+        int lo = 0;
+        while(lo < common && idx[lo] == src[lo]) lo++;
+        int hi = common;
+        if(lo < common){
+            while(hi > lo && idx[hi-1] == src[hi-1]) hi--;
+        }
+        if(n > idxLength) hi = n;
+        if(lo < hi){
+            System.arraycopy(src, lo, idx, lo, hi - lo);
+            markIdx(lo, hi);
+        }
+        idxLength = n;
+    }
+
+    synchronized void writeIndices(int offset, int[] src, int n){
+        ensureIdx(offset + n);
+        System.arraycopy(src, 0, idx, offset, n);
+        markIdx(offset, offset + n);
+        idxLength = Math.max(idxLength, offset + n);
+    }
+
+    // floats / indices in the shadow now (what the next flush() will have)
+    synchronized int length(){ return length; }
+    synchronized int indexLength(){ return idxLength; }
+
+    synchronized void setIndexLength(int n){
+        ensureIdx(n);
+        if(n > idxLength) markIdx(idxLength, n);
+        idxLength = n;
+    }
+
+    private void ensureIdx(int n){
+        if(n > idx.length) idx = Arrays.copyOf(idx, Math.max(n, idx.length * 2));
+    }
+
+    private void markIdx(int lo, int hi){
+        idxLo = Math.min(idxLo, lo);
+        idxHi = Math.max(idxHi, hi);
+    }
+
+    private void ensure(int n){
+        if(n > data.length) data = Arrays.copyOf(data, Math.max(n, data.length * 2));
+    }
+
+    private void mark(int lo, int hi){
+        dirtyLo = Math.min(dirtyLo, lo);
+        dirtyHi = Math.max(dirtyHi, hi);
+    }
+
+    // ---- GL thread ----
+
+    void flush(GL3 gl){
+        int lo, hi, n;
+        synchronized(this){
+            n = length;
+            if(vbo == 0) create(gl);
+
+            if(n > capacity){
+                int cap = Math.max(n, Math.max(1024, capacity * 2));
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+                gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) cap * 4L, null, GL.GL_DYNAMIC_DRAW);
+                capacity = cap;
+                mark(0, n);
+            }
+
+            lo = dirtyLo; hi = Math.min(dirtyHi, n);
+            dirtyLo = Integer.MAX_VALUE; dirtyHi = 0;
+            if(lo < hi){
+                if(staging == null || staging.capacity() < hi - lo){
+                    staging = Buffers.newDirectFloatBuffer(Math.max(hi - lo, staging == null ? 0 : staging.capacity() * 2));
+                }
+                staging.clear();
+                staging.put(data, lo, hi - lo);
+                staging.flip();
+            }
+        }
+        drawLength = n;
+        if(lo < hi){
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+            if(lo == 0 && hi == n){
+                // full rewrite: orphan so in-flight draws keep the old storage
+                gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) capacity * 4L, null, GL.GL_DYNAMIC_DRAW);
+            }
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) lo * 4L, (long) (hi - lo) * 4L, staging);
+            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+            uploadedFloats += hi - lo;
+            Metrics.count("viewer.uploadedBytes", (long) (hi - lo) * 4L);
+        }
+        flushIndices(gl);
+    }
+
+    // the element buffer binding is VAO state, so all of this happens with the VAO bound
+    private void flushIndices(GL3 gl){
+        int lo, hi, n;
+        boolean grow = false;
+        synchronized(this){
+            n = idxLength;
+            if(n == 0 && ebo == 0) return;
+            if(n > idxCapacity){
+                grow = true;
+                markIdx(0, n);
+            }
+            lo = idxLo; hi = Math.min(idxHi, n);
+            idxLo = Integer.MAX_VALUE; idxHi = 0;
+            if(lo < hi){
+                if(idxStaging == null || idxStaging.capacity() < hi - lo){
+                    idxStaging = Buffers.newDirectIntBuffer(Math.max(hi - lo, idxStaging == null ? 0 : idxStaging.capacity() * 2));
+                }
+                idxStaging.clear();
+                idxStaging.put(idx, lo, hi - lo);
+                idxStaging.flip();
+            }
+        }
+        drawIndices = n;
+        gl.glBindVertexArray(vao);
+        if(ebo == 0){
+            int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            ebo = ids[0];
+        }
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ebo);
+        if(grow){
+            idxCapacity = Math.max(n, Math.max(1024, idxCapacity * 2));
+            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) idxCapacity * 4L, null, GL.GL_DYNAMIC_DRAW);
+        }
+        else if(lo == 0 && hi == n && lo < hi){
+            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) idxCapacity * 4L, null, GL.GL_DYNAMIC_DRAW);
+        }
+        if(lo < hi){
+            gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) lo * 4L, (long) (hi - lo) * 4L, idxStaging);
+            Metrics.count("viewer.uploadedBytes", (long) (hi - lo) * 4L);
+        }
+        gl.glBindVertexArray(0);
+    }
+
+    private void create(GL3 gl){
+        int[] ids = new int[1];
+        gl.glGenVertexArrays(1, ids, 0);
+        vao = ids[0];
+        gl.glBindVertexArray(vao);
+
+        gl.glGenBuffers(1, ids, 0);
+        vbo = ids[0];
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+        gl.glEnableVertexAttribArray(0);
+        gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, stride * 4, 0);
+        if(normals){
+            gl.glEnableVertexAttribArray(1);
+            gl.glVertexAttribPointer(1, 3, GL.GL_FLOAT, false, stride * 4, 12);
+        }
+
+        gl.glBindVertexArray(0);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        capacity = 0;
+    }
+
+    // vertices uploaded by the last flush()
+    int vertexCount(){ return drawLength / stride; }
+
+    // indices uploaded by the last flush() (0: draw arrays)
+    int indexCount(){ return drawIndices; }
+
+    int vao(){ return vao; }
+
+    void delete(GL3 gl){
+        if(vao != 0) gl.glDeleteVertexArrays(1, new int[]{ vao }, 0);
+        if(vbo != 0) gl.glDeleteBuffers(1, new int[]{ vbo }, 0);
+        if(ebo != 0) gl.glDeleteBuffers(1, new int[]{ ebo }, 0);
+        vao = vbo = ebo = 0;
+        capacity = idxCapacity = 0;
+        synchronized(this){ mark(0, length); markIdx(0, idxLength); }   // a new context gets everything again
+    }
+}
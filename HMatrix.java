@@ -0,0 +1,470 @@
+import java.util.*;
+
+// ====== Hierarchical matrix for the RBF system ======
+// A[i][j] = |x_i - x_j| (+ DIAG_SHIFT on the diagonal) is smooth away from the
+// diagonal: the block between two well-separated clusters s, t is numerically low
+// rank. So:
+//  - a cluster tree splits the constraints at the median of the widest bbox axis,
+//    down to LEAF points; rows / columns are renumbered in tree order
+//  - a block (s, t) is admissible if min(diam s, diam t) <= ETA * dist(s, t); it is
+//    stored as U V^T, built by adaptive cross approximation (ACA, partial pivoting)
+//    from O((|s| + |t|) k) kernel entries, never the full block
+//  - blocks between small inadmissible clusters are stored dense
+// Storage and a matrix-vector product are then O(m log m * k) instead of m^2.
+//
+// fit() solves A lambda = y with restarted GMRES on this operator and a two-level
+// preconditioner (coarse dense solve + LU of the diagonal blocks, see Preconditioner).
+public class HMatrix {
+
+    static final int LEAF = 32;
+    static final double ETA = 2.0;
+    static final double ACA_TOL = 1e-7;     // relative, per block (Frobenius estimate)
+    static final int PRECOND_SIZE = 512;    // largest diagonal block factorized for the preconditioner
+    static final int COARSE = 2000;         // size of the dense coarse system in the preconditioner
+    static final int RESTART = 60;
+    static final int ENTRIES_PER_LEVEL = 480; // stored entries per row and tree level, measured on scans (JobEngine.estimate)
+
+    // ---- cluster tree ----
+
+    static class Cluster {
+        final int from, to;                 // rows [from, to) in tree order
+        final double[] lo = new double[3], hi = new double[3];
+        Cluster left, right;
+        Cluster(int from, int to){ this.from = from; this.to = to; }
+        int size(){ return to - from; }
+        boolean leaf(){ return left == null; }
+        double diam(){
+            double dx = hi[0]-lo[0], dy = hi[1]-lo[1], dz = hi[2]-lo[2];
+            return Math.sqrt(dx*dx + dy*dy + dz*dz);
+        }
+    }
+
+    // ---- blocks ----
+
+    private static class Block {
+        final int r0, nr, c0, nc;
+        double[] dense;         // nr x nc, row-major; null for low rank
+        double[] u, v;          // nr x k and nc x k, column l at [l*nr] / [l*nc]
+        int rank;
+        Block(int r0, int nr, int c0, int nc){ this.r0 = r0; this.nr = nr; this.c0 = c0; this.nc = nc; }
+    }
+
+    final int m;
+    final int[] perm;           // tree position -> constraint index
+    final double[] px, py, pz;  // positions in tree order
+    final Cluster root;
+    private final ArrayList<Block> blocks = new ArrayList<>();
+
+    long denseEntries = 0, lowRankEntries = 0, kernelEvals = 0;
+    int maxRank = 0;
+
+    HMatrix(ArrayList<Constraint> C){
+        Metrics.Stage st = Metrics.begin("hmatrix.build");
+        m = C.size();
+        perm = new int[m];
+        for(int i=0;i<m;i++) perm[i] = i;
+        double[][] xyz = new double[3][m];
+        for(int i=0;i<m;i++){
+            Vector3 p = C.get(i).x;
+            xyz[0][i] = p.x; xyz[1][i] = p.y; xyz[2][i] = p.z;
+        }
+        root = split(xyz, 0, m);
+        px = new double[m]; py = new double[m]; pz = new double[m];
+        for(int i=0;i<m;i++){
+            px[i] = xyz[0][perm[i]]; py[i] = xyz[1][perm[i]]; pz[i] = xyz[2][perm[i]];
+        }
+        partition(root, root);
+
+        Metrics.count("hmatrix.blocks", blocks.size());
+        Metrics.count("hmatrix.storedEntries", denseEntries + lowRankEntries);
+        Metrics.count("kernel.evals", kernelEvals);
+        Metrics.gauge("hmatrix.compression", (denseEntries + lowRankEntries) / ((double) m * m));
+        Metrics.gauge("hmatrix.maxRank", maxRank);
+        st.end();
+    }
+
+    double entry(int i, int j){
+        double dx = px[i]-px[j], dy = py[i]-py[j], dz = pz[i]-pz[j];
+        double a = Project02.phi(Math.sqrt(dx*dx + dy*dy + dz*dz));
+        return i == j ? a + Project02.DIAG_SHIFT : a;
+    }
+
+    // perm[from, to) is reordered in place so that each cluster is contiguous
+    private Cluster split(double[][] xyz, int from, int to){
+        Cluster c = new Cluster(from, to);
+        Arrays.fill(c.lo, Double.POSITIVE_INFINITY);
+        Arrays.fill(c.hi, Double.NEGATIVE_INFINITY);
+        for(int i=from;i<to;i++){
+            for(int a=0;a<3;a++){
+                double v = xyz[a][perm[i]];
+                c.lo[a] = Math.min(c.lo[a], v);
+                c.hi[a] = Math.max(c.hi[a], v);
+            }
+        }
+        if(to - from <= LEAF) return c;
+
+        int axis = 0;
+        for(int a=1;a<3;a++) if(c.hi[a]-c.lo[a] > c.hi[axis]-c.lo[axis]) axis = a;
+        int mid = (from + to) >>> 1;
+        select(xyz[axis], from, to-1, mid);
+        c.left = split(xyz, from, mid);
+        c.right = split(xyz, mid, to);
+        return c;
+    }
+
+    // quickselect on perm by key[perm[.]]
+    private void select(double[] key, int lo, int hi, int k){
+        while(lo < hi){
+            double pivot = key[perm[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while(i <= j){
+                while(key[perm[i]] < pivot) i++;
+                while(key[perm[j]] > pivot) j--;
+                if(i <= j){ int t = perm[i]; perm[i] = perm[j]; perm[j] = t; i++; j--; }
+            }
+            if(k <= j) hi = j;
+            else if(k >= i) lo = i;
+            else return;
+        }
+    }
+
+    static double dist(Cluster s, Cluster t){
+        double d2 = 0;
+        for(int a=0;a<3;a++){
+            double g = Math.max(0, Math.max(s.lo[a] - t.hi[a], t.lo[a] - s.hi[a]));
+            d2 += g*g;
+        }
+        return Math.sqrt(d2);
+    }
+
+    private void partition(Cluster s, Cluster t){
+        JobEngine.checkCancelled();
+        if(Math.min(s.diam(), t.diam()) <= ETA * dist(s, t)){
+            Block b = new Block(s.from, s.size(), t.from, t.size());
+            if(!aca(b)) fillDense(b);
+            blocks.add(b);
+            return;
+        }
+        if(s.leaf() || t.leaf()){
+            Block b = new Block(s.from, s.size(), t.from, t.size());
+            fillDense(b);
+            blocks.add(b);
+            return;
+        }
+        partition(s.left, t.left);
+        partition(s.left, t.right);
+        partition(s.right, t.left);
+        partition(s.right, t.right);
+    }
+
+    private void fillDense(Block b){
+        b.dense = new double[b.nr * b.nc];
+        for(int i=0;i<b.nr;i++)
+            for(int j=0;j<b.nc;j++)
+                b.dense[i*b.nc + j] = entry(b.r0+i, b.c0+j);
+        kernelEvals += (long) b.nr * b.nc;
+        denseEntries += (long) b.nr * b.nc;
+    }
+
+    // ACA with partial pivoting; false if the rank would not pay off vs dense
+    private boolean aca(Block b){
+        int nr = b.nr, nc = b.nc;
+        int kmax = Math.min(nr, nc) / 2;
+        double[] u = new double[nr * Math.max(1, kmax)], v = new double[nc * Math.max(1, kmax)];
+        boolean[] usedRow = new boolean[nr];
+        double norm2 = 0;
+        int k = 0, istar = 0, misses = 0;
+
+        while(k < kmax){
+            JobEngine.checkCancelled();
+            usedRow[istar] = true;
+            // residual row istar
+            int vo = k*nc;
+            for(int j=0;j<nc;j++){
+                double a = entry(b.r0+istar, b.c0+j);
+                for(int l=0;l<k;l++) a -= u[l*nr + istar] * v[l*nc + j];
+                v[vo + j] = a;
+            }
+            kernelEvals += nc;
+            int jstar = 0;
+            for(int j=1;j<nc;j++) if(Math.abs(v[vo+j]) > Math.abs(v[vo+jstar])) jstar = j;
+            double piv = v[vo + jstar];
+
+            if(Math.abs(piv) < 1e-300){
+                // zero residual row: try another one
+                if(++misses > 3 || (istar = nextRow(usedRow)) < 0) break;
+                continue;
+            }
+            for(int j=0;j<nc;j++) v[vo+j] /= piv;
+
+            // residual column jstar
+            int uo = k*nr;
+            for(int i=0;i<nr;i++){
+                double a = entry(b.r0+i, b.c0+jstar);
+                for(int l=0;l<k;l++) a -= u[l*nr + i] * v[l*nc + jstar];
+                u[uo + i] = a;
+            }
+            kernelEvals += nr;
+
+            // ||S_k||_F^2 update
+            double uu = 0, vv = 0;
+            for(int i=0;i<nr;i++) uu += u[uo+i]*u[uo+i];
+            for(int j=0;j<nc;j++) vv += v[vo+j]*v[vo+j];
+            for(int l=0;l<k;l++){
+                double su = 0, sv = 0;
+                for(int i=0;i<nr;i++) su += u[uo+i]*u[l*nr+i];
+                for(int j=0;j<nc;j++) sv += v[vo+j]*v[l*nc+j];
+                norm2 += 2*su*sv;
+            }
+            norm2 += uu*vv;
+            k++;
+
+            if(Math.sqrt(uu*vv) <= ACA_TOL * Math.sqrt(norm2)) break;
+
+            istar = -1;
+            for(int i=0;i<nr;i++){
+                if(usedRow[i]) continue;
+                if(istar < 0 || Math.abs(u[uo+i]) > Math.abs(u[uo+istar])) istar = i;
+            }
+            if(istar < 0) break;
+        }
+        if(k >= kmax && kmax > 0) return false;
+
+        b.u = Arrays.copyOf(u, k*nr);
+        b.v = Arrays.copyOf(v, k*nc);
+        b.rank = k;
+        lowRankEntries += (long) k * (nr + nc);
+        maxRank = Math.max(maxRank, k);
+        return true;
+    }
+
+    private static int nextRow(boolean[] used){
+        for(int i=0;i<used.length;i++) if(!used[i]) return i;
+        return -1;
+    }
+
+    // ---- operator (tree order) ----
+
+    // y = A x, both in tree order
+    void multiplyTree(double[] x, double[] y){
+        Arrays.fill(y, 0.0);
+        double[] tmp = new double[Math.max(1, maxRank)];
+        for(Block b: blocks){
+            if(b.dense != null){
+                for(int i=0;i<b.nr;i++){
+                    double s = 0;
+                    int o = i*b.nc;
+                    for(int j=0;j<b.nc;j++) s += b.dense[o+j] * x[b.c0+j];
+                    y[b.r0+i] += s;
+                }
+            }
+            else{
+                for(int l=0;l<b.rank;l++){
+                    double s = 0;
+                    int o = l*b.nc;
+                    for(int j=0;j<b.nc;j++) s += b.v[o+j] * x[b.c0+j];
+                    tmp[l] = s;
+                }
+                for(int l=0;l<b.rank;l++){
+                    double s = tmp[l];
+                    int o = l*b.nr;
+                    for(int i=0;i<b.nr;i++) y[b.r0+i] += b.u[o+i] * s;
+                }
+            }
+        }
+    }
+
+    // y = A x in constraint order
+    double[] multiply(double[] x){
+        double[] xt = new double[m], yt = new double[m], y = new double[m];
+        for(int i=0;i<m;i++) xt[i] = x[perm[i]];
+        multiplyTree(xt, yt);
+        for(int i=0;i<m;i++) y[perm[i]] = yt[i];
+        return y;
+    }
+
+    long storedEntries(){ return denseEntries + lowRankEntries; }
+
+    // ---- preconditioner ----
+
+    // Two-level: a coarse solve on COARSE constraints spread evenly in tree order (so
+    // evenly in space) takes out the smooth, global part of the residual; dense LU of
+    // the diagonal blocks of the tree (<= PRECOND_SIZE) then handles the local part,
+    // including the close +/- eps pairs along each normal.
+    //     z = R^T Ac^-1 R r;   z += blockLU^-1 (r - A z)
+    private class Preconditioner {
+        final ArrayList<Cluster> parts = new ArrayList<>();
+        final ArrayList<double[][]> lu = new ArrayList<>();
+        final ArrayList<int[]> piv = new ArrayList<>();
+        final int[] coarse;
+        final double[][] coarseLU;
+        final int[] coarsePiv;
+        final double[] t1 = new double[m], t2 = new double[m];
+
+        Preconditioner(){
+            collect(root);
+            for(Cluster c: parts){
+                int n = c.size();
+                double[][] a = new double[n][n];
+                for(int i=0;i<n;i++)
+                    for(int j=0;j<n;j++)
+                        a[i][j] = entry(c.from+i, c.from+j);
+                piv.add(Project02.luDecompose(a));
+                lu.add(a);
+            }
+
+            int nc = Math.min(COARSE, m);
+            coarse = new int[nc];
+            for(int k=0;k<nc;k++) coarse[k] = (int) ((long) k * m / nc);
+            coarseLU = new double[nc][nc];
+            for(int i=0;i<nc;i++)
+                for(int j=0;j<nc;j++)
+                    coarseLU[i][j] = entry(coarse[i], coarse[j]);
+            coarsePiv = Project02.luDecompose(coarseLU);
+        }
+
+        private void collect(Cluster c){
+            if(c.size() <= PRECOND_SIZE || c.leaf()) parts.add(c);
+            else{ collect(c.left); collect(c.right); }
+        }
+
+        void apply(double[] r, double[] z){
+            double[] rc = new double[coarse.length];
+            for(int i=0;i<rc.length;i++) rc[i] = r[coarse[i]];
+            double[] zc = Project02.luSolve(coarseLU, coarsePiv, rc);
+            Arrays.fill(z, 0);
+            for(int i=0;i<rc.length;i++) z[coarse[i]] = zc[i];
+
+            multiplyTree(z, t1);
+            for(int i=0;i<m;i++) t1[i] = r[i] - t1[i];
+            for(int p=0;p<parts.size();p++){
+                Cluster c = parts.get(p);
+                double[] zb = Project02.luSolve(lu.get(p), piv.get(p), Arrays.copyOfRange(t1, c.from, c.to));
+                System.arraycopy(zb, 0, t2, c.from, zb.length);
+            }
+            for(int i=0;i<m;i++) z[i] += t2[i];
+        }
+    }
+
+    // ---- solve ----
+
+    // lambda for the constraints C, like Project02.fitRBF but without the m x m matrix;
+    // tol is the relative residual ||A lambda - y|| / ||y||
+    static double[] fit(ArrayList<Constraint> C, double tol, int maxIter){
+        Metrics.Stage st = Metrics.begin("fitRBF.hmatrix");
+        HMatrix H = new HMatrix(C);
+        System.out.println("H-matrix: m=" + H.m + " blocks=" + H.blocks.size() + " stored="
+                           + String.format(Locale.ROOT, "%.1f%%", 100.0 * H.storedEntries() / ((double) H.m * H.m))
+                           + " maxRank=" + H.maxRank);
+
+        double[] y = new double[H.m];
+        for(int i=0;i<H.m;i++) y[i] = C.get(H.perm[i]).y;
+        double[] xt = H.gmres(y, tol, maxIter);
+
+        double[] lambda = new double[H.m];
+        for(int i=0;i<H.m;i++) lambda[H.perm[i]] = xt[i];
+        st.end();
+        return lambda;
+    }
+
+    // right-preconditioned restarted GMRES in tree order: A M^-1 u = b, x = M^-1 u
+    double[] gmres(double[] b, double tol, int maxIter){
+        Metrics.Stage st = Metrics.begin("hmatrix.gmres");
+        Preconditioner M = new Preconditioner();
+        int n = m, R = RESTART;
+        double[] x = new double[n], r = new double[n], w = new double[n], z = new double[n];
+        double bn = norm(b);
+        if(bn == 0){ st.end(); return x; }
+
+        double[][] V = new double[R+1][];
+        double[][] Z = new double[R][];
+        double[][] Hh = new double[R+1][R];
+        double[] cs = new double[R], sn = new double[R], g = new double[R+1];
+        int it = 0;
+        double rel = 1;
+
+        while(it < maxIter){
+            JobEngine.checkCancelled();
+            multiplyTree(x, w);
+            for(int i=0;i<n;i++) r[i] = b[i] - w[i];
+            double beta = norm(r);
+            rel = beta / bn;
+            if(rel <= tol) break;
+
+            V[0] = new double[n];
+            for(int i=0;i<n;i++) V[0][i] = r[i] / beta;
+            Arrays.fill(g, 0);
+            g[0] = beta;
+
+            int k = 0;
+            for(; k<R && it<maxIter; k++, it++){
+                Z[k] = new double[n];
+                M.apply(V[k], Z[k]);
+                multiplyTree(Z[k], w);
+                // modified Gram-Schmidt
+                for(int j=0;j<=k;j++){
+                    double h = dot(w, V[j]);
+                    Hh[j][k] = h;
+                    for(int i=0;i<n;i++) w[i] -= h * V[j][i];
+                }
+                double hn = norm(w);
+                Hh[k+1][k] = hn;
+                V[k+1] = new double[n];
+                if(hn > 0) for(int i=0;i<n;i++) V[k+1][i] = w[i] / hn;
+
+                for(int j=0;j<k;j++){
+                    double t = cs[j]*Hh[j][k] + sn[j]*Hh[j+1][k];
+                    Hh[j+1][k] = -sn[j]*Hh[j][k] + cs[j]*Hh[j+1][k];
+                    Hh[j][k] = t;
+                }
+                double d = Math.hypot(Hh[k][k], Hh[k+1][k]);
+                cs[k] = Hh[k][k] / d;
+                sn[k] = Hh[k+1][k] / d;
+                Hh[k][k] = d;
+                Hh[k+1][k] = 0;
+                g[k+1] = -sn[k]*g[k];
+                g[k] = cs[k]*g[k];
+
+                rel = Math.abs(g[k+1]) / bn;
+                if(rel <= tol || hn == 0){ k++; it++; break; }
+            }
+            // the restart recomputes the true residual, so a converged estimate is confirmed there
+            update(x, Z, Hh, g, k);
+        }
+
+        // true residual
+        multiplyTree(x, w);
+        for(int i=0;i<n;i++) r[i] = b[i] - w[i];
+        rel = norm(r) / bn;
+        System.out.println("GMRES: iterations=" + it + " relResidual=" + rel);
+        Metrics.count("hmatrix.gmresIterations", it);
+        Metrics.gauge("hmatrix.relResidual", rel);
+        st.end();
+        // like the dense path on a singular matrix: no unconverged lambda downstream
+        if(!(rel <= tol)){
+            throw new RuntimeException("GMRES did not converge: relResidual=" + rel + " > " + tol + " after " + it + " iterations");
+        }
+        return x;
+    }
+
+    private static void update(double[] x, double[][] Z, double[][] H, double[] g, int k){
+        double[] c = new double[k];
+        for(int i=k-1;i>=0;i--){
+            double s = g[i];
+            for(int j=i+1;j<k;j++) s -= H[i][j] * c[j];
+            c[i] = s / H[i][i];
+        }
+        for(int j=0;j<k;j++){
+            double[] zj = Z[j];
+            for(int i=0;i<x.length;i++) x[i] += c[j] * zj[i];
+        }
+    }
+
+    private static double dot(double[] a, double[] b){
+        double s = 0;
+        for(int i=0;i<a.length;i++) s += a[i]*b[i];
+        return s;
+    }
+
+    private static double norm(double[] a){ return Math.sqrt(dot(a, a)); }
+}
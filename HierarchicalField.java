@@ -0,0 +1,178 @@
+import java.util.*;
+
+// ====== Hierarchical field evaluation with Lipschitz block culling ======
+// f(x) = sum_j lambda_j |x - c_j| is Lipschitz with L = sum_j |lambda_j|, so one
+// evaluation at the center c of a block of cells bounds f on the whole block:
+//
+//     |f(x) - f(c)| <= L * h            (h = distance from c to the block corners)
+//
+// The lambdas are large and cancel (each point gives a +/- pair), so L is loose.
+// A tighter local bound comes from the same sweep over the centers: with the exact
+// gradient g and Hessian H at c, and |D^3 |x-c_j|| <= 3/|x-c_j|^2,
+//
+//     |f(x) - f(c)| <= |g| h + |H| h^2 / 2 + sum_j |lambda_j| * ( d_j > 2h ? h^3 / (2 (d_j - h)^2) : h )
+//
+// If |f(c) - iso| exceeds the bound, no cell in the block can contain the iso level:
+// its nodes only get a sign-only value (a conservative iso +/- margin) and its cells
+// are marked so marchingCubes skips them. Other blocks are split into octants down to
+// LEAF cells per side, where nodes are evaluated exactly.
+public class HierarchicalField {
+
+    static final int LEAF = 2;
+
+    final ArrayList<Constraint> C;
+    final double[] lambda;
+    final Project02.ScalarField f;
+    final double iso;
+
+    // centers as flat arrays for the bound sweep
+    final double[] cx, cy, cz;
+    final double sumAbs;
+
+    long blockEvals = 0, nodeEvals = 0, culledBlocks = 0;
+
+    HierarchicalField(ArrayList<Constraint> C, double[] lambda, Project02.ScalarField f, double iso){
+        this.C = C; this.lambda = lambda; this.f = f; this.iso = iso;
+        int m = C.size();
+        cx = new double[m]; cy = new double[m]; cz = new double[m];
+        double s = 0;
+        for(int j=0;j<m;j++){
+            Vector3 p = C.get(j).x;
+            cx[j] = p.x; cy[j] = p.y; cz[j] = p.z;
+            s += Math.abs(lambda[j]);
+        }
+        sumAbs = s;
+    }
+
+    static Project02.ScalarField build(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res, double iso){
+        Project02.ScalarField f = new Project02.ScalarField(res, res, res, box);
+        f.signOnly = new BitSet(res*res*res);
+        f.culled = new BitSet(res*res*res);
+        HierarchicalField h = new HierarchicalField(C, lambda, f, iso);
+
+        // nodes not yet written; sign-only fills must never overwrite exact values
+        f.signOnly.set(0, res*res*res);
+        BitSet written = new BitSet(res*res*res);
+        h.refine(0,0,0, res-1,res-1,res-1, written);
+
+        Metrics.count("field.blockEvals", h.blockEvals);
+        Metrics.count("field.culledBlocks", h.culledBlocks);
+        Metrics.count("field.nodes", h.nodeEvals);
+        Metrics.count("kernel.evals", (h.blockEvals + h.nodeEvals) * (long) C.size());
+        return f;
+    }
+
+    // cells [i0,i1) x [j0,j1) x [k0,k1), i.e. nodes [i0..i1] x ...
+    private void refine(int i0, int j0, int k0, int i1, int j1, int k1, BitSet written){
+        if(i1 <= i0 || j1 <= j0 || k1 <= k0) return;
+        JobEngine.checkCancelled();
+        int ni = i1-i0, nj = j1-j0, nk = k1-k0;
+
+        Vector3 a = f.pos(i0,j0,k0), b = f.pos(i1,j1,k1);
+        double px = (a.x+b.x)/2, py = (a.y+b.y)/2, pz = (a.z+b.z)/2;
+        double dx = (b.x-a.x)/2, dy = (b.y-a.y)/2, dz = (b.z-a.z)/2;
+        double h = Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+        double[] vb = valueAndBound(px, py, pz, h);
+        blockEvals++;
+        double margin = Math.abs(vb[0] - iso) - vb[1];
+        if(margin > 0){
+            culledBlocks++;
+            double sv = vb[0] > iso ? iso + margin : iso - margin;
+            fill(i0,j0,k0, i1,j1,k1, sv, written);
+            return;
+        }
+
+        if(ni <= LEAF && nj <= LEAF && nk <= LEAF){
+            evalNodes(i0,j0,k0, i1,j1,k1, written);
+            return;
+        }
+
+        int im = (ni > LEAF) ? i0 + ni/2 : i1;
+        int jm = (nj > LEAF) ? j0 + nj/2 : j1;
+        int km = (nk > LEAF) ? k0 + nk/2 : k1;
+        refine(i0,j0,k0, im,jm,km, written);
+        refine(im,j0,k0, i1,jm,km, written);
+        refine(i0,jm,k0, im,j1,km, written);
+        refine(im,jm,k0, i1,j1,km, written);
+        refine(i0,j0,km, im,jm,k1, written);
+        refine(im,j0,km, i1,jm,k1, written);
+        refine(i0,jm,km, im,j1,k1, written);
+        refine(im,jm,km, i1,j1,k1, written);
+    }
+
+    // returns { f(p), bound on |f(x) - f(p)| for |x - p| <= h }
+    double[] valueAndBound(double px, double py, double pz, double h){
+        double v = 0, gx = 0, gy = 0, gz = 0, rem = 0;
+        double hxx = 0, hyy = 0, hzz = 0, hxy = 0, hxz = 0, hyz = 0;
+        double h3 = h*h*h;
+        for(int j=0;j<cx.length;j++){
+            double dx = px-cx[j], dy = py-cy[j], dz = pz-cz[j];
+            double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            double l = lambda[j];
+            v += l * d;
+            if(d > 2*h){
+                // second-order Taylor at p; |D^3 |x-c_j|| <= 3/|x-c_j|^2 bounds the rest
+                double inv = 1.0 / d;
+                double ux = dx*inv, uy = dy*inv, uz = dz*inv;
+                double li = l * inv;
+                gx += l*ux; gy += l*uy; gz += l*uz;
+                hxx += li*(1 - ux*ux); hyy += li*(1 - uy*uy); hzz += li*(1 - uz*uz);
+                hxy -= li*ux*uy; hxz -= li*ux*uz; hyz -= li*uy*uz;
+                double dh = d - h;
+                rem += Math.abs(l) * h3 / (2*dh*dh);
+            }
+            else{
+                // kernel not smooth enough near the block: plain Lipschitz term
+                rem += Math.abs(l) * h;
+            }
+        }
+        double hess = Math.sqrt(hxx*hxx + hyy*hyy + hzz*hzz + 2*(hxy*hxy + hxz*hxz + hyz*hyz));
+        double local = Math.sqrt(gx*gx + gy*gy + gz*gz) * h + 0.5 * hess * h*h + rem;
+        double global = sumAbs * h;
+        double bound = Math.min(local, global);
+        // slack for rounding in the sums
+        bound = bound * (1 + 1e-9) + 1e-12 * (Math.abs(v) + sumAbs * h);
+        return new double[]{ v, bound };
+    }
+
+    // same sum as Project02.evalRBF, over the flat center arrays
+    double eval(double px, double py, double pz){
+        double v = 0;
+        for(int j=0;j<cx.length;j++){
+            double dx = px-cx[j], dy = py-cy[j], dz = pz-cz[j];
+            v += lambda[j] * Math.sqrt(dx*dx + dy*dy + dz*dz);
+        }
+        return v;
+    }
+
+    private void evalNodes(int i0, int j0, int k0, int i1, int j1, int k1, BitSet written){
+        for(int k=k0;k<=k1;k++){
+            for(int j=j0;j<=j1;j++){
+                for(int i=i0;i<=i1;i++){
+                    int id = f.idx(i,j,k);
+                    if(written.get(id) && !f.signOnly.get(id)) continue;
+                    Vector3 x = f.pos(i,j,k);
+                    f.val[id] = eval(x.x, x.y, x.z);
+                    f.signOnly.clear(id);
+                    written.set(id);
+                    nodeEvals++;
+                }
+            }
+        }
+    }
+
+    private void fill(int i0, int j0, int k0, int i1, int j1, int k1, double v, BitSet written){
+        for(int k=k0;k<=k1;k++){
+            for(int j=j0;j<=j1;j++){
+                for(int i=i0;i<=i1;i++){
+                    int id = f.idx(i,j,k);
+                    if(written.get(id)) continue;
+                    f.val[id] = v;
+                    written.set(id);
+                }
+                if(k < k1 && j < j1) f.culled.set(f.idx(i0,j,k), f.idx(i1,j,k));
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.util.*;
+
+// ====== Incremental RBF fit ======
+// Keeps the L D L^T factors (SymPacked) of the fitRBF matrix A0 for a base set of
+// constraints and handles later edits as a bordered system instead of refitting
+// from scratch:
+//
+//   [ A0  B ] [x]   [y0]       B = kernel columns of added constraints, and unit
+//   [ B^T D ] [w] = [ c]           columns e_r for removed base constraints
+//
+// A unit border column with a zero diagonal forces x_r = 0 and frees row r, which
+// is exactly "constraint r removed". With W = A0^-1 B (one O(m^2) solve per border
+// column, cached) the Schur complement S = D - B^T W is only k x k:
+//
+//   S w = c - B^T z,   x = z - W w,   z = A0^-1 y0
+//
+// so adding / removing k constraints costs O(m^2 k) instead of O(m^3). S is symmetric
+// and indefinite like A0, so it is factored the same way. Once the border grows past
+// REFACTOR_RATIO * m the current set is refactored. The packed factors need m^2/2
+// doubles, so this is for sets below Project02.HMATRIX_MIN (StageGraph edits use it).
+public class IncrementalFit {
+
+    static final double REFACTOR_RATIO = 0.25;
+
+    final double eps;
+
+    // base factorization
+    private ArrayList<Constraint> base;
+    private int[] baseIds;
+    private SymPacked ldl;
+    private double[] z;
+
+    // edits since the last factorization (by id)
+    private final LinkedHashMap<Integer, Constraint> added = new LinkedHashMap<>();
+    private final TreeSet<Integer> removedBase = new TreeSet<>(); // positions in base
+    private final HashMap<Integer, double[]> wAdded = new HashMap<>();
+    private final HashMap<Integer, double[]> wRemoved = new HashMap<>();
+
+    private int nextId;
+
+    // current solution, aligned with constraints()
+    private ArrayList<Constraint> curC;
+    private double[] curLambda;
+    private int[] curIds;
+
+    IncrementalFit(ArrayList<Constraint> C, double eps){
+        this.eps = eps;
+        int[] ids = new int[C.size()];
+        for(int i=0;i<ids.length;i++) ids[i] = i;
+        nextId = ids.length;
+        factor(new ArrayList<>(C), ids);
+        solve();
+    }
+
+    ArrayList<Constraint> constraints(){ return curC; }
+    double[] lambda(){ return curLambda; }
+    int[] ids(){ return curIds; }
+    int size(){ return curC.size(); }
+
+    // ---- edits ----
+
+    // constraints for new scan points (same eps as the original fit); returns their ids
+    int[] addPoints(ArrayList<PointN> pts){
+        ArrayList<Constraint> C = new ArrayList<>();
+        for(PointN pn: pts) Project02.addConstraints(C, pn, eps);
+        return add(C);
+    }
+
+    int[] add(ArrayList<Constraint> C){
+        Metrics.Stage st = Metrics.begin("IncrementalFit.add");
+        int[] ids = new int[C.size()];
+        for(int i=0;i<C.size();i++){
+            int id = nextId++;
+            ids[i] = id;
+            added.put(id, C.get(i));
+            wAdded.put(id, ldl.solve(kernelColumn(C.get(i).x)));
+        }
+        Metrics.count("incfit.added", C.size());
+        update();
+        st.end();
+        return ids;
+    }
+
+    void remove(int[] ids){
+        Metrics.Stage st = Metrics.begin("IncrementalFit.remove");
+        HashMap<Integer, Integer> basePos = new HashMap<>();
+        for(int i=0;i<baseIds.length;i++) basePos.put(baseIds[i], i);
+
+        for(int id: ids){
+            if(added.remove(id) != null){
+                wAdded.remove(id);
+                continue;
+            }
+            Integer r = basePos.get(id);
+            if(r == null || !removedBase.add(r)) continue;
+            double[] e = new double[base.size()];
+            e[r] = 1.0;
+            wRemoved.put(r, ldl.solve(e));
+        }
+        Metrics.count("incfit.removed", ids.length);
+        update();
+        st.end();
+    }
+
+    // re-extract the surface with the current weights
+    Mesh extract(Project02.BBox box, int res, double iso){
+        Project02.ScalarField field = Project02.buildField(curC, curLambda, box, res, iso);
+        return Project02.marchingCubes(field, iso);
+    }
+
+    // ---- internals ----
+
+    private void update(){
+        if(added.size() + removedBase.size() > REFACTOR_RATIO * base.size()){
+            Metrics.count("incfit.refactor", 1);
+            ArrayList<Constraint> C = new ArrayList<>();
+            ArrayList<Integer> idl = new ArrayList<>();
+            for(int i=0;i<base.size();i++){
+                if(removedBase.contains(i)) continue;
+                C.add(base.get(i)); idl.add(baseIds[i]);
+            }
+            for(Map.Entry<Integer, Constraint> e: added.entrySet()){
+                C.add(e.getValue()); idl.add(e.getKey());
+            }
+            int[] ids = new int[idl.size()];
+            for(int i=0;i<ids.length;i++) ids[i] = idl.get(i);
+            factor(C, ids);
+        }
+        solve();
+    }
+
+    private void factor(ArrayList<Constraint> C, int[] ids){
+        int m = C.size();
+        double[] y = new double[m];
+        for(int i=0;i<m;i++) y[i] = C.get(i).y;
+        SymPacked A = SymPacked.rbf(C);
+        A.factor();
+
+        base = C;
+        baseIds = ids;
+        ldl = A;
+        z = ldl.solve(y);
+        added.clear();
+        removedBase.clear();
+        wAdded.clear();
+        wRemoved.clear();
+    }
+
+    private void solve(){
+        int m = base.size();
+        int ka = added.size();
+        int k = ka + removedBase.size();
+
+        // border columns: added constraints first, then removed base rows
+        double[][] B = new double[k][];
+        double[][] W = new double[k][];
+        Constraint[] ac = new Constraint[ka];
+        int[] rr = new int[removedBase.size()];
+        int t = 0;
+        for(Map.Entry<Integer, Constraint> e: added.entrySet()){
+            ac[t] = e.getValue();
+            B[t] = kernelColumn(ac[t].x);
+            W[t] = wAdded.get(e.getKey());
+            t++;
+        }
+        for(int r: removedBase){
+            rr[t-ka] = r;
+            W[t] = wRemoved.get(r);
+            t++;
+        }
+
+        double[] w = new double[k];
+        if(k > 0){
+            SymPacked S = new SymPacked(k);
+            double[] rhs = new double[k];
+            for(int a=0;a<k;a++){
+                for(int b=0;b<=a;b++){
+                    double d = 0.0;
+                    if(a < ka && b < ka){
+                        d = Project02.phi(Project02.dist(ac[a].x, ac[b].x));
+                        if(a == b) d += Project02.DIAG_SHIFT;
+                    }
+                    S.set(a, b, d - (a < ka ? dot(B[a], W[b]) : W[b][rr[a-ka]]));
+                }
+                rhs[a] = (a < ka) ? ac[a].y - dot(B[a], z) : -z[rr[a-ka]];
+            }
+            S.factor();
+            w = S.solve(rhs);
+        }
+
+        double[] x = z.clone();
+        for(int a=0;a<k;a++){
+            double wa = w[a];
+            double[] Wa = W[a];
+            for(int i=0;i<m;i++) x[i] -= Wa[i] * wa;
+        }
+
+        // collect the active constraints and their weights
+        curC = new ArrayList<>();
+        ArrayList<Double> lam = new ArrayList<>();
+        ArrayList<Integer> idl = new ArrayList<>();
+        for(int i=0;i<m;i++){
+            if(removedBase.contains(i)) continue;
+            curC.add(base.get(i)); lam.add(x[i]); idl.add(baseIds[i]);
+        }
+        t = 0;
+        for(Map.Entry<Integer, Constraint> e: added.entrySet()){
+            curC.add(e.getValue()); lam.add(w[t++]); idl.add(e.getKey());
+        }
+        curLambda = new double[lam.size()];
+        curIds = new int[idl.size()];
+        for(int i=0;i<curLambda.length;i++){ curLambda[i] = lam.get(i); curIds[i] = idl.get(i); }
+    }
+
+    private double[] kernelColumn(Vector3 x){
+        double[] col = new double[base.size()];
+        for(int i=0;i<col.length;i++) col[i] = Project02.phi(Project02.dist(base.get(i).x, x));
+        Metrics.count("kernel.evals", col.length);
+        return col;
+    }
+
+    private static double dot(double[] a, double[] b){
+        double s = 0.0;
+        for(int i=0;i<a.length;i++) s += a[i]*b[i];
+        return s;
+    }
+}
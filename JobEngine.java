@@ -0,0 +1,260 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// ====== Reconstruction jobs ======
+// Runs reconstructions (fit -> field -> mesh) on a fixed set of worker threads.
+//  - priorities: the highest priority queued job starts first (FIFO among equals)
+//  - memory budget: each job declares an estimated footprint (see estimate) and only
+//    starts while the sum over running jobs stays within the budget; a job bigger
+//    than the whole budget is rejected at submit
+//  - cancellation is cooperative: the solver, grid and marching cubes loops call
+//    checkCancelled(), which throws Cancelled on a worker whose job was cancelled
+//    (and is a no-op on any other thread, so direct calls are unaffected).
+//    ForkJoin workers don't see the job, so parallel sections take current() on the
+//    submitting thread and call checkCancelled(job) inside their tasks.
+//    cancel() doesn't wait for that: the job is CANCELLED (get() throws) at once, and
+//    its memory reservation is released when the worker actually stops.
+//
+//   JobEngine jobs = new JobEngine(4, 2L << 30);
+//   JobEngine.Job<Mesh> j = jobs.submitReconstruction(pts, 2000, 128, 0.0, 10);
+//   ...
+//   j.cancel(true);            // user changed a parameter
+//   Mesh m = j.get();          // CancellationException if cancelled
+public class JobEngine {
+
+    static class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled(String name){ super("job cancelled: " + name); }
+    }
+
+    enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    interface Task<T> { T run() throws Exception; }
+
+    private static final ThreadLocal<Job<?>> CURRENT = new ThreadLocal<>();
+
+    // called from the inner loops of long stages; cheap when no job is running
+    static void checkCancelled(){
+        checkCancelled(CURRENT.get());
+    }
+
+    // job of the calling thread (null off job threads), to be captured by parallel tasks
+    static Job<?> current(){ return CURRENT.get(); }
+
+    static void checkCancelled(Job<?> j){
+        if(j != null && j.cancelRequested) throw new Cancelled(j.name);
+    }
+
+    static class Job<T> implements Future<T> {
+        final String name;
+        final int priority;
+        final long bytes;
+        final long seq;
+        final Task<T> task;
+
+        volatile boolean cancelRequested = false;
+        volatile State state = State.QUEUED;
+        private T result;
+        private Throwable error;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private JobEngine engine;
+        private volatile Thread runner;     // worker thread while RUNNING
+
+        private Job(String name, int priority, long bytes, long seq, Task<T> task){
+            this.name = name; this.priority = priority; this.bytes = bytes; this.seq = seq; this.task = task;
+        }
+
+        State state(){ return state; }
+
+        // Doesn't block: a queued job is dropped, a running one is marked CANCELLED right
+        // away and stops at its next checkCancelled(). mayInterrupt also interrupts the
+        // worker, for tasks blocked in waits or I/O. False if the job had already ended.
+        @Override
+        public boolean cancel(boolean mayInterrupt){
+            if(isDone()) return false;
+            cancelRequested = true;
+            engine.dequeue(this);
+            if(!finish(State.CANCELLED, null, null)) return state == State.CANCELLED;
+            Metrics.count("jobs.cancelled", 1);
+            Thread t = runner;
+            if(mayInterrupt && t != null && t != Thread.currentThread()) t.interrupt();
+            return true;
+        }
+
+        @Override public boolean isCancelled(){ return state == State.CANCELLED; }
+        @Override public boolean isDone(){ return done.getCount() == 0; }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if(!done.await(timeout, unit)) throw new TimeoutException(name);
+            return report();
+        }
+
+        private T report() throws ExecutionException {
+            if(state == State.CANCELLED) throw new CancellationException(name);
+            if(state == State.FAILED) throw new ExecutionException(error);
+            return result;
+        }
+
+        // first call wins (cancel() vs the worker)
+        private synchronized boolean finish(State s, T r, Throwable e){
+            if(done.getCount() == 0) return false;
+            result = r; error = e; state = s;
+            done.countDown();
+            return true;
+        }
+    }
+
+    private final PriorityQueue<Job<?>> queue = new PriorityQueue<>((a, b) ->
+        a.priority != b.priority ? Integer.compare(b.priority, a.priority) : Long.compare(a.seq, b.seq));
+    private final Thread[] workers;
+    private final long budget;
+    private long reserved = 0;
+    private long seq = 0;
+    private boolean shutdown = false;
+
+    JobEngine(int threads, long budgetBytes){
+        if(threads < 1 || budgetBytes <= 0) throw new IllegalArgumentException("threads=" + threads + " budget=" + budgetBytes);
+        budget = budgetBytes;
+        workers = new Thread[threads];
+        for(int t=0;t<threads;t++){
+            workers[t] = new Thread(this::work, "JobEngine-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+    }
+
+    <T> Job<T> submit(String name, int priority, long bytes, Task<T> task){
+        if(bytes > budget){
+            throw new IllegalArgumentException("job " + name + " needs ~" + bytes + " bytes, budget is " + budget);
+        }
+        synchronized(this){
+            if(shutdown) throw new RejectedExecutionException("engine shut down");
+            Job<T> j = new Job<>(name, priority, Math.max(0, bytes), seq++, task);
+            j.engine = this;
+            queue.add(j);
+            Metrics.count("jobs.submitted", 1);
+            notifyAll();
+            return j;
+        }
+    }
+
+    // buildConstraints -> fitRBF -> hierarchical buildField -> marchingCubes
+    Job<Mesh> submitReconstruction(ArrayList<PointN> pts, int maxN, int res, double iso, int priority){
+        int m = 3 * Math.min(maxN, pts.size());
+        return submit("reconstruct(m=" + m + ", res=" + res + ")", priority, estimate(m, res), () -> {
+            ArrayList<Constraint> C = Project02.buildConstraints(pts, maxN);
+            double[] lambda = Project02.fitRBF(C);
+            Project02.BBox box = Project02.expand(Project02.bbox(pts), 0.10);
+            Project02.ScalarField f = Project02.buildField(C, lambda, box, res, iso);
+            return Project02.marchingCubes(f, iso);
+        });
+    }
+
+    // peak bytes of one reconstruction: the packed m(m+1)/2 system dominates the fit
+    // (from HMATRIX_MIN on: the H-matrix, its preconditioner and the GMRES basis),
+    // the field is res^3 doubles plus two bitsets; the mesh is small next to those
+    static long estimate(int m, int res){
+        long fit;
+        if(m >= Project02.HMATRIX_MIN){
+            double levels = Math.max(1, Math.log((double) m / HMatrix.LEAF) / Math.log(2));
+            int coarse = Math.min(m, HMatrix.COARSE);
+            fit = (long) (8.0 * m * HMatrix.ENTRIES_PER_LEVEL * levels)
+                + 8L * coarse * coarse + 8L * m * HMatrix.PRECOND_SIZE
+                + 16L * m * (HMatrix.RESTART + 1);
+        }
+        else{
+            fit = 4L * m * (m + 1) + 16L * m * 8;
+        }
+        long n = (long) res * res * res;
+        long field = 8L * n + 2 * (n / 8) + 16L * res * res * 8; // + MC slices / caches
+        if(m >= Project02.PM_MIN) field += 16L * res * res * (res + 1) * 2; // padded spectrum (ParticleMesh)
+        return Math.max(fit, field) + 8L * m * 3;                   // lambda and centers stay alive
+    }
+
+    int queued(){ synchronized(this){ return queue.size(); } }
+    long reservedBytes(){ synchronized(this){ return reserved; } }
+
+    // queued jobs are cancelled, running ones are asked to stop
+    void shutdown(){
+        List<Job<?>> drop;
+        synchronized(this){
+            shutdown = true;
+            drop = new ArrayList<>(queue);
+            notifyAll();
+        }
+        for(Job<?> j: drop) j.cancel(true);
+    }
+
+    private synchronized void dequeue(Job<?> j){
+        if(j.state == State.QUEUED) queue.remove(j);
+    }
+
+    // head of the queue only: a large high-priority job is not starved by small ones
+    private synchronized Job<?> take() throws InterruptedException {
+        while(true){
+            Job<?> head = queue.peek();
+            if(head != null && head.isDone()){          // cancelled while queued
+                queue.poll();
+                continue;
+            }
+            if(head != null && reserved + head.bytes <= budget){
+                queue.poll();
+                reserved += head.bytes;
+                head.runner = Thread.currentThread();
+                head.state = State.RUNNING;
+                return head;
+            }
+            if(shutdown && queue.isEmpty()) return null;
+            wait();
+        }
+    }
+
+    private synchronized void release(Job<?> j){
+        reserved -= j.bytes;
+        notifyAll();
+    }
+
+    private void work(){
+        while(true){
+            Job<?> j;
+            try {
+                j = take();
+            } catch (InterruptedException ex){
+                return;
+            }
+            if(j == null) return;
+            run(j);
+        }
+    }
+
+    private <T> void run(Job<T> j){
+        CURRENT.set(j);
+        long t0 = System.nanoTime();
+        try {
+            checkCancelled();
+            T r = j.task.run();
+            if(j.finish(State.DONE, r, null)) Metrics.count("jobs.done", 1);
+        } catch (Cancelled ex){
+            if(j.finish(State.CANCELLED, null, null)) Metrics.count("jobs.cancelled", 1);
+        } catch (Throwable ex){
+            // an interrupt from cancel(true) may surface as any exception
+            if(j.finish(j.cancelRequested ? State.CANCELLED : State.FAILED, null, j.cancelRequested ? null : ex)){
+                Metrics.count(j.cancelRequested ? "jobs.cancelled" : "jobs.failed", 1);
+            }
+        } finally {
+            j.runner = null;
+            Thread.interrupted();       // don't carry an interrupt into the next job
+            CURRENT.remove();
+            Metrics.count("jobs.runNanos", System.nanoTime() - t0);
+            release(j);
+        }
+    }
+}
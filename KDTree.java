@@ -0,0 +1,115 @@
+import java.util.*;
+
+// ====== k-d tree over points ======
+// Balanced and implicit: the points are reordered so that the subtree over [lo, hi)
+// has its splitting point at mid = (lo+hi)/2, left subtree [lo, mid), right
+// (mid, hi). Only the coordinates and the split axis per point are stored, so
+// millions of points cost ~29 bytes each.
+//
+//   KDTree t = new KDTree(xyz, n);
+//   double[] d2 = new double[1];
+//   int i = t.nearest(x, y, z, d2);   // index into the original xyz, d2[0] = squared distance
+public class KDTree {
+
+    final int n;
+    final double[] x, y, z;     // in tree order
+    final int[] id;             // tree order -> original index
+    final byte[] axis;
+
+    KDTree(double[] xyz, int n){
+        this.n = n;
+        x = new double[n]; y = new double[n]; z = new double[n];
+        id = new int[n];
+        axis = new byte[n];
+        for(int i=0;i<n;i++){
+            x[i] = xyz[3*i]; y[i] = xyz[3*i+1]; z[i] = xyz[3*i+2];
+            id[i] = i;
+        }
+        build(0, n);
+    }
+
+    static KDTree of(ArrayList<PointN> pts){
+        double[] xyz = new double[pts.size()*3];
+        for(int i=0;i<pts.size();i++){
+            Vector3 p = pts.get(i).p;
+            xyz[3*i] = p.x; xyz[3*i+1] = p.y; xyz[3*i+2] = p.z;
+        }
+        return new KDTree(xyz, pts.size());
+    }
+
+    private void build(int lo, int hi){
+        while(hi - lo > 1){
+            double minx=1e300, miny=1e300, minz=1e300, maxx=-1e300, maxy=-1e300, maxz=-1e300;
+            for(int i=lo;i<hi;i++){
+                minx=Math.min(minx,x[i]); miny=Math.min(miny,y[i]); minz=Math.min(minz,z[i]);
+                maxx=Math.max(maxx,x[i]); maxy=Math.max(maxy,y[i]); maxz=Math.max(maxz,z[i]);
+            }
+            double ex = maxx-minx, ey = maxy-miny, ez = maxz-minz;
+            int a = (ex >= ey && ex >= ez) ? 0 : (ey >= ez ? 1 : 2);
+            int mid = (lo + hi) >>> 1;
+            select(a == 0 ? x : a == 1 ? y : z, lo, hi-1, mid);
+            axis[mid] = (byte) a;
+            build(lo, mid);
+            lo = mid + 1;   // right subtree iteratively
+        }
+    }
+
+    // quickselect on key, moving all coordinates along
+    private void select(double[] key, int lo, int hi, int k){
+        while(lo < hi){
+            double pivot = key[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while(i <= j){
+                while(key[i] < pivot) i++;
+                while(key[j] > pivot) j--;
+                if(i <= j){ swap(i, j); i++; j--; }
+            }
+            if(k <= j) hi = j;
+            else if(k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j){
+        double t;
+        t = x[i]; x[i] = x[j]; x[j] = t;
+        t = y[i]; y[i] = y[j]; y[j] = t;
+        t = z[i]; z[i] = z[j]; z[j] = t;
+        int s = id[i]; id[i] = id[j]; id[j] = s;
+    }
+
+    // ---- queries ----
+
+    // -1 for an empty tree; safe to call from several threads
+    int nearest(double qx, double qy, double qz, double[] out){
+        if(n == 0){ out[0] = Double.POSITIVE_INFINITY; return -1; }
+        double[] best = { Double.POSITIVE_INFINITY, -1 };
+        search(0, n, qx, qy, qz, best);
+        out[0] = best[0];
+        return id[(int) best[1]];
+    }
+
+    private void search(int lo, int hi, double qx, double qy, double qz, double[] best){
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            double dx = qx - x[mid], dy = qy - y[mid], dz = qz - z[mid];
+            double d2 = dx*dx + dy*dy + dz*dz;
+            if(d2 < best[0]){ best[0] = d2; best[1] = mid; }
+            if(hi - lo == 1) return;
+
+            int a = axis[mid];
+            double diff = a == 0 ? dx : a == 1 ? dy : dz;
+            // near side first; the far side only if the splitting plane is closer than the best
+            if(diff < 0){
+                search(lo, mid, qx, qy, qz, best);
+                if(diff*diff >= best[0]) return;
+                lo = mid + 1;
+            }
+            else{
+                search(mid+1, hi, qx, qy, qz, best);
+                if(diff*diff >= best[0]) return;
+                hi = mid;
+            }
+        }
+    }
+}
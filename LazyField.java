@@ -0,0 +1,264 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// ====== Lazy tiled field for slicing and probing ======
+// Instead of a whole res^3 grid, the fit is evaluated on demand in TILE^3-node tiles
+// of a level-of-detail hierarchy over the box:
+//   level l has (res0-1) * 2^l + 1 nodes per axis; node (i,j,k) of level l is node
+//   (2i,2j,2k) of level l+1, so zooming in refines without moving existing nodes
+// Tiles are computed by a pool of loader threads; a tile being computed is shared by
+// every caller that asks for it, and finished tiles stay in an LRU cache bounded by a
+// byte budget (same policy as StageGraph). Repeated and overlapping slices / probes
+// only touch the tiles they need, usually from the cache.
+//
+//   LazyField lf = new LazyField(C, lambda, box, 64, 64L << 20);
+//   Project02.ScalarField s = lf.slice(2, 0.1, 1);             // z = 0.1 plane, level 1
+//   Project02.ScalarField r = lf.region(sub, 3);               // zoomed grid for marchingCubes
+//   double v = lf.sample(x, y, z, 2);                          // trilinear at level 2
+public class LazyField {
+
+    static final int TILE = 16;             // nodes per tile side
+    static final int MAX_LEVEL = 10;
+
+    final Project02.BBox box;
+    final int res0;
+    private final HierarchicalField eval;   // flat-array evaluation of the fit
+    private final int m;
+
+    private final LinkedHashMap<Long, double[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final HashMap<Long, CompletableFuture<double[]>> inflight = new HashMap<>();
+    private final long budget;
+    private long used = 0;
+    private final ExecutorService loader;
+
+    LazyField(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res0, long budgetBytes){
+        if(res0 < 2) throw new IllegalArgumentException("res0 must be >= 2");
+        this.box = box;
+        this.res0 = res0;
+        this.budget = budgetBytes;
+        this.m = C.size();
+        eval = new HierarchicalField(C, lambda, new Project02.ScalarField(res0, res0, res0, box, false), 0.0);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        loader = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "LazyField-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ---- level geometry ----
+
+    int nodes(int level){ return (res0 - 1) * (1 << level) + 1; }
+
+    double spacing(int axis, int level){
+        return (max(axis) - min(axis)) / (nodes(level) - 1);
+    }
+
+    private double min(int axis){ return axis == 0 ? box.min.x : axis == 1 ? box.min.y : box.min.z; }
+    private double max(int axis){ return axis == 0 ? box.max.x : axis == 1 ? box.max.y : box.max.z; }
+
+    private static long key(int level, int ti, int tj, int tk){
+        return ((long) level << 60) | ((long) ti << 40) | ((long) tj << 20) | tk;
+    }
+
+    // ---- queries ----
+
+    // exact value, no grid
+    double probe(double x, double y, double z){ return eval.eval(x, y, z); }
+
+    // node value at level l
+    double value(int level, int i, int j, int k){
+        double[] t = tile(level, i / TILE, j / TILE, k / TILE);
+        return t[((k % TILE)*TILE + j % TILE)*TILE + i % TILE];
+    }
+
+    // trilinear interpolation between the level-l nodes around (x, y, z)
+    double sample(double x, double y, double z, int level){
+        checkLevel(level);
+        int n = nodes(level);
+        double tx = cellCoord(x, 0, level), ty = cellCoord(y, 1, level), tz = cellCoord(z, 2, level);
+        int i = Math.min(n - 2, (int) tx), j = Math.min(n - 2, (int) ty), k = Math.min(n - 2, (int) tz);
+        double u = tx - i, v = ty - j, w = tz - k;
+        double c00 = lerp(value(level, i, j,   k),   value(level, i+1, j,   k),   u);
+        double c10 = lerp(value(level, i, j+1, k),   value(level, i+1, j+1, k),   u);
+        double c01 = lerp(value(level, i, j,   k+1), value(level, i+1, j,   k+1), u);
+        double c11 = lerp(value(level, i, j+1, k+1), value(level, i+1, j+1, k+1), u);
+        return lerp(lerp(c00, c10, v), lerp(c01, c11, v), w);
+    }
+
+    // node plane of level l nearest to coord along axis (0 x, 1 y, 2 z), as a field
+    // with one node along that axis
+    Project02.ScalarField slice(int axis, double coord, int level){
+        checkLevel(level);
+        int n = nodes(level);
+        int p = (int) Math.round(cellCoord(coord, axis, level));
+        int[] lo = { 0, 0, 0 }, hi = { n-1, n-1, n-1 };
+        lo[axis] = hi[axis] = p;
+        return grid(level, lo, hi);
+    }
+
+    // level-l nodes covering sub (snapped outward to nodes), e.g. for marchingCubes
+    Project02.ScalarField region(Project02.BBox sub, int level){
+        checkLevel(level);
+        int n = nodes(level);
+        int[] lo = new int[3], hi = new int[3];
+        double[] smin = { sub.min.x, sub.min.y, sub.min.z }, smax = { sub.max.x, sub.max.y, sub.max.z };
+        for(int a=0;a<3;a++){
+            lo[a] = Math.max(0, (int) Math.floor(cellCoord(smin[a], a, level)));
+            hi[a] = Math.min(n-1, (int) Math.ceil(cellCoord(smax[a], a, level)));
+            if(hi[a] <= lo[a]) hi[a] = Math.min(n-1, lo[a] + 1);
+        }
+        return grid(level, lo, hi);
+    }
+
+    // start loading the tiles of a region without waiting (e.g. the next slice)
+    void prefetch(Project02.BBox sub, int level){
+        checkLevel(level);
+        int n = nodes(level);
+        double[] smin = { sub.min.x, sub.min.y, sub.min.z }, smax = { sub.max.x, sub.max.y, sub.max.z };
+        int[] t0 = new int[3], t1 = new int[3];
+        for(int a=0;a<3;a++){
+            t0[a] = Math.max(0, (int) Math.floor(cellCoord(smin[a], a, level))) / TILE;
+            t1[a] = Math.min(n-1, (int) Math.ceil(cellCoord(smax[a], a, level))) / TILE;
+        }
+        for(int tk=t0[2];tk<=t1[2];tk++)
+            for(int tj=t0[1];tj<=t1[1];tj++)
+                for(int ti=t0[0];ti<=t1[0];ti++) request(level, ti, tj, tk);
+    }
+
+    // nodes lo..hi (inclusive) of level l; all tiles are requested first so they load in parallel
+    private Project02.ScalarField grid(int level, int[] lo, int[] hi){
+        int nx = hi[0]-lo[0]+1, ny = hi[1]-lo[1]+1, nz = hi[2]-lo[2]+1;
+        double hx = spacing(0, level), hy = spacing(1, level), hz = spacing(2, level);
+        Project02.BBox b = new Project02.BBox(
+            new Vector3(box.min.x + lo[0]*hx, box.min.y + lo[1]*hy, box.min.z + lo[2]*hz),
+            new Vector3(box.min.x + hi[0]*hx, box.min.y + hi[1]*hy, box.min.z + hi[2]*hz));
+        Project02.ScalarField f = new Project02.ScalarField(nx, ny, nz, b);
+
+        ArrayList<CompletableFuture<double[]>> parts = new ArrayList<>();
+        ArrayList<int[]> ids = new ArrayList<>();
+        for(int tk=lo[2]/TILE;tk<=hi[2]/TILE;tk++)
+            for(int tj=lo[1]/TILE;tj<=hi[1]/TILE;tj++)
+                for(int ti=lo[0]/TILE;ti<=hi[0]/TILE;ti++){
+                    parts.add(request(level, ti, tj, tk));
+                    ids.add(new int[]{ ti, tj, tk });
+                }
+        for(int q=0;q<parts.size();q++){
+            JobEngine.checkCancelled();
+            double[] t = join(parts.get(q));
+            int[] id = ids.get(q);
+            int i0 = Math.max(lo[0], id[0]*TILE), i1 = Math.min(hi[0], id[0]*TILE + TILE-1);
+            int j0 = Math.max(lo[1], id[1]*TILE), j1 = Math.min(hi[1], id[1]*TILE + TILE-1);
+            int k0 = Math.max(lo[2], id[2]*TILE), k1 = Math.min(hi[2], id[2]*TILE + TILE-1);
+            for(int k=k0;k<=k1;k++)
+                for(int j=j0;j<=j1;j++)
+                    for(int i=i0;i<=i1;i++){
+                        f.val[f.idx(i-lo[0], j-lo[1], k-lo[2])] = t[((k%TILE)*TILE + j%TILE)*TILE + i%TILE];
+                    }
+        }
+        return f;
+    }
+
+    private double cellCoord(double x, int axis, int level){
+        double h = spacing(axis, level);
+        if(h == 0) return 0;
+        double t = (x - min(axis)) / h;
+        return Math.max(0, Math.min(nodes(level) - 1, t));
+    }
+
+    private static double lerp(double a, double b, double t){ return a + (b - a) * t; }
+
+    private void checkLevel(int level){
+        if(level < 0 || level > MAX_LEVEL) throw new IllegalArgumentException("level " + level + " out of 0.." + MAX_LEVEL);
+    }
+
+    // ---- tiles ----
+
+    private double[] tile(int level, int ti, int tj, int tk){
+        return join(request(level, ti, tj, tk));
+    }
+
+    // cached tile, the load already running for it, or a new load
+    private CompletableFuture<double[]> request(int level, int ti, int tj, int tk){
+        long key = key(level, ti, tj, tk);
+        synchronized(cache){
+            double[] t = cache.get(key);
+            if(t != null){
+                Metrics.count("lazy.hits", 1);
+                return CompletableFuture.completedFuture(t);
+            }
+            CompletableFuture<double[]> f = inflight.get(key);
+            if(f != null) return f;
+            Metrics.count("lazy.misses", 1);
+            f = CompletableFuture.supplyAsync(() -> compute(level, ti, tj, tk), loader);
+            inflight.put(key, f);
+            f.whenComplete((v, ex) -> {
+                synchronized(cache){
+                    inflight.remove(key);
+                    if(v != null) put(key, v);
+                }
+            });
+            return f;
+        }
+    }
+
+    private double[] compute(int level, int ti, int tj, int tk){
+        int n = nodes(level);
+        double hx = spacing(0, level), hy = spacing(1, level), hz = spacing(2, level);
+        double[] t = new double[TILE*TILE*TILE];
+        long evals = 0;
+        for(int c=0;c<TILE;c++){
+            int k = tk*TILE + c;
+            if(k >= n) break;
+            double z = box.min.z + k*hz;
+            for(int b=0;b<TILE;b++){
+                int j = tj*TILE + b;
+                if(j >= n) break;
+                double y = box.min.y + j*hy;
+                for(int a=0;a<TILE;a++){
+                    int i = ti*TILE + a;
+                    if(i >= n) break;
+                    t[(c*TILE + b)*TILE + a] = eval.eval(box.min.x + i*hx, y, z);
+                    evals++;
+                }
+            }
+        }
+        Metrics.count("kernel.evals", evals * m);
+        return t;
+    }
+
+    private static double[] join(CompletableFuture<double[]> f){
+        try {
+            return f.join();
+        } catch (CompletionException ex){
+            Throwable c = ex.getCause();
+            if(c instanceof RuntimeException) throw (RuntimeException) c;
+            throw ex;
+        }
+    }
+
+    // under the cache lock
+    private void put(long key, double[] t){
+        long bytes = 16L + 8L * t.length;
+        if(bytes > budget) return;
+        Iterator<Map.Entry<Long, double[]>> it = cache.entrySet().iterator();
+        while(used + bytes > budget && it.hasNext()){
+            used -= 16L + 8L * it.next().getValue().length;
+            it.remove();
+            Metrics.count("lazy.evictions", 1);
+        }
+        cache.put(key, t);
+        used += bytes;
+    }
+
+    long cachedBytes(){ synchronized(cache){ return used; } }
+
+    void clear(){
+        synchronized(cache){
+            cache.clear();
+            used = 0;
+        }
+    }
+
+    void shutdown(){ loader.shutdownNow(); }
+}
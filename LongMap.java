@@ -0,0 +1,91 @@
+import java.util.*;
+
+// ====== Primitive long -> long hash map ======
+// Open addressing with linear probing over two parallel arrays; no boxing and no
+// per-entry objects. Keys must be >= 0 (-1 marks a free slot). Doubles are stored
+// as their raw bits (putDouble / getDouble).
+public class LongMap {
+
+    private static final long FREE = -1;
+
+    private long[] keys;
+    private long[] vals;
+    private int mask;
+    private int size = 0;
+
+    LongMap(int expected){
+        int cap = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[cap];
+        vals = new long[cap];
+        Arrays.fill(keys, FREE);
+        mask = cap - 1;
+    }
+
+    int size(){ return size; }
+
+    private static int hash(long k){
+        k *= 0x9E3779B97F4A7C15L;
+        return (int) (k ^ (k >>> 32));
+    }
+
+    long get(long key, long missing){
+        for(int i = hash(key) & mask; ; i = (i+1) & mask){
+            long k = keys[i];
+            if(k == key) return vals[i];
+            if(k == FREE) return missing;
+        }
+    }
+
+    boolean containsKey(long key){
+        for(int i = hash(key) & mask; ; i = (i+1) & mask){
+            long k = keys[i];
+            if(k == key) return true;
+            if(k == FREE) return false;
+        }
+    }
+
+    void put(long key, long val){
+        for(int i = hash(key) & mask; ; i = (i+1) & mask){
+            long k = keys[i];
+            if(k == key){ vals[i] = val; return; }
+            if(k == FREE){
+                keys[i] = key;
+                vals[i] = val;
+                if(++size * 2 > keys.length) grow();
+                return;
+            }
+        }
+    }
+
+    // put if absent; returns false if the key was already there
+    boolean add(long key){
+        if(containsKey(key)) return false;
+        put(key, 0);
+        return true;
+    }
+
+    double getDouble(long key, double missing){
+        for(int i = hash(key) & mask; ; i = (i+1) & mask){
+            long k = keys[i];
+            if(k == key) return Double.longBitsToDouble(vals[i]);
+            if(k == FREE) return missing;
+        }
+    }
+
+    void putDouble(long key, double v){ put(key, Double.doubleToRawLongBits(v)); }
+
+    void clear(){
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    private void grow(){
+        long[] ok = keys, ov = vals;
+        keys = new long[ok.length * 2];
+        vals = new long[ok.length * 2];
+        Arrays.fill(keys, FREE);
+        mask = keys.length - 1;
+        size = 0;
+        for(int i=0;i<ok.length;i++) if(ok[i] != FREE) put(ok[i], ov[i]);
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.*;
+
+// ====== Allocation-free marching cubes ======
+// Same tables as Project02.marchingCubes, but nothing is allocated per cell:
+//  - two z-slices of node values are kept; each node is loaded once per slice and
+//    the right face of a cell becomes the left face of the next one in the row
+//  - corner positions are computed from the grid origin and spacing
+//  - the edges a case cuts come from a per-case table (no 12-bit scan)
+//  - each cut edge gets one vertex, cached per slice by edge, so neighbouring cells
+//    share vertices; vertices / triangles go into a MeshBuffer
+//  - an optional Slab callback sees the triangles of each finished z-slab (streaming)
+public class MCKernel {
+
+    // vertices [fromVertex, out.vertexCount) and triangles [fromTri, out.triangleCount)
+    // were made by the slab just finished
+    interface Slab { void done(MeshBuffer out, int fromVertex, int fromTri); }
+
+    // per edge: endpoints (low -> high grid coordinate), which cache holds it
+    // (0 = x edges of the low slice, 1 = y edges low, 2 = x high, 3 = y high,
+    // 4 = z edges between the slices) and the cache slot offset (di, dj)
+    static final int[] EDGE_A     = { 0, 1, 3, 0, 4, 5, 7, 4, 0, 1, 2, 3 };
+    static final int[] EDGE_B     = { 1, 2, 2, 3, 5, 6, 6, 7, 4, 5, 6, 7 };
+    static final int[] EDGE_CACHE = { 0, 1, 0, 1, 2, 3, 2, 3, 4, 4, 4, 4 };
+    static final int[] EDGE_DI    = { 0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0 };
+    static final int[] EDGE_DJ    = { 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 1 };
+
+    static final int[][] CASE_EDGES = new int[256][];
+    static {
+        for(int c=0;c<256;c++){
+            int bits = MCTables.edgeTable[c];
+            int[] e = new int[Integer.bitCount(bits)];
+            int n = 0;
+            for(int b=0;b<12;b++) if((bits & (1<<b)) != 0) e[n++] = b;
+            CASE_EDGES[c] = e;
+        }
+    }
+
+    final Project02.ScalarField f;
+    final double iso;
+    final MeshBuffer out;
+    final Slab slab;
+    final int nx, ny, nz;
+    final double x0, y0, z0, dx, dy, dz;
+
+    double[] lo, hi;              // node values of slices k and k+1
+    int[][] cache = new int[5][]; // vertex index per edge, -1 = not yet made
+    final double[] v = new double[8];
+    final int[] ev = new int[12];
+    int ci, cj, ck;
+
+    private MCKernel(Project02.ScalarField f, double iso, MeshBuffer out, Slab slab){
+        this.f = f; this.iso = iso; this.out = out; this.slab = slab;
+        nx = f.nx; ny = f.ny; nz = f.nz;
+        Project02.BBox b = f.box;
+        x0 = b.min.x; y0 = b.min.y; z0 = b.min.z;
+        dx = (nx==1) ? 0 : (b.max.x - b.min.x) / (nx-1);
+        dy = (ny==1) ? 0 : (b.max.y - b.min.y) / (ny-1);
+        dz = (nz==1) ? 0 : (b.max.z - b.min.z) / (nz-1);
+        int s = nx*ny;
+        lo = new double[s]; hi = new double[s];
+        for(int c=0;c<5;c++) cache[c] = new int[s];
+    }
+
+    static MeshBuffer extract(Project02.ScalarField f, double iso){
+        return extract(f, iso, new MeshBuffer());
+    }
+
+    // appends to out (reuse one buffer across calls to avoid regrowing it)
+    static MeshBuffer extract(Project02.ScalarField f, double iso, MeshBuffer out){
+        return extract(f, iso, out, null);
+    }
+
+    static MeshBuffer extract(Project02.ScalarField f, double iso, MeshBuffer out, Slab slab){
+        Metrics.Stage st = Metrics.begin("marchingCubes");
+        MCKernel mc = new MCKernel(f, iso, out, slab);
+        long active = mc.run();
+        Metrics.count("mc.cellsVisited", (long)(f.nx-1) * (f.ny-1) * (f.nz-1));
+        Metrics.count("mc.cellsActive", active);
+        Metrics.count("mc.triangles", out.triangleCount);
+        st.end();
+        return out;
+    }
+
+    private long run(){
+        long active = 0;
+        if(nx < 2 || ny < 2 || nz < 2) return 0;
+        BitSet culled = f.culled;
+        double[] v = this.v;
+
+        loadSlice(0, lo);
+        Arrays.fill(cache[0], -1);
+        Arrays.fill(cache[1], -1);
+
+        for(int k=0;k<nz-1;k++){
+            JobEngine.checkCancelled();
+            ck = k;
+            int fromVertex = out.vertexCount, fromTri = out.triangleCount;
+            loadSlice(k+1, hi);
+            Arrays.fill(cache[2], -1);
+            Arrays.fill(cache[3], -1);
+            Arrays.fill(cache[4], -1);
+
+            for(int j=0;j<ny-1;j++){
+                cj = j;
+                int r0 = j*nx, r1 = r0 + nx;
+                double v0 = lo[r0], v3 = lo[r1], v4 = hi[r0], v7 = hi[r1];
+
+                for(int i=0;i<nx-1;i++){
+                    double v1 = lo[r0+i+1], v2 = lo[r1+i+1], v5 = hi[r0+i+1], v6 = hi[r1+i+1];
+
+                    if(culled == null || !culled.get(f.idx(i,j,k))){
+                        int cube = 0;
+                        if(v0 < iso) cube |= 1;
+                        if(v1 < iso) cube |= 2;
+                        if(v2 < iso) cube |= 4;
+                        if(v3 < iso) cube |= 8;
+                        if(v4 < iso) cube |= 16;
+                        if(v5 < iso) cube |= 32;
+                        if(v6 < iso) cube |= 64;
+                        if(v7 < iso) cube |= 128;
+
+                        int[] edges = CASE_EDGES[cube];
+                        if(edges.length != 0){
+                            active++;
+                            ci = i;
+                            v[0]=v0; v[1]=v1; v[2]=v2; v[3]=v3; v[4]=v4; v[5]=v5; v[6]=v6; v[7]=v7;
+                            for(int e: edges) ev[e] = vertex(e);
+
+                            int[] tri = MCTables.triTable[cube];
+                            for(int t=0; t<16 && tri[t] != -1; t+=3){
+                                out.addTriangle(ev[tri[t]], ev[tri[t+1]], ev[tri[t+2]]);
+                            }
+                        }
+                    }
+
+                    v0 = v1; v3 = v2; v4 = v5; v7 = v6;
+                }
+            }
+
+            if(slab != null && out.triangleCount > fromTri) slab.done(out, fromVertex, fromTri);
+
+            double[] ts = lo; lo = hi; hi = ts;
+            int[] tc = cache[0]; cache[0] = cache[2]; cache[2] = tc;
+            tc = cache[1]; cache[1] = cache[3]; cache[3] = tc;
+        }
+        return active;
+    }
+
+    private int vertex(int e){
+        int[] c = cache[EDGE_CACHE[e]];
+        int slot = (cj + EDGE_DJ[e])*nx + ci + EDGE_DI[e];
+        int id = c[slot];
+        if(id >= 0) return id;
+
+        int a = EDGE_A[e], b = EDGE_B[e];
+        int[] oa = Project02.VERT_OFF[a], ob = Project02.VERT_OFF[b];
+        double ax = x0 + (ci+oa[0])*dx, ay = y0 + (cj+oa[1])*dy, az = z0 + (ck+oa[2])*dz;
+
+        // same rule as Project02.vertexInterp
+        double va = v[a], d = v[b] - va;
+        if(Math.abs(d) < 1e-12){
+            id = out.addVertex(ax, ay, az);
+        }
+        else{
+            double t = (iso - va) / d;
+            if(t < 0) t = 0;
+            if(t > 1) t = 1;
+            double bx = x0 + (ci+ob[0])*dx, by = y0 + (cj+ob[1])*dy, bz = z0 + (ck+ob[2])*dz;
+            id = out.addVertex(ax + (bx-ax)*t, ay + (by-ay)*t, az + (bz-az)*t);
+        }
+        c[slot] = id;
+        return id;
+    }
+
+    private void loadSlice(int k, double[] dst){
+        if(f.val != null){
+            System.arraycopy(f.val, k*nx*ny, dst, 0, nx*ny);
+            return;
+        }
+        int t = 0;
+        for(int j=0;j<ny;j++)
+            for(int i=0;i<nx;i++)
+                dst[t++] = f.get(i, j, k);
+    }
+}
@@ -3,4 +3,5 @@ import java.util.*;
 public class Mesh {
     public ArrayList<Vector3> V = new ArrayList<>();
     public ArrayList<int[]> F = new ArrayList<>(); // each int[3]
+    public ArrayList<Vector3> N = new ArrayList<>(); // per-vertex unit normals; empty if not computed
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+import java.util.*;
+
+// ====== Primitive mesh storage ======
+// Positions as x,y,z doubles and triangles as index triples in growable arrays,
+// so extraction can append without allocating an object per vertex or face.
+public class MeshBuffer {
+    double[] pos;
+    int[] tri;
+    double[] nrm;       // per-vertex normals x,y,z; null until computed (Project02.vertexNormals)
+    int vertexCount = 0;
+    int triangleCount = 0;
+
+    MeshBuffer(){ this(1024, 1024); }
+
+    MeshBuffer(int vertexCap, int triCap){
+        pos = new double[Math.max(1, vertexCap) * 3];
+        tri = new int[Math.max(1, triCap) * 3];
+    }
+
+    int addVertex(double x, double y, double z){
+        if(vertexCount*3 + 3 > pos.length) pos = Arrays.copyOf(pos, pos.length * 2);
+        int k = vertexCount*3;
+        pos[k] = x; pos[k+1] = y; pos[k+2] = z;
+        return vertexCount++;
+    }
+
+    void addTriangle(int a, int b, int c){
+        if(triangleCount*3 + 3 > tri.length) tri = Arrays.copyOf(tri, tri.length * 2);
+        int k = triangleCount*3;
+        tri[k] = a; tri[k+1] = b; tri[k+2] = c;
+        triangleCount++;
+    }
+
+    void clear(){ vertexCount = 0; triangleCount = 0; nrm = null; }
+
+    // for code that still works on Mesh (ViewerPanel, MeshWriter.write(Mesh, ...))
+    Mesh toMesh(){
+        Mesh m = new Mesh();
+        m.V.ensureCapacity(vertexCount);
+        m.F.ensureCapacity(triangleCount);
+        appendTo(m);
+        return m;
+    }
+
+    // adds what m doesn't have yet (vertices past m.V.size(), triangles past m.F.size()),
+    // so a Mesh can follow a buffer that only grows (progressive display)
+    void appendTo(Mesh m){
+        for(int v=m.V.size();v<vertexCount;v++) m.V.add(new Vector3(pos[3*v], pos[3*v+1], pos[3*v+2]));
+        for(int t=m.F.size();t<triangleCount;t++) m.F.add(new int[]{ tri[3*t], tri[3*t+1], tri[3*t+2] });
+        if(nrm != null){
+            m.N.ensureCapacity(vertexCount);
+            for(int v=m.N.size();v<vertexCount;v++) m.N.add(new Vector3(nrm[3*v], nrm[3*v+1], nrm[3*v+2]));
+        }
+    }
+}
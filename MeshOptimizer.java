@@ -0,0 +1,138 @@
+import java.util.*;
+
+// ====== Post-extraction mesh reordering ======
+// Marching cubes emits triangles in scanline cell order: consecutive triangles share
+// vertices only along the current row, and a vertex is used again a whole slice later.
+// optimize() reorders a MeshBuffer in place, in linear time:
+//  - triangles: Tipsify (Sander, Nehab, Barczak 2007) - fan out from a vertex, emit its
+//    remaining triangles, move on to the candidate that has been in the CACHE-sized
+//    FIFO longest but will still be in it after its own fan; dead ends resume from
+//    recently emitted vertices
+//  - vertices: renumbered by first use, so the vertex stream follows the index stream
+// Faces and vertices get a new numbering, so this is for export and final display
+// (Project02.optimized), not for meshes that are still being extended.
+public class MeshOptimizer {
+
+    static final int CACHE = 16;            // post-transform cache entries assumed
+
+    static void optimize(MeshBuffer mb){
+        Metrics.Stage st = Metrics.begin("meshOptimize");
+        int nv = mb.vertexCount, nt = mb.triangleCount;
+        if(nt == 0){ st.end(); return; }
+        Metrics.gauge("mesh.acmrBefore", acmr(mb.tri, nt, CACHE));
+
+        int[] order = tipsify(mb.tri, nt, nv, CACHE);
+        int[] tri = new int[nt*3];
+        for(int t=0;t<nt;t++){
+            int s = order[t]*3;
+            tri[3*t] = mb.tri[s]; tri[3*t+1] = mb.tri[s+1]; tri[3*t+2] = mb.tri[s+2];
+        }
+
+        // vertices by first use; unreferenced ones keep their relative order at the end
+        int[] remap = new int[nv];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for(int i=0;i<nt*3;i++){
+            int v = tri[i];
+            if(remap[v] < 0) remap[v] = next++;
+            tri[i] = remap[v];
+        }
+        for(int v=0;v<nv;v++) if(remap[v] < 0) remap[v] = next++;
+        double[] pos = new double[Math.max(1, nv) * 3];
+        for(int v=0;v<nv;v++){
+            int d = remap[v]*3;
+            pos[d] = mb.pos[3*v]; pos[d+1] = mb.pos[3*v+1]; pos[d+2] = mb.pos[3*v+2];
+        }
+        mb.pos = pos;
+        mb.tri = tri;
+        if(mb.nrm != null){
+            double[] nrm = new double[pos.length];
+            for(int v=0;v<nv;v++){
+                int d = remap[v]*3;
+                nrm[d] = mb.nrm[3*v]; nrm[d+1] = mb.nrm[3*v+1]; nrm[d+2] = mb.nrm[3*v+2];
+            }
+            mb.nrm = nrm;
+        }
+
+        Metrics.gauge("mesh.acmrAfter", acmr(mb.tri, nt, CACHE));
+        st.end();
+    }
+
+    // triangle order; linear in the number of triangles
+    static int[] tipsify(int[] tri, int nt, int nv, int cache){
+        // vertex -> triangles (CSR)
+        int[] start = new int[nv+1];
+        for(int i=0;i<nt*3;i++) start[tri[i]+1]++;
+        for(int v=0;v<nv;v++) start[v+1] += start[v];
+        int[] adj = new int[nt*3];
+        int[] fill = Arrays.copyOf(start, nv);
+        for(int i=0;i<nt*3;i++) adj[fill[tri[i]]++] = i / 3;
+
+        int[] live = new int[nv];
+        for(int v=0;v<nv;v++) live[v] = start[v+1] - start[v];
+        int[] stamp = new int[nv];              // time the vertex last entered the cache
+        boolean[] emitted = new boolean[nt];
+        int[] dead = new int[nt*3];
+        int deadTop = 0;
+        int[] cand = new int[nt*3];
+        int[] order = new int[nt];
+        int out = 0, time = cache + 1, cursor = 0;
+
+        int f = 0;
+        while(f >= 0){
+            int nc = 0;
+            for(int e=start[f]; e<start[f+1]; e++){
+                int t = adj[e];
+                if(emitted[t]) continue;
+                emitted[t] = true;
+                order[out++] = t;
+                for(int c=0;c<3;c++){
+                    int v = tri[3*t + c];
+                    dead[deadTop++] = v;
+                    cand[nc++] = v;
+                    live[v]--;
+                    if(time - stamp[v] > cache) stamp[v] = time++;
+                }
+            }
+
+            // next fanning vertex: a candidate still in cache after its own fan, oldest first
+            int best = -1, bestScore = -1;
+            for(int q=0;q<nc;q++){
+                int v = cand[q];
+                if(live[v] <= 0) continue;
+                int score = 0;
+                if(time - stamp[v] + 2*live[v] <= cache) score = time - stamp[v];
+                if(score > bestScore){ bestScore = score; best = v; }
+            }
+            if(best < 0){
+                while(deadTop > 0){
+                    int v = dead[--deadTop];
+                    if(live[v] > 0){ best = v; break; }
+                }
+            }
+            if(best < 0){
+                while(cursor < nv && live[cursor] <= 0) cursor++;
+                if(cursor < nv) best = cursor;
+            }
+            f = best;
+        }
+        return order;
+    }
+
+    // average cache miss ratio: vertex transforms per triangle with a FIFO of the given size
+    static double acmr(int[] tri, int nt, int cache){
+        if(nt == 0) return 0;
+        int maxV = 0;
+        for(int i=0;i<nt*3;i++) maxV = Math.max(maxV, tri[i]);
+        int[] in = new int[maxV+1];             // FIFO position + 1 the vertex was inserted at
+        long misses = 0, clock = 0;
+        for(int i=0;i<nt*3;i++){
+            int v = tri[i];
+            if(in[v] == 0 || clock - in[v] >= cache){
+                misses++;
+                in[v] = (int) ++clock;          // clock counts insertions
+            }
+        }
+        return misses / (double) nt;
+    }
+}
@@ -0,0 +1,395 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// ====== Mesh export (binary PLY / binary STL / OBJ) ======
+// Everything goes through one direct ByteBuffer that is flushed to a FileChannel
+// in large chunks. Numbers are encoded straight into the buffer (no Strings per vertex).
+//
+// Two ways to use it:
+//   MeshWriter.write(mesh, "out.ply");               // whole mesh, indexed (+ normals if Mesh.N is set)
+//   MeshWriter w = MeshWriter.open("out.ply", true); // streaming, indexed, from a growing MeshBuffer
+//   w.append(mb); ... w.append(mb); w.close();
+public class MeshWriter implements Closeable {
+
+    enum Format { PLY, STL, OBJ }
+
+    static final int CHUNK = 1 << 22; // 4 MB
+
+    // PLY element counts are patched in at close(), so they get a fixed width
+    static final int COUNT_WIDTH = 10;
+
+    private final Format fmt;
+    private final FileChannel ch;
+    private final ByteBuffer buf;
+    private long triCount = 0;
+    private long countPos = -1;    // file offset of the count to patch (PLY/STL streaming)
+    private long facePos = -1;     // PLY: file offset of the face count
+    private boolean closed = false;
+
+    // streaming
+    private int vertCount = 0;     // vertices of the MeshBuffer written so far
+    private boolean streamNormals = false;
+    private FileChannel faceCh;    // PLY: faces until close()
+    private ByteBuffer faceBuf;
+
+    private MeshWriter(String path, Format fmt) throws IOException {
+        this.fmt = fmt;
+        this.ch = FileChannel.open(Paths.get(path),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buf = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static Format formatOf(String path){
+        String p = path.toLowerCase();
+        if(p.endsWith(".ply")) return Format.PLY;
+        if(p.endsWith(".stl")) return Format.STL;
+        if(p.endsWith(".obj")) return Format.OBJ;
+        throw new IllegalArgumentException("Unknown mesh format (use .ply / .stl / .obj): " + path);
+    }
+
+    // ---- whole mesh ----
+
+    static void write(Mesh mesh, String path) throws IOException {
+        try (MeshWriter w = new MeshWriter(path, formatOf(path))) {
+            w.writeIndexed(mesh);
+        }
+    }
+
+    private void writeIndexed(Mesh mesh) throws IOException {
+        int nv = mesh.V.size();
+        int nf = mesh.F.size();
+        boolean normals = mesh.N.size() == nv && nv > 0;
+        switch(fmt){
+            case PLY:
+                putAscii(plyHeader(Integer.toString(nv), Integer.toString(nf), normals));
+                for(int i=0;i<nv;i++){
+                    Vector3 v = mesh.V.get(i);
+                    ensure(24);
+                    buf.putFloat((float) v.x).putFloat((float) v.y).putFloat((float) v.z);
+                    if(normals){
+                        Vector3 n = mesh.N.get(i);
+                        buf.putFloat((float) n.x).putFloat((float) n.y).putFloat((float) n.z);
+                    }
+                }
+                for(int i=0;i<nf;i++){
+                    int[] f = mesh.F.get(i);
+                    ensure(13);
+                    buf.put((byte) 3).putInt(f[0]).putInt(f[1]).putInt(f[2]);
+                }
+                break;
+            case STL:
+                stlHeader(nf);
+                for(int i=0;i<nf;i++){
+                    int[] f = mesh.F.get(i);
+                    Vector3 a = mesh.V.get(f[0]), b = mesh.V.get(f[1]), c = mesh.V.get(f[2]);
+                    stlFacet(a.x,a.y,a.z, b.x,b.y,b.z, c.x,c.y,c.z);
+                }
+                break;
+            case OBJ:
+                putAscii("# Project02 mesh\n");
+                for(int i=0;i<nv;i++){
+                    Vector3 v = mesh.V.get(i);
+                    objVertex(v.x, v.y, v.z);
+                }
+                if(normals){
+                    for(int i=0;i<nv;i++){
+                        Vector3 n = mesh.N.get(i);
+                        objNormal(n.x, n.y, n.z);
+                    }
+                }
+                for(int i=0;i<nf;i++){
+                    int[] f = mesh.F.get(i);
+                    if(normals) objFaceNormals(f[0]+1L, f[1]+1L, f[2]+1L);
+                    else objFace(f[0]+1L, f[1]+1L, f[2]+1L);
+                }
+                break;
+        }
+        triCount = nf;
+    }
+
+    // ---- streaming ----
+
+    // Opens a writer that takes a MeshBuffer while it is still growing (e.g. from
+    // MCKernel slab by slab, see Project02.extract): append() writes the vertices and
+    // triangles added since the previous call, with the buffer's shared vertex ids.
+    // PLY needs all vertices before the faces, so its faces go to a temporary file
+    // next to the output and are copied over on close(); counts are patched in then.
+    static MeshWriter open(String path, boolean normals) throws IOException {
+        MeshWriter w = new MeshWriter(path, formatOf(path));
+        w.beginStream(path, normals);
+        return w;
+    }
+
+    private void beginStream(String path, boolean normals) throws IOException {
+        streamNormals = normals;
+        switch(fmt){
+            case PLY: {
+                String blank = pad("");
+                String h = plyHeader(blank, blank, normals);
+                countPos = h.indexOf("element vertex ") + "element vertex ".length();
+                facePos = h.indexOf("element face ") + "element face ".length();
+                putAscii(h);
+                Path dir = Paths.get(path).toAbsolutePath().getParent();
+                Path faceFile = Files.createTempFile(dir, "faces-", ".tmp");
+                faceCh = FileChannel.open(faceFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                          StandardOpenOption.DELETE_ON_CLOSE);
+                faceBuf = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                break;
+            }
+            case STL:
+                stlHeader(0);
+                countPos = 80;
+                break;
+            case OBJ:
+                putAscii("# Project02 mesh\n");
+                break;
+        }
+    }
+
+    // vertices [vertexCount at the last call, mb.vertexCount) and triangles likewise;
+    // normals from mb.nrm if the writer was opened with them
+    void append(MeshBuffer mb) throws IOException {
+        int v0 = vertCount, t0 = (int) triCount;
+        if(mb.vertexCount < v0 || mb.triangleCount < t0) throw new IllegalArgumentException("MeshBuffer shrank while streaming");
+        boolean normals = streamNormals && mb.nrm != null;
+        if(streamNormals && mb.nrm == null && mb.vertexCount > v0) throw new IllegalArgumentException("writer expects normals");
+        double[] p = mb.pos, n = mb.nrm;
+        switch(fmt){
+            case PLY:
+                for(int v=v0;v<mb.vertexCount;v++){
+                    ensure(24);
+                    buf.putFloat((float) p[3*v]).putFloat((float) p[3*v+1]).putFloat((float) p[3*v+2]);
+                    if(normals) buf.putFloat((float) n[3*v]).putFloat((float) n[3*v+1]).putFloat((float) n[3*v+2]);
+                }
+                for(int t=t0;t<mb.triangleCount;t++){
+                    if(faceBuf.remaining() < 13) flushFaces();
+                    faceBuf.put((byte) 3).putInt(mb.tri[3*t]).putInt(mb.tri[3*t+1]).putInt(mb.tri[3*t+2]);
+                }
+                break;
+            case STL:
+                for(int t=t0;t<mb.triangleCount;t++){
+                    int a = 3*mb.tri[3*t], b = 3*mb.tri[3*t+1], c = 3*mb.tri[3*t+2];
+                    stlFacet(p[a],p[a+1],p[a+2], p[b],p[b+1],p[b+2], p[c],p[c+1],p[c+2]);
+                }
+                break;
+            case OBJ:
+                for(int v=v0;v<mb.vertexCount;v++) objVertex(p[3*v], p[3*v+1], p[3*v+2]);
+                if(normals) for(int v=v0;v<mb.vertexCount;v++) objNormal(n[3*v], n[3*v+1], n[3*v+2]);
+                for(int t=t0;t<mb.triangleCount;t++){
+                    long a = mb.tri[3*t]+1L, b = mb.tri[3*t+1]+1L, c = mb.tri[3*t+2]+1L;
+                    if(normals) objFaceNormals(a, b, c);
+                    else objFace(a, b, c);
+                }
+                break;
+        }
+        vertCount = mb.vertexCount;
+        triCount = mb.triangleCount;
+    }
+
+    long triangleCount(){ return triCount; }
+
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+            flush();
+            if(fmt == Format.PLY && facePos >= 0){
+                flushFaces();
+                long size = faceCh.size(), at = ch.size();
+                for(long done=0; done<size; ) done += faceCh.transferTo(done, size - done, ch.position(at + done));
+                patch(countPos, pad(Long.toString(vertCount)).getBytes(StandardCharsets.US_ASCII));
+                patch(facePos, pad(Long.toString(triCount)).getBytes(StandardCharsets.US_ASCII));
+            }
+            else if(fmt == Format.STL && countPos >= 0){
+                ByteBuffer n = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                n.putInt((int) triCount).flip();
+                ch.write(n, countPos);
+            }
+        } finally {
+            try {
+                if(faceCh != null) faceCh.close();
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    private void flushFaces() throws IOException {
+        faceBuf.flip();
+        while(faceBuf.hasRemaining()) faceCh.write(faceBuf);
+        faceBuf.clear();
+    }
+
+    // ---- format pieces ----
+
+    private static String plyHeader(String nv, String nf, boolean normals){
+        return "ply\n"
+             + "format binary_little_endian 1.0\n"
+             + "comment Project02 mesh\n"
+             + "element vertex " + nv + "\n"
+             + "property float x\n"
+             + "property float y\n"
+             + "property float z\n"
+             + (normals ? "property float nx\nproperty float ny\nproperty float nz\n" : "")
+             + "element face " + nf + "\n"
+             + "property list uchar int vertex_indices\n"
+             + "end_header\n";
+    }
+
+    // left-aligned count padded with spaces; PLY readers split header lines on whitespace
+    private static String pad(String s){
+        StringBuilder sb = new StringBuilder(s);
+        while(sb.length() < COUNT_WIDTH) sb.append(' ');
+        return sb.toString();
+    }
+
+    private void stlHeader(int nf) throws IOException {
+        ensure(84);
+        byte[] h = new byte[80];
+        byte[] tag = "Project02 binary STL".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(tag, 0, h, 0, tag.length);
+        buf.put(h).putInt(nf);
+    }
+
+    private void stlFacet(double ax, double ay, double az,
+                          double bx, double by, double bz,
+                          double cx, double cy, double cz) throws IOException {
+        double ux=bx-ax, uy=by-ay, uz=bz-az;
+        double vx=cx-ax, vy=cy-ay, vz=cz-az;
+        double nx=uy*vz-uz*vy, ny=uz*vx-ux*vz, nz=ux*vy-uy*vx;
+        double l = Math.sqrt(nx*nx+ny*ny+nz*nz);
+        if(l > 1e-30){ nx/=l; ny/=l; nz/=l; }
+        ensure(50);
+        buf.putFloat((float) nx).putFloat((float) ny).putFloat((float) nz);
+        buf.putFloat((float) ax).putFloat((float) ay).putFloat((float) az);
+        buf.putFloat((float) bx).putFloat((float) by).putFloat((float) bz);
+        buf.putFloat((float) cx).putFloat((float) cy).putFloat((float) cz);
+        buf.putShort((short) 0);
+    }
+
+    private void objVertex(double x, double y, double z) throws IOException {
+        ensure(2 + 3*32 + 1);
+        buf.put((byte) 'v');
+        buf.put((byte) ' '); putDecimal(x);
+        buf.put((byte) ' '); putDecimal(y);
+        buf.put((byte) ' '); putDecimal(z);
+        buf.put((byte) '\n');
+    }
+
+    private void objNormal(double x, double y, double z) throws IOException {
+        ensure(3 + 3*32 + 1);
+        buf.put((byte) 'v').put((byte) 'n');
+        buf.put((byte) ' '); putDecimal(x);
+        buf.put((byte) ' '); putDecimal(y);
+        buf.put((byte) ' '); putDecimal(z);
+        buf.put((byte) '\n');
+    }
+
+    // vertex i uses normal i: "f a//a b//b c//c"
+    private void objFaceNormals(long a, long b, long c) throws IOException {
+        ensure(2 + 3*44 + 1);
+        buf.put((byte) 'f');
+        buf.put((byte) ' '); putLong(a); buf.put((byte) '/').put((byte) '/'); putLong(a);
+        buf.put((byte) ' '); putLong(b); buf.put((byte) '/').put((byte) '/'); putLong(b);
+        buf.put((byte) ' '); putLong(c); buf.put((byte) '/').put((byte) '/'); putLong(c);
+        buf.put((byte) '\n');
+    }
+
+    private void objFace(long a, long b, long c) throws IOException {
+        ensure(2 + 3*21 + 1);
+        buf.put((byte) 'f');
+        buf.put((byte) ' '); putLong(a);
+        buf.put((byte) ' '); putLong(b);
+        buf.put((byte) ' '); putLong(c);
+        buf.put((byte) '\n');
+    }
+
+    // SIG significant digits, whatever the magnitude (every float round-trips, like the
+    // float PLY/STL output); plain notation for 1e-7 <= |v| < 1e9, else d.ddde-x.
+    // Trailing zeros of the fraction are dropped. At most 18 bytes.
+    static final int SIG = 9;
+    private static final double[] POW10 = new double[23];
+    static { for(int i=0;i<POW10.length;i++) POW10[i] = Double.parseDouble("1e" + i); }
+
+    private void putDecimal(double v){
+        if(Double.isNaN(v) || Double.isInfinite(v)) v = 0.0;
+        if(v < 0){ buf.put((byte) '-'); v = -v; }
+        if(v < 1e-300){ buf.put((byte) '0'); return; }
+        int e = (int) Math.floor(Math.log10(v));
+        long m = digits(v, e);
+        if(m >= 1000000000L){ e++; m = digits(v, e); }       // rounded up to the next power of ten
+        else if(m < 100000000L){ e--; m = digits(v, e); }    // log10 landed just above
+        byte[] d = new byte[SIG];
+        for(int i=SIG-1;i>=0;i--){ d[i] = (byte) ('0' + m % 10); m /= 10; }
+        int last = SIG - 1;
+        if(e >= -7 && e < 9){
+            int intDigits = Math.max(0, e + 1);
+            while(last >= intDigits && d[last] == '0') last--;
+            if(e < 0){
+                buf.put((byte) '0').put((byte) '.');
+                for(int z=0;z<-e-1;z++) buf.put((byte) '0');
+                for(int i=0;i<=last;i++) buf.put(d[i]);
+            }
+            else{
+                for(int i=0;i<intDigits;i++) buf.put(d[i]);
+                if(last >= intDigits){
+                    buf.put((byte) '.');
+                    for(int i=intDigits;i<=last;i++) buf.put(d[i]);
+                }
+            }
+        }
+        else{
+            while(last > 0 && d[last] == '0') last--;
+            buf.put(d[0]);
+            if(last > 0){
+                buf.put((byte) '.');
+                for(int i=1;i<=last;i++) buf.put(d[i]);
+            }
+            buf.put((byte) 'e');
+            putLong(e);
+        }
+    }
+
+    // v scaled to SIG digits for decimal exponent e, rounded
+    private static long digits(double v, int e){
+        int s = SIG - 1 - e;
+        if(s >= 0) return Math.round(s < POW10.length ? v * POW10[s] : v * Math.pow(10, s));
+        return Math.round(-s < POW10.length ? v / POW10[-s] : v / Math.pow(10, -s));
+    }
+
+    private void putLong(long v){
+        if(v < 0){ buf.put((byte) '-'); v = -v; }
+        if(v == 0){ buf.put((byte) '0'); return; }
+        long d = 1;
+        while(d <= v / 10) d *= 10;
+        for(; d>0; d/=10){
+            buf.put((byte) ('0' + (v / d) % 10));
+        }
+    }
+
+    private void putAscii(String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        ensure(b.length);
+        buf.put(b);
+    }
+
+    // ---- buffer handling ----
+
+    private void ensure(int n) throws IOException {
+        if(buf.remaining() < n) flush();
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while(buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    private void patch(long pos, byte[] b) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        while(bb.hasRemaining()) pos += ch.write(bb, pos);
+    }
+}
@@ -0,0 +1,227 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.*;
+
+// ====== Pipeline metrics ======
+// Per-stage wall / CPU time, allocated bytes and peak heap, named counters and
+// gauges. CPU and allocation are process-wide (stages run their inner loops on
+// ForkJoin workers), so stages that overlap in time (several JobEngine workers)
+// each see the other's share too; the same goes for the peak heap of a stage (the pool
+// peaks are reset when a stage begins and folded into every stage open at the time).
+// Every stage and counter is also emitted as a custom JFR event,
+// so a recording (-XX:StartFlightRecording) shows the reconstruction timeline.
+//
+//   Metrics.Stage st = Metrics.begin("buildField");
+//   ...
+//   st.end();
+//   Metrics.count("kernel.evals", n);
+//   Metrics.stage("buildField").wallNanos
+//   System.out.println(Metrics.toJson());
+public class Metrics {
+
+    @Name("project02.Stage")
+    @Label("Reconstruction Stage")
+    @Category("Project02")
+    static class StageEvent extends Event {
+        @Label("Stage") String stage;
+        @Label("CPU Time") @Timespan(Timespan.NANOSECONDS) long cpuTime;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+
+    @Name("project02.Counter")
+    @Label("Reconstruction Counter")
+    @Category("Project02")
+    static class CounterEvent extends Event {
+        @Label("Name") String name;
+        @Label("Value") long value;
+    }
+
+    static class StageStats {
+        long calls, wallNanos, cpuNanos, allocated;
+        long peakHeap;      // highest heap use seen while a call was running
+
+        StageStats copy(){
+            StageStats c = new StageStats();
+            c.calls = calls; c.wallNanos = wallNanos; c.cpuNanos = cpuNanos; c.allocated = allocated; c.peakHeap = peakHeap;
+            return c;
+        }
+    }
+
+    private static final Map<String, StageStats> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Double> gauges = new ConcurrentHashMap<>();
+
+    // stages between begin and end, and the process peak from before the last pool reset
+    private static final ArrayList<Stage> open = new ArrayList<>();
+    private static long peakBefore = 0;
+
+    private static final com.sun.management.ThreadMXBean TMX =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.OperatingSystemMXBean OS =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    // CPU time of the whole process (GC and JIT threads included)
+    static long processCpuNanos(){ return OS.getProcessCpuTime(); }
+
+    // bytes allocated so far by all live threads; a thread that ends takes its share
+    // along, so differences are clamped at 0 by the callers
+    static long allocatedBytes(){
+        long s = 0;
+        for(long a: TMX.getThreadAllocatedBytes(TMX.getAllThreadIds())) if(a > 0) s += a;
+        return s;
+    }
+
+    // ---- stages ----
+
+    static class Stage {
+        final String name;
+        final long wall0, cpu0, alloc0;
+        final StageEvent ev = new StageEvent();
+        long peak = 0;
+
+        private Stage(String name){
+            this.name = name;
+            synchronized(open){
+                foldPeak();
+                for(MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans()) p.resetPeakUsage();
+                open.add(this);
+            }
+            ev.begin();
+            wall0 = System.nanoTime();
+            cpu0 = processCpuNanos();
+            alloc0 = allocatedBytes();
+        }
+
+        void end(){
+            long wall = System.nanoTime() - wall0;
+            long cpu = Math.max(0, processCpuNanos() - cpu0);
+            long alloc = Math.max(0, allocatedBytes() - alloc0);
+            synchronized(open){
+                foldPeak();
+                open.remove(this);
+            }
+
+            ev.end();
+            if(ev.shouldCommit()){
+                ev.stage = name;
+                ev.cpuTime = cpu;
+                ev.allocated = alloc;
+                ev.commit();
+            }
+
+            synchronized(stages){
+                StageStats s = stages.computeIfAbsent(name, k -> new StageStats());
+                s.calls++;
+                s.wallNanos += wall;
+                s.cpuNanos += cpu;
+                s.allocated += alloc;
+                s.peakHeap = Math.max(s.peakHeap, peak);
+            }
+        }
+    }
+
+    static Stage begin(String name){ return new Stage(name); }
+
+    // totals of a stage so far (a copy), or null if it never ended
+    static StageStats stage(String name){
+        synchronized(stages){
+            StageStats s = stages.get(name);
+            return s == null ? null : s.copy();
+        }
+    }
+
+    // the pool peaks since the last reset go to every open stage and the process peak
+    private static void foldPeak(){
+        long p = poolPeak();
+        for(Stage st: open) st.peak = Math.max(st.peak, p);
+        peakBefore = Math.max(peakBefore, p);
+    }
+
+    // ---- counters / gauges ----
+
+    static void count(String name, long n){
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(n);
+        CounterEvent ev = new CounterEvent();
+        if(ev.shouldCommit()){
+            ev.name = name;
+            ev.value = n;
+            ev.commit();
+        }
+    }
+
+    static void gauge(String name, double v){ gauges.put(name, v); }
+
+    static long counter(String name){
+        LongAdder a = counters.get(name);
+        return a == null ? 0 : a.sum();
+    }
+
+    // process-wide, since the last reset()
+    static long peakHeap(){
+        synchronized(open){
+            return Math.max(peakBefore, poolPeak());
+        }
+    }
+
+    private static long poolPeak(){
+        long s = 0;
+        for(MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans()){
+            if(p.getType() == MemoryType.HEAP && p.getPeakUsage() != null) s += p.getPeakUsage().getUsed();
+        }
+        return s;
+    }
+
+    static void reset(){
+        stages.clear();
+        counters.clear();
+        gauges.clear();
+        synchronized(open){
+            for(MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans()) p.resetPeakUsage();
+            peakBefore = 0;
+            for(Stage st: open) st.peak = 0;
+        }
+    }
+
+    // ---- report ----
+
+    static String toJson(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"stages\": {");
+        synchronized(stages){
+            int n = 0;
+            for(Map.Entry<String, StageStats> e: stages.entrySet()){
+                StageStats s = e.getValue();
+                sb.append(n++ == 0 ? "\n" : ",\n");
+                sb.append("    \"").append(e.getKey()).append("\": {")
+                  .append("\"calls\": ").append(s.calls)
+                  .append(", \"wallMs\": ").append(ms(s.wallNanos))
+                  .append(", \"cpuMs\": ").append(ms(s.cpuNanos))
+                  .append(", \"allocatedBytes\": ").append(s.allocated)
+                  .append(", \"peakHeapBytes\": ").append(s.peakHeap)
+                  .append("}");
+            }
+        }
+        sb.append("\n  },\n  \"counters\": {");
+        int n = 0;
+        for(String k: new TreeSet<>(counters.keySet())){
+            sb.append(n++ == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(k).append("\": ").append(counter(k));
+        }
+        sb.append("\n  },\n  \"gauges\": {");
+        n = 0;
+        for(String k: new TreeSet<>(gauges.keySet())){
+            double v = gauges.get(k);
+            sb.append(n++ == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(k).append("\": ").append(Double.isFinite(v) ? Double.toString(v) : "null");
+        }
+        sb.append("\n  },\n  \"peakHeapBytes\": ").append(peakHeap()).append("\n}");
+        return sb.toString();
+    }
+
+    private static String ms(long nanos){
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,484 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+// ====== Particle-mesh evaluation of the RBF field on the regular grid ======
+// On the nodes of a regular grid, f(x) = sum_j lambda_j |x - c_j| is a discrete
+// convolution as soon as the centers sit on the nodes too. So:
+//  - spread: each lambda_j goes onto the ORDER^3 nodes around c_j with Lagrange
+//    weights (reproduces polynomials up to degree ORDER-1, so the far field of a
+//    center is kept up to that moment; the error falls off like h^ORDER / r^(ORDER-1))
+//  - convolve: grid weights * |d| sampled at all node offsets, by 3D FFT on a
+//    zero-padded grid (L >= 2 res - 1 per axis, so the cyclic product is the linear
+//    one); real-to-complex along x, lines in parallel
+//  - correct: on the nodes within NEAR cells of c_j the spread approximation is
+//    poorest (|d| has a kink at 0); there the mesh value of c_j is replaced by the
+//    exact lambda_j |x - c_j|
+// Cost O(L^3 log L + m NEAR^3) instead of O(res^3 m).
+//
+// The padded spectrum only keeps the z planes that carry data (res of the L): each
+// z line is padded, transformed, multiplied and transformed back on its own.
+public class ParticleMesh {
+
+    static final int ORDER = 6;                 // stencil points per axis
+    static final int NEAR = 4;                  // near correction half-width, in cells
+
+    final int res, L, hx;
+    final double dx, dy, dz;
+    final FFT fftL, fftHalf;
+    final double[] khat;                    // kernel spectrum on [0, L/2]^3, scaled for the inverse
+    private final JobEngine.Job<?> job = JobEngine.current();   // for cancellation inside parallel tasks
+
+    private ParticleMesh(int res, double dx, double dy, double dz){
+        this.res = res; this.dx = dx; this.dy = dy; this.dz = dz;
+        L = FFT.goodSize(2*res - 1);
+        hx = L/2 + 1;
+        fftL = new FFT(L);
+        fftHalf = new FFT(L/2);
+        khat = kernelSpectrum();
+    }
+
+    // Same nodes and values (up to the approximation) as the dense Project02.buildField.
+    static Project02.ScalarField build(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res){
+        Metrics.Stage st = Metrics.begin("buildField");
+        Project02.ScalarField f = new Project02.ScalarField(res, res, res, box);
+        if(res < ORDER){
+            // the stencil needs ORDER nodes per axis (base() clamps to res - ORDER); this is tiny anyway
+            for(int k=0;k<res;k++) for(int j=0;j<res;j++) for(int i=0;i<res;i++){
+                f.val[f.idx(i,j,k)] = Project02.evalRBF(C, lambda, f.pos(i,j,k));
+            }
+            st.end();
+            return f;
+        }
+        double dx = (box.max.x - box.min.x) / (res-1);
+        double dy = (box.max.y - box.min.y) / (res-1);
+        double dz = (box.max.z - box.min.z) / (res-1);
+        ParticleMesh pm = new ParticleMesh(res, dx, dy, dz);
+
+        int m = C.size();
+        double[] tx = new double[m], ty = new double[m], tz = new double[m];
+        for(int j=0;j<m;j++){
+            Vector3 p = C.get(j).x;
+            tx[j] = dx == 0 ? 0 : (p.x - box.min.x) / dx;
+            ty[j] = dy == 0 ? 0 : (p.y - box.min.y) / dy;
+            tz[j] = dz == 0 ? 0 : (p.z - box.min.z) / dz;
+        }
+
+        pm.spread(tx, ty, tz, lambda, f.val);
+        JobEngine.checkCancelled();
+        pm.convolve(f.val);
+        JobEngine.checkCancelled();
+        pm.correct(C, lambda, tx, ty, tz, f);
+
+        double mn = 1e100, mx = -1e100;
+        for(double v: f.val){ mn = Math.min(mn, v); mx = Math.max(mx, v); }
+        System.out.println("Field (particle-mesh, L=" + pm.L + ") min=" + mn + " max=" + mx);
+        Metrics.count("field.nodes", (long) res * res * res);
+        Metrics.count("kernel.evals", (long) m * (2*NEAR) * (2*NEAR) * (2*NEAR));
+        Metrics.gauge("field.pmSize", pm.L);
+        st.end();
+        return f;
+    }
+
+    // ---- spreading ----
+
+    // first node of the ORDER-point stencil for grid coordinate t, kept inside the
+    // grid (one-sided at the borders; still exact for polynomials of degree ORDER-1)
+    int base(double t){
+        int b = (int) Math.floor(t) - (ORDER/2 - 1);
+        return Math.max(0, Math.min(res - ORDER, b));
+    }
+
+    // Lagrange weights of nodes b .. b+ORDER-1 at t
+    static void weights(double t, int b, double[] w, int off){
+        double u = t - b;
+        for(int q=0;q<ORDER;q++){
+            double v = 1;
+            for(int r=0;r<ORDER;r++) if(r != q) v *= (u - r) / (q - r);
+            w[off + q] = v;
+        }
+    }
+
+    private void spread(double[] tx, double[] ty, double[] tz, double[] lambda, double[] g){
+        int P = ORDER;
+        double[] w = new double[3*P];
+        for(int j=0;j<lambda.length;j++){
+            int bi = base(tx[j]), bj = base(ty[j]), bk = base(tz[j]);
+            weights(tx[j], bi, w, 0); weights(ty[j], bj, w, P); weights(tz[j], bk, w, 2*P);
+            for(int c=0;c<P;c++){
+                double wc = lambda[j] * w[2*P + c];
+                for(int b=0;b<P;b++){
+                    double wbc = wc * w[P + b];
+                    int row = ((bk+c)*res + bj+b)*res + bi;
+                    for(int a=0;a<P;a++) g[row+a] += wbc * w[a];
+                }
+            }
+        }
+    }
+
+    // ---- convolution ----
+
+    double kernel(int a, int b, int c){
+        double x = a*dx, y = b*dy, z = c*dz;
+        return Math.sqrt(x*x + y*y + z*z);
+    }
+
+    // |d| is even along every axis, so its DFT is real and even too: build it on the
+    // [0, L/2]^3 octant with one axis of full-length transforms at a time
+    private double[] kernelSpectrum(){
+        int h = hx;
+        double[] k = new double[h*h*h];
+        for(int c=0;c<h;c++) for(int b=0;b<h;b++) for(int a=0;a<h;a++) k[(c*h + b)*h + a] = kernel(a, b, c);
+        for(int axis=0;axis<3;axis++){
+            final int ax = axis;
+            IntStream.range(0, h).parallel().forEach(p -> {
+                JobEngine.checkCancelled(job);
+                double[] re = new double[L], im = new double[L], wr = new double[L], wi = new double[L];
+                for(int q=0;q<h;q++){
+                    int o, s;
+                    if(ax == 0){ o = (p*h + q)*h; s = 1; }
+                    else if(ax == 1){ o = p*h*h + q; s = h; }
+                    else{ o = p*h + q; s = h*h; }
+                    for(int a=0;a<L;a++){ re[a] = k[o + s*Math.min(a, L-a)]; im[a] = 0; }
+                    fftL.transform(re, im, wr, wi, false);
+                    for(int a=0;a<h;a++) k[o + s*a] = re[a];
+                }
+            });
+        }
+        // inverse normalization: 1/L (z) * 1/L (y) * 1/(L/2) (x, half-length complex)
+        double scale = 1.0 / ((double) L * L * (L/2));
+        for(int i=0;i<k.length;i++) k[i] *= scale;
+        return k;
+    }
+
+    // g (res^3, x fastest) <- g convolved with |d|; spectrum rows are (k*L + j)*hx
+    private void convolve(double[] g){
+        int n = res, h = hx;
+        double[] sr = new double[h * L * n], si = new double[h * L * n];
+
+        // x: real-to-complex on the rows that carry data
+        IntStream.range(0, n).parallel().forEach(k -> {
+            JobEngine.checkCancelled(job);
+            double[] zr = new double[L/2], zi = new double[L/2], wr = new double[L/2], wi = new double[L/2];
+            double[] line = new double[L];
+            for(int j=0;j<n;j++){
+                System.arraycopy(g, (k*n + j)*n, line, 0, n);
+                realForward(line, zr, zi, wr, wi, sr, si, (k*L + j)*h);
+            }
+        });
+
+        // y: all output frequencies, only input rows j < res are nonzero
+        IntStream.range(0, n).parallel().forEach(k -> {
+            JobEngine.checkCancelled(job);
+            double[] re = new double[L], im = new double[L], wr = new double[L], wi = new double[L];
+            for(int i=0;i<h;i++){
+                int o = k*L*h + i;
+                for(int j=0;j<L;j++){ re[j] = sr[o + j*h]; im[j] = si[o + j*h]; }
+                fftL.transform(re, im, wr, wi, false);
+                for(int j=0;j<L;j++){ sr[o + j*h] = re[j]; si[o + j*h] = im[j]; }
+            }
+        });
+
+        // z: pad, transform, multiply by the kernel spectrum, back; keep the res planes
+        IntStream.range(0, L).parallel().forEach(j -> {
+            JobEngine.checkCancelled(job);
+            double[] re = new double[L], im = new double[L], wr = new double[L], wi = new double[L];
+            int v = Math.min(j, L-j);
+            for(int i=0;i<h;i++){
+                int o = j*h + i, s = L*h;
+                for(int k=0;k<n;k++){ re[k] = sr[o + k*s]; im[k] = si[o + k*s]; }
+                Arrays.fill(re, n, L, 0); Arrays.fill(im, n, L, 0);
+                fftL.transform(re, im, wr, wi, false);
+                for(int w=0;w<L;w++){
+                    double kv = khat[(Math.min(w, L-w)*h + v)*h + i];
+                    re[w] *= kv; im[w] *= kv;
+                }
+                fftL.transform(re, im, wr, wi, true);
+                for(int k=0;k<n;k++){ sr[o + k*s] = re[k]; si[o + k*s] = im[k]; }
+            }
+        });
+
+        // y back, x back (complex-to-real) into g
+        IntStream.range(0, n).parallel().forEach(k -> {
+            JobEngine.checkCancelled(job);
+            double[] re = new double[L], im = new double[L], wr = new double[L], wi = new double[L];
+            for(int i=0;i<h;i++){
+                int o = k*L*h + i;
+                for(int j=0;j<L;j++){ re[j] = sr[o + j*h]; im[j] = si[o + j*h]; }
+                fftL.transform(re, im, wr, wi, true);
+                for(int j=0;j<n;j++){ sr[o + j*h] = re[j]; si[o + j*h] = im[j]; }
+            }
+            double[] zr = new double[L/2], zi = new double[L/2], wr2 = new double[L/2], wi2 = new double[L/2];
+            double[] line = new double[L];
+            for(int j=0;j<n;j++){
+                realInverse(sr, si, (k*L + j)*h, zr, zi, wr2, wi2, line);
+                System.arraycopy(line, 0, g, (k*n + j)*n, n);
+            }
+        });
+    }
+
+    // length-L real line (first res entries set, rest zero) -> L/2+1 spectrum entries at o
+    private void realForward(double[] line, double[] zr, double[] zi, double[] wr, double[] wi,
+                             double[] sr, double[] si, int o){
+        int n2 = L/2;
+        for(int q=0;q<n2;q++){
+            int a = 2*q;
+            zr[q] = a < res ? line[a] : 0;
+            zi[q] = a+1 < res ? line[a+1] : 0;
+        }
+        fftHalf.transform(zr, zi, wr, wi, false);
+        for(int q=0;q<=n2;q++){
+            int p = q % n2, r = (n2 - q) % n2;
+            double ar = zr[p], ai = zi[p], br = zr[r], bi = -zi[r];     // Z[q], conj Z[n2-q]
+            double er = 0.5*(ar + br), ei = 0.5*(ai + bi);              // even part
+            double or = 0.5*(ai - bi), oi = -0.5*(ar - br);             // odd part: (Z - conj Z') / 2i
+            double c = fftL.cos(q), s = -fftL.sin(q);                   // e^{-2 pi i q / L}
+            sr[o + q] = er + c*or - s*oi;
+            si[o + q] = ei + c*oi + s*or;
+        }
+    }
+
+    // L/2+1 spectrum entries at o -> length-L real line (unnormalized, see kernelSpectrum)
+    private void realInverse(double[] sr, double[] si, int o, double[] zr, double[] zi,
+                             double[] wr, double[] wi, double[] line){
+        int n2 = L/2;
+        for(int q=0;q<n2;q++){
+            double ar = sr[o + q], ai = si[o + q], br = sr[o + n2 - q], bi = -si[o + n2 - q];
+            double er = 0.5*(ar + br), ei = 0.5*(ai + bi);
+            double tr = 0.5*(ar - br), ti = 0.5*(ai - bi);
+            double c = fftL.cos(q), s = fftL.sin(q);                    // e^{+2 pi i q / L}
+            double or = tr*c - ti*s, oi = tr*s + ti*c;
+            zr[q] = er - oi;                                            // E + i O
+            zi[q] = ei + or;
+        }
+        fftHalf.transform(zr, zi, wr, wi, true);
+        for(int q=0;q<n2;q++){ line[2*q] = zr[q]; line[2*q+1] = zi[q]; }
+    }
+
+    // ---- near correction ----
+
+    // Nodes within NEAR cells of a center get lambda_j (|x - c_j| - mesh_j(x)), where
+    // mesh_j is what spreading + convolution gave for that center alone. Centers are
+    // bucketed into z slabs 2 NEAR cells thick; the boxes of slabs two apart never
+    // overlap, so even slabs run in parallel, then odd ones.
+    private void correct(ArrayList<Constraint> C, double[] lambda, double[] tx, double[] ty, double[] tz,
+                         Project02.ScalarField f){
+        int m = lambda.length, n = res, W = 2*NEAR;
+        int slabs = (n + W - 1) / W;
+        int[] start = new int[slabs+1], order = new int[m], slab = new int[m];
+        for(int j=0;j<m;j++){
+            slab[j] = Math.max(0, Math.min(n-1, (int) Math.floor(tz[j]))) / W;
+            start[slab[j]+1]++;
+        }
+        for(int q=0;q<slabs;q++) start[q+1] += start[q];
+        int[] fill = Arrays.copyOf(start, slabs);
+        for(int j=0;j<m;j++) order[fill[slab[j]]++] = j;
+
+        // |d| at node offsets, for the mesh term
+        int span = NEAR + ORDER + 1;
+        double[] kt = new double[span*span*span];
+        for(int c=0;c<span;c++) for(int b=0;b<span;b++) for(int a=0;a<span;a++) kt[(c*span + b)*span + a] = kernel(a, b, c);
+
+        for(int parity=0;parity<2;parity++){
+            final int par = parity;
+            IntStream.range(0, (slabs + 1 - par) / 2).parallel().forEach(q -> {
+                JobEngine.checkCancelled(job);
+                Near near = new Near(kt, span);
+                int sl = 2*q + par;
+                for(int e=start[sl]; e<start[sl+1]; e++) near.add(order[e], lambda[order[e]], C.get(order[e]).x, tx, ty, tz, f);
+            });
+        }
+    }
+
+    // per-thread scratch for one center's box:
+    //   mesh(i,j,k) = sum_c wz_c sum_b wy_b sum_a wx_a |(i-bi-a, j-bj-b, k-bk-c)|
+    // contracted one axis at a time, O(NEAR^2 ORDER (NEAR + ORDER)) instead of NEAR^3 ORDER^3
+    private class Near {
+        final double[] kt;
+        final int span;
+        final double[] w = new double[3*ORDER];
+        final double[] t1, t2;
+
+        Near(double[] kt, int span){
+            this.kt = kt; this.span = span;
+            int e = 2*NEAR + ORDER;
+            t1 = new double[2*NEAR * e * e];
+            t2 = new double[2*NEAR * 2*NEAR * e];
+        }
+
+        void add(int j, double lam, Vector3 c, double[] tx, double[] ty, double[] tz, Project02.ScalarField f){
+            int n = res, P = ORDER;
+            int fi = (int) Math.floor(tx[j]), fj = (int) Math.floor(ty[j]), fk = (int) Math.floor(tz[j]);
+            int i0 = Math.max(0, fi - NEAR + 1), i1 = Math.min(n-1, fi + NEAR);
+            int j0 = Math.max(0, fj - NEAR + 1), j1 = Math.min(n-1, fj + NEAR);
+            int k0 = Math.max(0, fk - NEAR + 1), k1 = Math.min(n-1, fk + NEAR);
+            if(i0 > i1 || j0 > j1 || k0 > k1) return;
+            int bi = base(tx[j]), bj = base(ty[j]), bk = base(tz[j]);
+            weights(tx[j], bi, w, 0); weights(ty[j], bj, w, P); weights(tz[j], bk, w, 2*P);
+
+            int ni = i1 - i0 + 1, nj = j1 - j0 + 1, nk = k1 - k0 + 1;
+            int ey = nj + P - 1, ez = nk + P - 1;           // offsets j-bj-b from j0-bj-P+1, same for z
+            int oy = j0 - bj - P + 1, oz = k0 - bk - P + 1;
+
+            // t1[i][y][z] = sum_a wx_a K(i - bi - a, y, z)
+            for(int i=0;i<ni;i++){
+                for(int y=0;y<ey;y++){
+                    int ay = Math.abs(oy + y);
+                    for(int z=0;z<ez;z++){
+                        int row = (Math.abs(oz + z)*span + ay)*span;
+                        double s = 0;
+                        for(int a=0;a<P;a++) s += w[a] * kt[row + Math.abs(i0 + i - bi - a)];
+                        t1[(i*ey + y)*ez + z] = s;
+                    }
+                }
+            }
+            // t2[i][jj][z] = sum_b wy_b t1[i][jj - bj - b][z]
+            for(int i=0;i<ni;i++){
+                for(int jj=0;jj<nj;jj++){
+                    for(int z=0;z<ez;z++){
+                        double s = 0;
+                        for(int b=0;b<P;b++) s += w[P + b] * t1[(i*ey + jj + P - 1 - b)*ez + z];
+                        t2[(i*nj + jj)*ez + z] = s;
+                    }
+                }
+            }
+            double x0 = f.box.min.x, y0 = f.box.min.y, z0 = f.box.min.z;
+            for(int kk=0;kk<nk;kk++){
+                double pz = z0 + (k0 + kk)*dz - c.z;
+                for(int jj=0;jj<nj;jj++){
+                    double py = y0 + (j0 + jj)*dy - c.y;
+                    int row = ((k0 + kk)*n + j0 + jj)*n + i0;
+                    for(int i=0;i<ni;i++){
+                        double mesh = 0;
+                        int o = (i*nj + jj)*ez + kk + P - 1;
+                        for(int cc=0;cc<P;cc++) mesh += w[2*P + cc] * t2[o - cc];
+                        double px = x0 + (i0 + i)*dx - c.x;
+                        f.val[row + i] += lam * (Math.sqrt(px*px + py*py + pz*pz) - mesh);
+                    }
+                }
+            }
+        }
+    }
+
+    // ====== Mixed-radix complex FFT (radix 2, 3, 4, 5) ======
+    // Stockham autosort, decimation in frequency: every pass reads one buffer and
+    // writes the other in natural order, no bit reversal. Unnormalized both ways.
+    static class FFT {
+        final int n;
+        final int[] radix;
+        final double[] cos, sin;            // e^{-2 pi i t / n} = cos[t] - i sin[t]
+
+        FFT(int n){
+            this.n = n;
+            ArrayList<Integer> r = new ArrayList<>();
+            int m = n;
+            while(m % 4 == 0){ r.add(4); m /= 4; }
+            while(m % 2 == 0){ r.add(2); m /= 2; }
+            while(m % 3 == 0){ r.add(3); m /= 3; }
+            while(m % 5 == 0){ r.add(5); m /= 5; }
+            if(m != 1) throw new IllegalArgumentException("FFT size " + n + " has factors other than 2, 3, 5");
+            radix = new int[r.size()];
+            for(int i=0;i<radix.length;i++) radix[i] = r.get(i);
+            cos = new double[n]; sin = new double[n];
+            for(int t=0;t<n;t++){
+                double a = 2*Math.PI*t / n;
+                cos[t] = Math.cos(a); sin[t] = Math.sin(a);
+            }
+        }
+
+        double cos(int t){ return cos[t % n]; }
+        double sin(int t){ return sin[t % n]; }
+
+        // smallest even size >= min with only factors 2, 3, 5
+        static int goodSize(int min){
+            for(int s = Math.max(2, min + (min & 1)); ; s += 2){
+                int m = s;
+                while(m % 2 == 0) m /= 2;
+                while(m % 3 == 0) m /= 3;
+                while(m % 5 == 0) m /= 5;
+                if(m == 1) return s;
+            }
+        }
+
+        // in place on (re, im); (wr, wi) is scratch of the same length
+        void transform(double[] re, double[] im, double[] wr, double[] wi, boolean inverse){
+            double sg = inverse ? -1 : 1;
+            double[] xr = re, xi = im, yr = wr, yi = wi;
+            int len = n, s = 1;
+            for(int p: radix){
+                int m = len / p;
+                if(p == 4) pass4(m, s, sg, xr, xi, yr, yi);
+                else if(p == 2) pass2(m, s, sg, xr, xi, yr, yi);
+                else passOdd(p, m, s, sg, xr, xi, yr, yi);
+                double[] tr = xr; xr = yr; yr = tr;
+                double[] ti = xi; xi = yi; yi = ti;
+                len = m; s *= p;
+            }
+            if(xr != re){
+                System.arraycopy(xr, 0, re, 0, n);
+                System.arraycopy(xi, 0, im, 0, n);
+            }
+        }
+
+        // One pass: x[t0 + s (q + r m)], r < p  ->  y[t0 + s (p q + t)], t < p, each output
+        // the radix-p DFT over r times the twiddle e^{-2 pi i q t / (p m)} (sg = -1 conjugates).
+
+        private void pass2(int m, int s, double sg, double[] xr, double[] xi, double[] yr, double[] yi){
+            for(int q=0;q<m;q++){
+                double c = cos[q*s], sn = sg*sin[q*s];
+                for(int t0=0;t0<s;t0++){
+                    int i0 = t0 + s*q, i1 = i0 + s*m, o = t0 + 2*s*q;
+                    double ar = xr[i0], ai = xi[i0], br = xr[i1], bi = xi[i1];
+                    yr[o] = ar + br; yi[o] = ai + bi;
+                    double dr = ar - br, di = ai - bi;
+                    yr[o+s] = dr*c + di*sn; yi[o+s] = di*c - dr*sn;
+                }
+            }
+        }
+
+        private void pass4(int m, int s, double sg, double[] xr, double[] xi, double[] yr, double[] yi){
+            for(int q=0;q<m;q++){
+                double c1 = cos[q*s], s1 = sg*sin[q*s];
+                double c2 = cos[2*q*s], s2 = sg*sin[2*q*s];
+                double c3 = cos[3*q*s], s3 = sg*sin[3*q*s];
+                for(int t0=0;t0<s;t0++){
+                    int i0 = t0 + s*q, i1 = i0 + s*m, i2 = i1 + s*m, i3 = i2 + s*m, o = t0 + 4*s*q;
+                    double t0r = xr[i0] + xr[i2], t0i = xi[i0] + xi[i2];
+                    double t1r = xr[i0] - xr[i2], t1i = xi[i0] - xi[i2];
+                    double t2r = xr[i1] + xr[i3], t2i = xi[i1] + xi[i3];
+                    double ur = sg*(xi[i1] - xi[i3]), ui = -sg*(xr[i1] - xr[i3]);   // -i (a1 - a3)
+                    yr[o] = t0r + t2r; yi[o] = t0i + t2i;
+                    double br = t1r + ur, bi = t1i + ui;
+                    yr[o+s] = br*c1 + bi*s1; yi[o+s] = bi*c1 - br*s1;
+                    br = t0r - t2r; bi = t0i - t2i;
+                    yr[o+2*s] = br*c2 + bi*s2; yi[o+2*s] = bi*c2 - br*s2;
+                    br = t1r - ur; bi = t1i - ui;
+                    yr[o+3*s] = br*c3 + bi*s3; yi[o+3*s] = bi*c3 - br*s3;
+                }
+            }
+        }
+
+        private void passOdd(int p, int m, int s, double sg, double[] xr, double[] xi, double[] yr, double[] yi){
+            int step = n / p;
+            double[] ar = new double[p], ai = new double[p];
+            for(int q=0;q<m;q++){
+                for(int t0=0;t0<s;t0++){
+                    for(int r=0;r<p;r++){ ar[r] = xr[t0 + s*(q + r*m)]; ai[r] = xi[t0 + s*(q + r*m)]; }
+                    for(int t=0;t<p;t++){
+                        double br = 0, bi = 0;
+                        for(int r=0;r<p;r++){
+                            int e = (r*t % p) * step;
+                            double c = cos[e], sn = sg*sin[e];
+                            br += ar[r]*c + ai[r]*sn;
+                            bi += ai[r]*c - ar[r]*sn;
+                        }
+                        int e = q*t*s;
+                        double c = cos[e], sn = sg*sin[e];
+                        int o = t0 + s*(p*q + t);
+                        yr[o] = br*c + bi*sn;
+                        yi[o] = bi*c - br*sn;
+                    }
+                }
+            }
+        }
+    }
+}
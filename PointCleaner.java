@@ -0,0 +1,330 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+// ====== Point cloud cleanup before constraint building ======
+// Two passes over a hashed uniform grid (cell -> points, LongMap + CSR arrays):
+//  - outliers: mean distance to the K nearest neighbours per point (in parallel);
+//    points above mean + stdRatio * std of that distance are dropped (statistical
+//    outlier removal). Stray points otherwise inflate bbox / expand and the field grid.
+//  - merge: points within tol of a cluster's seed point (and with normals not facing
+//    apart) become one point at the cluster centroid with the averaged normal.
+//    Duplicates otherwise give near-identical rows in the RBF system.
+// Outliers go first and nothing is scaled by the raw bbox: the grid origin is a
+// quantile of the cloud and the merge tolerance is a fraction of the median k-NN
+// spacing, so a single far point can't stretch the cells or the tolerance.
+//
+//   ArrayList<PointN> pts = PointCleaner.clean(raw);
+public class PointCleaner {
+
+    static final double MERGE_RATIO = 0.1;    // merge tolerance, fraction of the median k-NN spacing
+    static final int K = 8;                   // neighbours for the outlier statistic
+    static final double STD_RATIO = 5.0;      // loose: sparse but real regions (holes, rims) stay
+    static final int MAX_RING = 6;            // k-NN search stops after this many cell rings
+    static final double QUANTILE = 0.01;      // grid origin / extent from these per-axis quantiles
+    static final int QUANTILE_SAMPLE = 1 << 16;
+
+    static ArrayList<PointN> clean(ArrayList<PointN> pts){
+        Metrics.Stage st = Metrics.begin("cleanPoints");
+        int n = pts.size();
+        double[] md = meanKnn(flat(pts), n, K);
+        boolean[] keep = inliers(md, STD_RATIO);
+
+        ArrayList<PointN> kept = new ArrayList<>(n);
+        double[] keptMd = new double[n];
+        int nk = 0;
+        for(int i=0;i<n;i++) if(keep[i]){ kept.add(pts.get(i)); keptMd[nk++] = md[i]; }
+        Metrics.count("clean.outliers", n - nk);
+
+        double spacing = median(keptMd, nk);
+        ArrayList<PointN> merged = merge(kept, MERGE_RATIO * spacing);
+        System.out.println("Cleaned points: " + n + " -> kept " + kept.size() + " -> merged " + merged.size());
+        st.end();
+        return merged;
+    }
+
+    // ---- hashed grid ----
+
+    // points bucketed by cell; cell (i,j,k) relative to the origin, 21 bits per axis.
+    // Points below the origin or past the last cell land in the border cells; their
+    // distances are still exact, they only make those cells fuller.
+    static class Grid {
+        final double x0, y0, z0, h;
+        final LongMap cells;            // cell key -> cell index
+        final int[] start, items;       // CSR: points of cell c are items[start[c] .. start[c+1])
+        final double[] xyz;
+
+        Grid(double[] xyz, int n, double[] origin, double h){
+            this.xyz = xyz;
+            this.h = h;
+            x0 = origin[0]; y0 = origin[1]; z0 = origin[2];
+
+            long[] key = new long[n];
+            IntStream.range(0, n).parallel().forEach(i -> key[i] = key(cell(xyz[3*i], x0), cell(xyz[3*i+1], y0), cell(xyz[3*i+2], z0)));
+            cells = new LongMap(Math.max(16, n / 2));
+            int[] cellOf = new int[n];
+            int nc = 0;
+            for(int i=0;i<n;i++){
+                long c = cells.get(key[i], -1);
+                if(c < 0){ c = nc++; cells.put(key[i], c); }
+                cellOf[i] = (int) c;
+            }
+            start = new int[nc+1];
+            for(int i=0;i<n;i++) start[cellOf[i]+1]++;
+            for(int c=0;c<nc;c++) start[c+1] += start[c];
+            items = new int[n];
+            int[] fill = Arrays.copyOf(start, nc);
+            for(int i=0;i<n;i++) items[fill[cellOf[i]]++] = i;
+        }
+
+        int cell(double v, double v0){
+            return (int) Math.max(0, Math.min((1 << 21) - 1, Math.floor((v - v0) / h)));
+        }
+
+        static long key(int i, int j, int k){ return ((long) i << 42) | ((long) j << 21) | k; }
+
+        // cell index of (i,j,k), -1 if empty or outside
+        int find(int i, int j, int k){
+            if(i < 0 || j < 0 || k < 0 || i >= (1 << 21) || j >= (1 << 21) || k >= (1 << 21)) return -1;
+            return (int) cells.get(key(i, j, k), -1);
+        }
+    }
+
+    // per-axis QUANTILE .. 1-QUANTILE of (a strided sample of) the cloud:
+    // { lo.x, lo.y, lo.z, hi.x, hi.y, hi.z }; unlike the bbox, a few far points don't move it
+    static double[] robustBox(double[] xyz, int n){
+        double[] b = new double[6];
+        if(n == 0) return b;
+        int step = Math.max(1, n / QUANTILE_SAMPLE), s = (n + step - 1) / step;
+        double[] v = new double[s];
+        for(int a=0;a<3;a++){
+            for(int q=0;q<s;q++) v[q] = xyz[3*(q*step) + a];
+            Arrays.sort(v);
+            b[a] = v[(int) (QUANTILE * (s - 1))];
+            b[3+a] = v[(int) Math.ceil((1 - QUANTILE) * (s - 1))];
+        }
+        return b;
+    }
+
+    // origin half an extent below the robust box: the real tails stay inside the grid
+    private static double[] origin(double[] rb){
+        return new double[]{ rb[0] - 0.5*(rb[3]-rb[0]), rb[1] - 0.5*(rb[4]-rb[1]), rb[2] - 0.5*(rb[5]-rb[2]) };
+    }
+
+    // ---- outliers ----
+
+    static ArrayList<PointN> removeOutliers(ArrayList<PointN> pts, int k, double stdRatio){
+        boolean[] keep = inliers(meanKnn(flat(pts), pts.size(), k), stdRatio);
+        ArrayList<PointN> out = new ArrayList<>(pts.size());
+        for(int i=0;i<pts.size();i++) if(keep[i]) out.add(pts.get(i));
+        return out;
+    }
+
+    // md[i] <= mean + stdRatio * std over the finite values
+    static boolean[] inliers(double[] md, double stdRatio){
+        double s = 0, s2 = 0;
+        int finite = 0;
+        for(double d: md) if(d < Double.POSITIVE_INFINITY){ s += d; s2 += d*d; finite++; }
+        double mean = finite == 0 ? 0 : s / finite;
+        double std = finite == 0 ? 0 : Math.sqrt(Math.max(0, s2 / finite - mean*mean));
+        double limit = mean + stdRatio * std;
+        boolean[] keep = new boolean[md.length];
+        for(int i=0;i<md.length;i++) keep[i] = md[i] <= limit;
+        return keep;
+    }
+
+    // mean k-NN distance of every point, in parallel; infinity where fewer than k are
+    // found within MAX_RING cells. Too few points for the statistic: all zero (kept).
+    static double[] meanKnn(double[] xyz, int n, int k){
+        double[] md = new double[n];
+        if(n <= k) return md;
+        // about k points per cell on a surface sampled n times across the (robust) diagonal
+        double[] rb = robustBox(xyz, n);
+        double dx = rb[3]-rb[0], dy = rb[4]-rb[1], dz = rb[5]-rb[2];
+        double rdiag = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        Grid g = new Grid(xyz, n, origin(rb), Math.max(1e-12, rdiag * Math.sqrt(k / (double) n)));
+
+        JobEngine.Job<?> job = JobEngine.current();
+        IntStream.range(0, n).parallel().forEach(i -> {
+            if((i & 1023) == 0) JobEngine.checkCancelled(job);
+            md[i] = meanKnn(g, i, k);
+        });
+        return md;
+    }
+
+    // mean distance to the k nearest other points: rings of cells outward until the
+    // k-th distance is inside the searched cube (or MAX_RING; infinity if still < k)
+    private static double meanKnn(Grid g, int i, int k){
+        double[] xyz = g.xyz;
+        double x = xyz[3*i], y = xyz[3*i+1], z = xyz[3*i+2];
+        int ci = g.cell(x, g.x0), cj = g.cell(y, g.y0), ck = g.cell(z, g.z0);
+        double[] best = new double[k];         // k smallest squared distances, max at best[0] (heap)
+        int size = 0;
+
+        for(int r=0;r<=MAX_RING;r++){
+            for(int dk=-r;dk<=r;dk++)
+                for(int dj=-r;dj<=r;dj++)
+                    for(int di=-r;di<=r;di++){
+                        if(Math.max(Math.abs(di), Math.max(Math.abs(dj), Math.abs(dk))) != r) continue;
+                        int c = g.find(ci+di, cj+dj, ck+dk);
+                        if(c < 0) continue;
+                        for(int e=g.start[c]; e<g.start[c+1]; e++){
+                            int j = g.items[e];
+                            if(j == i) continue;
+                            double dx = xyz[3*j]-x, dy = xyz[3*j+1]-y, dz = xyz[3*j+2]-z;
+                            double d2 = dx*dx + dy*dy + dz*dz;
+                            if(size < k){ best[size++] = d2; siftUp(best, size-1); }
+                            else if(d2 < best[0]){ best[0] = d2; siftDown(best, k); }
+                        }
+                    }
+            // everything not yet searched is at least r cells away
+            if(size == k && best[0] <= (r * g.h) * (r * g.h)) break;
+        }
+        if(size < k) return Double.POSITIVE_INFINITY;
+        double s = 0;
+        for(int q=0;q<k;q++) s += Math.sqrt(best[q]);
+        return s / k;
+    }
+
+    // ---- merging ----
+
+    // Cells are tol wide, so a point only looks at the 27 cells around it. A point joins
+    // the nearest seed within tol that is already placed, or becomes a seed itself.
+    // Z slabs of cells are processed in parallel, even slabs first, then odd: slabs of
+    // one parity never look at each other, so the result doesn't depend on threads.
+    static ArrayList<PointN> merge(ArrayList<PointN> pts, double tol){
+        int n = pts.size();
+        if(n == 0 || !(tol > 0)) return new ArrayList<>(pts);
+        double[] xyz = flat(pts);
+        Grid g = new Grid(xyz, n, origin(robustBox(xyz, n)), tol);
+        double tol2 = tol * tol;
+
+        // points by z slab, in index order
+        int[] slabOf = new int[n];
+        int slabs = 0;
+        for(int i=0;i<n;i++){
+            slabOf[i] = g.cell(xyz[3*i+2], g.z0);
+            slabs = Math.max(slabs, slabOf[i] + 1);
+        }
+        int[] start = new int[slabs+1], order = new int[n];
+        for(int i=0;i<n;i++) start[slabOf[i]+1]++;
+        for(int s=0;s<slabs;s++) start[s+1] += start[s];
+        int[] fill = Arrays.copyOf(start, slabs);
+        for(int i=0;i<n;i++) order[fill[slabOf[i]]++] = i;
+
+        int[] seedOf = new int[n];              // seed point of each point's cluster; -1 until placed
+        Arrays.fill(seedOf, -1);
+        JobEngine.Job<?> job = JobEngine.current();
+        for(int parity=0;parity<2;parity++){
+            final int par = parity;
+            IntStream.range(0, (slabs + 1 - par) / 2).parallel().forEach(q -> {
+                JobEngine.checkCancelled(job);
+                int sl = 2*q + par;
+                for(int e=start[sl]; e<start[sl+1]; e++){
+                    int i = order[e];
+                    seedOf[i] = nearestSeed(g, pts, seedOf, i, tol2);
+                }
+            });
+        }
+
+        // clusters numbered by seed index, so the output keeps the input order
+        int[] id = new int[n];
+        int nc = 0;
+        for(int i=0;i<n;i++) if(seedOf[i] == i) id[i] = nc++;
+        double[] sum = new double[nc * 6];
+        int[] count = new int[nc];
+        int[] seed = new int[nc];
+        double[] un = new double[3];
+        for(int i=0;i<n;i++){
+            int c = id[seedOf[i]];
+            if(seedOf[i] == i) seed[c] = i;
+            count[c]++;
+            sum[6*c] += xyz[3*i]; sum[6*c+1] += xyz[3*i+1]; sum[6*c+2] += xyz[3*i+2];
+            unit(pts.get(i).n, un);
+            sum[6*c+3] += un[0]; sum[6*c+4] += un[1]; sum[6*c+5] += un[2];
+        }
+        ArrayList<PointN> out = new ArrayList<>(nc);
+        for(int c=0;c<nc;c++){
+            if(count[c] == 1){ out.add(pts.get(seed[c])); continue; }
+            double k = count[c];
+            out.add(new PointN(new Vector3(sum[6*c]/k, sum[6*c+1]/k, sum[6*c+2]/k),
+                               new Vector3(sum[6*c+3], sum[6*c+4], sum[6*c+5]).normalize()));
+        }
+        Metrics.count("clean.merged", n - nc);
+        return out;
+    }
+
+    // nearest placed seed within tol whose normal doesn't face away (two sides of a thin sheet); i if none
+    private static int nearestSeed(Grid g, ArrayList<PointN> pts, int[] seedOf, int i, double tol2){
+        double[] xyz = g.xyz;
+        double x = xyz[3*i], y = xyz[3*i+1], z = xyz[3*i+2];
+        int ci = g.cell(x, g.x0), cj = g.cell(y, g.y0), ck = g.cell(z, g.z0);
+        Vector3 ni = pts.get(i).n;
+        int best = i;
+        double bestD2 = tol2;
+        for(int dk=-1;dk<=1;dk++)
+            for(int dj=-1;dj<=1;dj++)
+                for(int di=-1;di<=1;di++){
+                    int c = g.find(ci+di, cj+dj, ck+dk);
+                    if(c < 0) continue;
+                    for(int e=g.start[c]; e<g.start[c+1]; e++){
+                        int j = g.items[e];
+                        if(seedOf[j] != j || j == i) continue;
+                        double dx = xyz[3*j]-x, dy = xyz[3*j+1]-y, dz = xyz[3*j+2]-z;
+                        double d2 = dx*dx + dy*dy + dz*dz;
+                        if(d2 > bestD2 || (d2 == bestD2 && j > best)) continue;
+                        Vector3 nj = pts.get(j).n;
+                        if(ni.x*nj.x + ni.y*nj.y + ni.z*nj.z < 0) continue;
+                        best = j; bestD2 = d2;
+                    }
+                }
+        return best;
+    }
+
+    // ---- helpers ----
+
+    // median of the finite values in v[0, n); 0 if there are none
+    private static double median(double[] v, int n){
+        double[] f = new double[n];
+        int m = 0;
+        for(int i=0;i<n;i++) if(v[i] < Double.POSITIVE_INFINITY) f[m++] = v[i];
+        if(m == 0) return 0;
+        Arrays.sort(f, 0, m);
+        return f[m / 2];
+    }
+
+    private static void siftUp(double[] h, int i){
+        while(i > 0){
+            int p = (i - 1) / 2;
+            if(h[p] >= h[i]) return;
+            double t = h[p]; h[p] = h[i]; h[i] = t;
+            i = p;
+        }
+    }
+
+    private static void siftDown(double[] h, int n){
+        int i = 0;
+        while(true){
+            int l = 2*i + 1, r = l + 1, m = i;
+            if(l < n && h[l] > h[m]) m = l;
+            if(r < n && h[r] > h[m]) m = r;
+            if(m == i) return;
+            double t = h[m]; h[m] = h[i]; h[i] = t;
+            i = m;
+        }
+    }
+
+    private static double[] flat(ArrayList<PointN> pts){
+        double[] xyz = new double[pts.size() * 3];
+        for(int i=0;i<pts.size();i++){
+            Vector3 p = pts.get(i).p;
+            xyz[3*i] = p.x; xyz[3*i+1] = p.y; xyz[3*i+2] = p.z;
+        }
+        return xyz;
+    }
+
+    private static void unit(Vector3 n, double[] out){
+        double l = Math.sqrt(n.x*n.x + n.y*n.y + n.z*n.z);
+        if(l < 1e-12){ out[0] = out[1] = out[2] = 0; return; }
+        out[0] = n.x / l; out[1] = n.y / l; out[2] = n.z / l;
+    }
+}
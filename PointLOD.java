@@ -0,0 +1,300 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// ====== Out-of-core point cloud LOD ======
+// An octree over the points where every node stores a spatially even subsample
+// (at most NODE_CAP points) and passes the rest down to its children. Coarse
+// nodes alone give a preview of the whole cloud; finer ones add detail.
+//
+// File layout (little endian):
+//   "P2OC" | int nodeCount | nodeCount x { float cx,cy,cz,half | long offset | int count | int child[8] }
+//   followed by the point data (float x,y,z per point, node after node)
+//
+// At draw time select() picks the nodes with the largest projected size until the
+// point budget is used, and a background thread streams missing nodes from disk.
+// ViewerPanel uploads finished nodes into a pool of fixed-size VBOs.
+public class PointLOD {
+
+    static final int NODE_CAP = 16384;
+    static final int MAX_DEPTH = 20;
+    static final int RECORD = 4*4 + 8 + 4 + 8*4;
+    static final int MAX_PENDING = 64;      // disk reads in flight
+
+    // ---- node index (kept in memory, ~60 bytes per node) ----
+    final int nodeCount;
+    final float[] cx, cy, cz, half;
+    final long[] offset;
+    final int[] count;
+    final int[][] child;
+
+    private final FileChannel ch;
+    private final ExecutorService loader;
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<Object[]> loaded = new ConcurrentLinkedQueue<>(); // {Integer node, FloatBuffer}
+
+    // ====== building ======
+
+    static void build(ArrayList<PointN> pts, String path) throws IOException {
+        float[] xyz = new float[pts.size()*3];
+        for(int i=0;i<pts.size();i++){
+            Vector3 p = pts.get(i).p;
+            xyz[3*i] = (float) p.x; xyz[3*i+1] = (float) p.y; xyz[3*i+2] = (float) p.z;
+        }
+        build(xyz, pts.size(), path);
+    }
+
+    // positions as a flat float array (12 bytes per point instead of a PointN each)
+    static void build(float[] xyz, int n, String path) throws IOException {
+        Metrics.Stage st = Metrics.begin("PointLOD.build");
+        float minx=Float.MAX_VALUE, miny=Float.MAX_VALUE, minz=Float.MAX_VALUE;
+        float maxx=-Float.MAX_VALUE, maxy=-Float.MAX_VALUE, maxz=-Float.MAX_VALUE;
+        for(int i=0;i<n;i++){
+            minx=Math.min(minx,xyz[3*i]); miny=Math.min(miny,xyz[3*i+1]); minz=Math.min(minz,xyz[3*i+2]);
+            maxx=Math.max(maxx,xyz[3*i]); maxy=Math.max(maxy,xyz[3*i+1]); maxz=Math.max(maxz,xyz[3*i+2]);
+        }
+        float h = Math.max(maxx-minx, Math.max(maxy-miny, maxz-minz)) / 2 * 1.0001f + 1e-6f;
+
+        int[] idx = new int[n];
+        for(int i=0;i<n;i++) idx[i] = i;
+
+        Builder b = new Builder(xyz);
+        b.node((minx+maxx)/2, (miny+maxy)/2, (minz+maxz)/2, h, idx, 0, n, 0);
+        b.write(path);
+        Metrics.count("lod.nodes", b.nodes.size());
+        st.end();
+    }
+
+    private static class Builder {
+        final float[] xyz;
+        final ArrayList<float[]> nodes = new ArrayList<>();   // cx,cy,cz,half
+        final ArrayList<int[]> children = new ArrayList<>();
+        final ArrayList<int[]> members = new ArrayList<>();   // point ids per node
+
+        Builder(float[] xyz){ this.xyz = xyz; }
+
+        // idx[from, to) are the points inside this cube
+        int node(float x, float y, float z, float h, int[] idx, int from, int to, int depth){
+            int id = nodes.size();
+            nodes.add(new float[]{ x, y, z, h });
+            int[] ch = new int[8];
+            Arrays.fill(ch, -1);
+            children.add(ch);
+
+            int n = to - from;
+            if(n <= NODE_CAP){
+                members.add(Arrays.copyOfRange(idx, from, to));
+                return id;
+            }
+            if(depth >= MAX_DEPTH){
+                // the rest are (near) duplicates: chain more nodes of the same cube through
+                // child[0], NODE_CAP points each, so none are lost and VBO slots stay fixed-size
+                members.add(Arrays.copyOfRange(idx, from, from + NODE_CAP));
+                int prev = id;
+                for(int s=from+NODE_CAP;s<to;s+=NODE_CAP){
+                    int c = nodes.size();
+                    nodes.add(new float[]{ x, y, z, h });
+                    int[] cc = new int[8];
+                    Arrays.fill(cc, -1);
+                    children.add(cc);
+                    members.add(Arrays.copyOfRange(idx, s, Math.min(to, s + NODE_CAP)));
+                    children.get(prev)[0] = c;
+                    prev = c;
+                }
+                Metrics.count("lod.spilled", n - NODE_CAP);
+                return id;
+            }
+
+            // keep one point per cell of a g^3 grid (first come), the rest go down
+            int g = (int) Math.cbrt(NODE_CAP);
+            boolean[] taken = new boolean[g*g*g];
+            int[] keep = new int[Math.min(n, g*g*g)];
+            int nk = 0, w = from;
+            float inv = g / (2*h);
+            for(int t=from;t<to;t++){
+                int p = idx[t];
+                int gi = Math.min(g-1, (int)((xyz[3*p]   - (x-h)) * inv));
+                int gj = Math.min(g-1, (int)((xyz[3*p+1] - (y-h)) * inv));
+                int gk = Math.min(g-1, (int)((xyz[3*p+2] - (z-h)) * inv));
+                int c = (gk*g + gj)*g + gi;
+                if(!taken[c]){ taken[c] = true; keep[nk++] = p; }
+                else idx[w++] = p;
+            }
+            members.add(Arrays.copyOf(keep, nk));
+
+            // partition the remainder [from, w) by octant
+            int[] cnt = new int[9];
+            for(int t=from;t<w;t++) cnt[octant(idx[t], x, y, z) + 1]++;
+            for(int o=0;o<8;o++) cnt[o+1] += cnt[o];
+            int[] tmp = new int[w-from];
+            int[] pos = Arrays.copyOf(cnt, 8);
+            for(int t=from;t<w;t++){ int p = idx[t]; tmp[pos[octant(p, x, y, z)]++] = p; }
+            System.arraycopy(tmp, 0, idx, from, tmp.length);
+
+            float hh = h/2;
+            for(int o=0;o<8;o++){
+                int a = from + cnt[o], b = from + cnt[o+1];
+                if(a == b) continue;
+                ch[o] = node(x + ((o&1)!=0 ? hh : -hh), y + ((o&2)!=0 ? hh : -hh), z + ((o&4)!=0 ? hh : -hh),
+                             hh, idx, a, b, depth+1);
+            }
+            return id;
+        }
+
+        int octant(int p, float x, float y, float z){
+            return (xyz[3*p] >= x ? 1 : 0) | (xyz[3*p+1] >= y ? 2 : 0) | (xyz[3*p+2] >= z ? 4 : 0);
+        }
+
+        void write(String path) throws IOException {
+            int nn = nodes.size();
+            try (FileChannel out = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer head = ByteBuffer.allocate(8 + nn*RECORD).order(ByteOrder.LITTLE_ENDIAN);
+                head.put(new byte[]{ 'P', '2', 'O', 'C' }).putInt(nn);
+                long off = head.capacity();
+                for(int i=0;i<nn;i++){
+                    float[] b = nodes.get(i);
+                    head.putFloat(b[0]).putFloat(b[1]).putFloat(b[2]).putFloat(b[3]);
+                    head.putLong(off).putInt(members.get(i).length);
+                    for(int c: children.get(i)) head.putInt(c);
+                    off += members.get(i).length * 12L;
+                }
+                head.flip();
+                while(head.hasRemaining()) out.write(head);
+
+                ByteBuffer buf = ByteBuffer.allocateDirect(1 << 22).order(ByteOrder.LITTLE_ENDIAN);
+                for(int i=0;i<nn;i++){
+                    for(int p: members.get(i)){
+                        if(buf.remaining() < 12){ buf.flip(); while(buf.hasRemaining()) out.write(buf); buf.clear(); }
+                        buf.putFloat(xyz[3*p]).putFloat(xyz[3*p+1]).putFloat(xyz[3*p+2]);
+                    }
+                }
+                buf.flip();
+                while(buf.hasRemaining()) out.write(buf);
+            }
+        }
+    }
+
+    // ====== runtime ======
+
+    PointLOD(String path) throws IOException {
+        ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        ByteBuffer h = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(h, 0);
+        h.flip();
+        if(h.get() != 'P' || h.get() != '2' || h.get() != 'O' || h.get() != 'C'){
+            ch.close();
+            throw new IOException("Not a point LOD file: " + path);
+        }
+        nodeCount = h.getInt();
+
+        ByteBuffer idx = ByteBuffer.allocate(nodeCount*RECORD).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(idx, 8);
+        idx.flip();
+        cx = new float[nodeCount]; cy = new float[nodeCount]; cz = new float[nodeCount]; half = new float[nodeCount];
+        offset = new long[nodeCount]; count = new int[nodeCount]; child = new int[nodeCount][8];
+        for(int i=0;i<nodeCount;i++){
+            cx[i] = idx.getFloat(); cy[i] = idx.getFloat(); cz[i] = idx.getFloat(); half[i] = idx.getFloat();
+            offset[i] = idx.getLong(); count[i] = idx.getInt();
+            for(int c=0;c<8;c++) child[i][c] = idx.getInt();
+        }
+
+        loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "PointLOD-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    int maxNodePoints(){
+        int m = 0;
+        for(int c: count) m = Math.max(m, c);
+        return m;
+    }
+
+    boolean loading(){ return !pending.isEmpty(); }
+
+    // Nodes to draw this frame, largest projected size first, until budget points.
+    // mv: column-major model-view matrix; pixelScale: projection focal length * viewport
+    // height / 2, so a sphere of radius r at depth d covers about r * pixelScale / d pixels.
+    // Children are only considered once their parent is selected.
+    int[] select(float[] mv, float pixelScale, long budget, float minPixels){
+        PriorityQueue<double[]> pq = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+        ArrayList<Integer> out = new ArrayList<>();
+        pq.add(new double[]{ Double.MAX_VALUE, 0 });
+        long used = 0;
+        while(!pq.isEmpty()){
+            int n = (int) pq.poll()[1];
+            if(used + count[n] > budget) continue;
+            out.add(n);
+            used += count[n];
+            for(int c: child[n]){
+                if(c < 0) continue;
+                double s = projectedSize(c, mv, pixelScale);
+                if(s >= minPixels) pq.add(new double[]{ s, c });
+            }
+        }
+        int[] r = new int[out.size()];
+        for(int i=0;i<r.length;i++) r[i] = out.get(i);
+        return r;
+    }
+
+    // pixels covered by the node's bounding sphere; 0 if outside the view
+    double projectedSize(int n, float[] mv, float pixelScale){
+        float x = cx[n], y = cy[n], z = cz[n];
+        double vx = mv[0]*x + mv[4]*y + mv[8]*z + mv[12];
+        double vy = mv[1]*x + mv[5]*y + mv[9]*z + mv[13];
+        double vz = mv[2]*x + mv[6]*y + mv[10]*z + mv[14];
+        double sx = Math.sqrt(mv[0]*mv[0] + mv[1]*mv[1] + mv[2]*mv[2]); // model-view scale
+        double r = half[n] * 1.7320508 * sx;
+        double d = -vz;
+        if(d <= r) return Double.MAX_VALUE / 4; // camera inside or touching the node
+        // coarse frustum test (90 degree cone is generous for the 60 degree view)
+        if(Math.abs(vx) - r > d * 1.5 || Math.abs(vy) - r > d * 1.5) return 0;
+        return r * pixelScale / d;
+    }
+
+    // ---- streaming ----
+
+    // queue a disk read for every node not resident and not already requested
+    void request(int[] nodes, Set<Integer> resident){
+        for(int n: nodes){
+            if(pending.size() >= MAX_PENDING) return;
+            if(resident.contains(n) || !pending.add(n)) continue;
+            loader.execute(() -> {
+                try {
+                    ByteBuffer b = ByteBuffer.allocateDirect(count[n]*12).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(b, offset[n]);
+                    b.flip();
+                    loaded.add(new Object[]{ n, b.asFloatBuffer() });
+                } catch (IOException ex){
+                    ex.printStackTrace();
+                    pending.remove(n);
+                }
+            });
+        }
+    }
+
+    // next node read by the loader, or null; {Integer node, FloatBuffer xyz}
+    Object[] pollLoaded(){
+        Object[] r = loaded.poll();
+        if(r != null) pending.remove((Integer) r[0]);
+        return r;
+    }
+
+    void close(){
+        loader.shutdownNow();
+        try { ch.close(); } catch (IOException ex){ }
+    }
+
+    private void readFully(ByteBuffer b, long pos) throws IOException {
+        while(b.hasRemaining()){
+            int r = ch.read(b, pos);
+            if(r < 0) throw new EOFException();
+            pos += r;
+        }
+    }
+}
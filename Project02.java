@@ -2,6 +2,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.util.*;
+import java.util.stream.IntStream;
 import javax.swing.*;
 
 public class Project02{
@@ -20,6 +21,9 @@ public class Project02{
 
          // == .xyz loading==
          ArrayList<PointN> pts = null;
+        ArrayList<Constraint> C = null;
+        long total = 0;     // points in the input; more than pts when streamed
+        BBox b = null;
         if(args.length < 1||args.length>=3)
         {
             System.out.println("Please input fileName (% java Project02 xyz/bunny.xyz)");
@@ -28,7 +32,22 @@ public class Project02{
 
         else{
             try {
-                pts = loadXYZ(args[0]);
+                if(new File(args[0]).length() > STREAM_MIN_BYTES){
+                    // larger than we want in memory: one pass, keep a constraint sample and a preview
+                    StreamIngest in = StreamIngest.read(args[0], STREAM_SAMPLE, STREAM_PREVIEW, 0);
+                    // box from the cleaned preview: the streamed box counts every stray point
+                    pts = PointCleaner.clean(in.preview);
+                    total = in.count;
+                    if(!pts.isEmpty()){
+                        System.out.println("Drag: rotate | Wheel: zoom | S: slice, Up/Down: move it | Points: " + in.count + " (showing " + pts.size() + ")");
+                        C = buildConstraintsFromSample(PointCleaner.clean(in.sample), bboxDiag(pts), 0.01);
+                        b = expand(bbox(pts), 0.10);
+                    }
+                }
+                else{
+                    pts = PointCleaner.clean(loadXYZ(args[0]));
+                    total = pts.size();
+                }
 
             } catch (IOException ex){
                 ex.printStackTrace();
@@ -41,22 +60,74 @@ public class Project02{
             return;
         }
 
-        System.out.println("Drag: rotate | Wheel: zoom | Points: " + pts.size());
-        ArrayList<Constraint> C = buildConstraints(pts, pts.size()/5);
+        if(C == null){
+            System.out.println("Drag: rotate | Wheel: zoom | S: slice, Up/Down: move it | Points: " + pts.size());
+            C = buildConstraints(pts, pts.size()/5);
+            b = expand(bbox(pts), 0.10);
+        }
         double[] lambda = fitRBF(C);
 
-        double maxAbs = 0.0;
-        for(int i=0;i<Math.min(50, C.size()); i++){
-            double v = evalRBF(C, lambda, C.get(i).x);
-            double err = Math.abs(v - C.get(i).y);
-            maxAbs = Math.max(maxAbs, err);
+        ScalarField field = buildField(C, lambda, b, 64, 0.0);
+
+        // == optional export (% java Project02 xyz/bunny.xyz out.ply) and the viewer both
+        //    follow the extraction: each finished slab is written and shown right away ==
+        MeshWriter writer = null;
+        if(args.length == 2){
+            try {
+                writer = MeshWriter.open(args[1], true);
+            } catch (IOException ex){
+                ex.printStackTrace();
+            }
+        }
+        ViewerPanel panel = GraphicsEnvironment.isHeadless() ? null : openViewer(pts, total);
+        Progress progress = new Progress(writer, args.length == 2 ? args[1] : null, panel);
+        MeshBuffer mb = extract(field, 0.0, C, lambda, progress);
+        if(progress.finish()) System.out.println("Wrote " + args[1]);
+        Mesh mesh = optimized(mb);
+        if(panel != null){
+            panel.setMesh(mesh);
+            panel.setLazyField(new LazyField(C, lambda, b, 64, 64L << 20));
+        }
+
+        // == quality: residuals at all points, mesh <-> cloud distances. That is points x
+        //    constraints kernel evaluations, so only on request: -Dproject02.quality=true
+        //    or a gate, -Dproject02.gate.hausdorff=0.01 (fraction of bbox diag), -Dproject02.gate.residual=0.05 ==
+        String gh = System.getProperty("project02.gate.hausdorff"), gr = System.getProperty("project02.gate.residual");
+        Quality.Report q = null;
+        if(gh != null || gr != null || Boolean.getBoolean("project02.quality")){
+            q = Quality.evaluate(C, lambda, pts, mesh);
+            System.out.println("Quality: " + q);
         }
-        BBox b = expand(bbox(pts), 0.10);
-        ScalarField field = buildField(C, lambda, b, 64);
 
-        Mesh mesh = marchingCubes(field, 0.0);
+        // == metrics: -Dproject02.metrics=out.json writes the summary to a file ==
+        String metricsPath = System.getProperty("project02.metrics");
+        if(metricsPath != null){
+            try (Writer w = new FileWriter(metricsPath)) {
+                w.write(Metrics.toJson());
+            } catch (IOException ex){
+                ex.printStackTrace();
+            }
+        }
+        else{
+            System.out.println(Metrics.toJson());
+        }
 
-        // == Setting Window ==
+        // == gate ==
+        if(gh != null || gr != null){
+            double maxH = gh != null ? Double.parseDouble(gh) : Double.POSITIVE_INFINITY;
+            double maxR = gr != null ? Double.parseDouble(gr) : Double.POSITIVE_INFINITY;
+            if(!Quality.gate(q, maxH, maxR)){
+                System.out.println("Quality gate failed: " + q);
+                if(args.length == 2) new File(args[1]).delete();   // no output for a failed gate
+                System.exit(3);
+            }
+        }
+
+        if(panel == null) System.out.println("Headless: no viewer");
+    }
+
+    // == Setting Window ==
+    static ViewerPanel openViewer(ArrayList<PointN> pts, long total){
         JFrame f = new JFrame("Project02");
 
         int w = 700;
@@ -66,13 +137,80 @@ public class Project02{
         f.setSize(w, h);
         f.setLocationRelativeTo(null);
 
-        ViewerPanel panel = new ViewerPanel(pts);
-        panel.setMesh(mesh);
+        // large scans (streamed ones always): draw through an on-disk LOD octree instead of one VBO of all points
+        ViewerPanel panel;
+        if(total > LOD_MIN_POINTS){
+            try {
+                File lodFile = File.createTempFile("project02-", ".p2oc");
+                lodFile.deleteOnExit();
+                PointLOD.build(pts, lodFile.getPath());
+                panel = new ViewerPanel(new ArrayList<>());
+                panel.setPointLOD(new PointLOD(lodFile.getPath()));
+            } catch (IOException ex){
+                ex.printStackTrace();
+                panel = new ViewerPanel(pts);
+            }
+        }
+        else{
+            panel = new ViewerPanel(pts);
+        }
         f.add(panel);
 
         f.setVisible(true);
-        
+        return panel;
+    }
 
+    // Slab sink for main: appends each finished slab to the export (a failed write
+    // drops the partial file, extraction goes on) and to the viewer, through a Mesh
+    // that only grows so the panel packs just the new part (ViewerPanel.updateMesh)
+    static class Progress implements MCKernel.Slab {
+        private MeshWriter writer;
+        private final String path;
+        private final ViewerPanel panel;
+        private final Mesh shown = new Mesh();
+
+        Progress(MeshWriter writer, String path, ViewerPanel panel){
+            this.writer = writer;
+            this.path = path;
+            this.panel = panel;
+        }
+
+        public void done(MeshBuffer out, int fromVertex, int fromTri){
+            if(writer != null){
+                try {
+                    writer.append(out);
+                } catch (IOException ex){
+                    ex.printStackTrace();
+                    drop();
+                }
+            }
+            if(panel != null){
+                out.appendTo(shown);
+                panel.updateMesh(shown, fromVertex, fromTri);
+            }
+        }
+
+        // closes the export; true if it was written completely
+        boolean finish(){
+            if(writer == null) return false;
+            try {
+                writer.close();
+                writer = null;
+                return true;
+            } catch (IOException ex){
+                ex.printStackTrace();
+                drop();
+                return false;
+            }
+        }
+
+        private void drop(){
+            try {
+                writer.close();
+            } catch (IOException ignored){ }
+            writer = null;
+            new File(path).delete();
+        }
     }
 
     static double bboxDiag(ArrayList<PointN> pts){
@@ -95,39 +233,68 @@ public class Project02{
     }
 
     static ArrayList<Constraint> buildConstraints(ArrayList<PointN> pts, int maxN){
-        ArrayList<PointN> samp = samplePoints(pts, maxN, 0);
+        return buildConstraints(pts, maxN, 0.01);
+    }
 
-        double diag = bboxDiag(pts);
-        double eps = 0.01 * diag;
+    // eps = epsRatio * bbox diagonal (offset of the +/-1 constraints along the normal)
+    static ArrayList<Constraint> buildConstraints(ArrayList<PointN> pts, int maxN, double epsRatio){
+        return buildConstraintsFromSample(samplePoints(pts, maxN, 0), bboxDiag(pts), epsRatio);
+    }
+
+    // samp is already the sample (e.g. StreamIngest.sample); diag is that of the whole cloud
+    static ArrayList<Constraint> buildConstraintsFromSample(ArrayList<PointN> samp, double diag, double epsRatio){
+        Metrics.Stage st = Metrics.begin("buildConstraints");
+        double eps = epsRatio * diag;
 
         ArrayList<Constraint> C = new ArrayList<>();
         for(PointN pn: samp){
-            Vector3 p = pn.p;
-            Vector3 n = pn.n.normalize();
-
-            
-            if(n.norm() < 1e-12){
-                C.add(new Constraint(p, 0.0));
-                continue;
-            }
-
-            C.add(new Constraint(p, 0.0));
-            C.add(new Constraint(p.add(n.mul(eps)), +1.0));
-            C.add(new Constraint(p.sub(n.mul(eps)), -1.0));
+            addConstraints(C, pn, eps);
         }
 
         System.out.println("sampled points = " + samp.size());
         System.out.println("eps = " + eps);
         System.out.println("constraints = " + C.size());
+        Metrics.count("constraints", C.size());
+        st.end();
         return C;
     }
 
+    // on-surface constraint plus one off-surface pair along the normal; returns how many were added
+    static int addConstraints(ArrayList<Constraint> C, PointN pn, double eps){
+        Vector3 p = pn.p;
+        Vector3 n = pn.n.normalize();
+
+        if(n.norm() < 1e-12){
+            C.add(new Constraint(p, 0.0));
+            return 1;
+        }
+
+        C.add(new Constraint(p, 0.0));
+        C.add(new Constraint(p.add(n.mul(eps)), +1.0));
+        C.add(new Constraint(p.sub(n.mul(eps)), -1.0));
+        return 3;
+    }
+
+    static final double DIAG_SHIFT = 1e-8; // added to A[i][i] in fitRBF
+    static final int HMATRIX_MIN = 8000; // fitRBF switches to HMatrix at this many constraints
+    static final int PM_MIN = 2000; // buildField switches to ParticleMesh at this many constraints
+    static final int BRICK_MIN_RES = 128; // below PM_MIN, buildField(.., iso) stores only surface bricks (BrickField) from this res
+    static final int LOD_MIN_POINTS = 1_000_000; // viewer switches to PointLOD above this
+    static final long STREAM_MIN_BYTES = 2L << 30; // main streams inputs larger than this (StreamIngest)
+    static final int STREAM_SAMPLE = 10_000; // points sampled for the constraints when streaming
+    static final int STREAM_PREVIEW = 2 * LOD_MIN_POINTS; // points kept for the viewer (PointLOD) / quality when streaming
+
     static double phi(double r){
         
         // polyharmonic spline
         return r;
     }
 
+    // d phi / dr, for gradients (vertexNormals)
+    static double dphi(double r){
+        return 1.0;
+    }
+
     static double dist(Vector3 a, Vector3 b){
         double dx=a.x-b.x, dy=a.y-b.y, dz=a.z-b.z;
         return Math.sqrt(dx*dx+dy*dy+dz*dz);
@@ -135,10 +302,14 @@ public class Project02{
 
     // Solve A x = b (A will be modified). Partial pivoting Gaussian elimination.
     static double[] solveLinearSystem(double[][] A, double[] b){
+        Metrics.Stage st = Metrics.begin("solveLinearSystem");
         int n = b.length;
         double[] x = new double[n];
+        double minPiv = Double.POSITIVE_INFINITY, maxPiv = 0.0;
+        long swaps = 0;
 
         for(int k=0;k<n;k++){
+            JobEngine.checkCancelled();
             // pivot
             int piv = k;
             double best = Math.abs(A[k][k]);
@@ -149,7 +320,10 @@ public class Project02{
             if(best < 1e-12){
                 throw new RuntimeException("Singular / ill-conditioned matrix at k=" + k);
             }
+            minPiv = Math.min(minPiv, best);
+            maxPiv = Math.max(maxPiv, best);
             if(piv != k){
+                swaps++;
                 double[] tmpR = A[k]; A[k] = A[piv]; A[piv] = tmpR;
                 double tmpB = b[k]; b[k] = b[piv]; b[piv] = tmpB;
             }
@@ -175,34 +349,100 @@ public class Project02{
             }
             x[i] = s / A[i][i];
         }
+
+        // max/min pivot ratio: cheap lower bound on the condition number
+        Metrics.count("solver.rowSwaps", swaps);
+        Metrics.gauge("solver.minPivot", minPiv);
+        Metrics.gauge("solver.maxPivot", maxPiv);
+        Metrics.gauge("solver.pivotRatio", maxPiv / minPiv);
+        st.end();
+        return x;
+    }
+
+    // LU with partial pivoting, in place: U on and above the diagonal, the
+    // multipliers of L below it. Returns the row permutation (row k of the
+    // factors is original row perm[k]). Unlike solveLinearSystem the factors
+    // are kept, so further right-hand sides cost O(n^2) via luSolve.
+    static int[] luDecompose(double[][] A){
+        int n = A.length;
+        int[] perm = new int[n];
+        for(int i=0;i<n;i++) perm[i] = i;
+
+        for(int k=0;k<n;k++){
+            JobEngine.checkCancelled();
+            int piv = k;
+            double best = Math.abs(A[k][k]);
+            for(int i=k+1;i<n;i++){
+                double v = Math.abs(A[i][k]);
+                if(v > best){ best=v; piv=i; }
+            }
+            if(best < 1e-12){
+                throw new RuntimeException("Singular / ill-conditioned matrix at k=" + k);
+            }
+            if(piv != k){
+                double[] tmpR = A[k]; A[k] = A[piv]; A[piv] = tmpR;
+                int tmpP = perm[k]; perm[k] = perm[piv]; perm[piv] = tmpP;
+            }
+
+            double akk = A[k][k];
+            double[] rk = A[k];
+            for(int i=k+1;i<n;i++){
+                double[] ri = A[i];
+                double factor = ri[k] / akk;
+                ri[k] = factor;
+                if(factor == 0.0) continue;
+                for(int j=k+1;j<n;j++){
+                    ri[j] -= factor * rk[j];
+                }
+            }
+        }
+        return perm;
+    }
+
+    static double[] luSolve(double[][] LU, int[] perm, double[] b){
+        int n = b.length;
+        double[] x = new double[n];
+        for(int i=0;i<n;i++){
+            double s = b[perm[i]];
+            double[] ri = LU[i];
+            for(int j=0;j<i;j++) s -= ri[j] * x[j];
+            x[i] = s;
+        }
+        for(int i=n-1;i>=0;i--){
+            double s = x[i];
+            double[] ri = LU[i];
+            for(int j=i+1;j<n;j++) s -= ri[j] * x[j];
+            x[i] = s / ri[i];
+        }
         return x;
     }
 
     static double[] fitRBF(ArrayList<Constraint> C){
+        Metrics.Stage st = Metrics.begin("fitRBF");
         int m = C.size();
-        double[][] A = new double[m][m];
+
+        // large systems: compressed operator + iterative solve instead of m^2 doubles
+        if(m >= HMATRIX_MIN){
+            double[] lambda = HMatrix.fit(C, 1e-10, 1000);
+            st.end();
+            return lambda;
+        }
         double[] y = new double[m];
 
         for(int i=0;i<m;i++){
             y[i] = C.get(i).y;
         }
 
-        // Build matrix
-        for(int i=0;i<m;i++){
-            Vector3 xi = C.get(i).x;
-            for(int j=0;j<m;j++){
-                Vector3 xj = C.get(j).x;
-                double r = dist(xi, xj);
-                A[i][j] = phi(r);
-            }
-
-            A[i][i] += 1e-8;
-            //if(i % 100 == 0) System.out.println("Building A: " + i + "/" + m);
-        }
+        // Build matrix: symmetric, so only the packed lower triangle
+        SymPacked A = SymPacked.rbf(C);
 
         System.out.println("Solving system size " + m + " ...");
-        double[] lambda = solveLinearSystem(A, y);
+        Metrics.Stage ss = Metrics.begin("solveLinearSystem");
+        A.factor();
+        double[] lambda = A.solve(y);
+        ss.end();
         System.out.println("Solved.");
+        st.end();
         return lambda;
     }
 
@@ -215,6 +455,53 @@ public class Project02{
         return s;
     }
 
+    // Value and gradient in one sweep over the centers (c: x,y,z per center):
+    //   f(x) = sum lambda_j phi(r_j),  grad f(x) = sum lambda_j phi'(r_j) (x - c_j) / r_j
+    // grad gets the gradient; a center at x itself adds nothing to it
+    static double evalRBFGrad(double[] c, double[] lambda, double x, double y, double z, double[] grad){
+        double s = 0.0, gx = 0.0, gy = 0.0, gz = 0.0;
+        for(int j=0;j<lambda.length;j++){
+            double dx = x - c[3*j], dy = y - c[3*j+1], dz = z - c[3*j+2];
+            double r = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            s += lambda[j] * phi(r);
+            if(r > 1e-300){
+                double w = lambda[j] * dphi(r) / r;
+                gx += w * dx; gy += w * dy; gz += w * dz;
+            }
+        }
+        grad[0] = gx; grad[1] = gy; grad[2] = gz;
+        return s;
+    }
+
+    // Unit normals of all vertices from the analytic gradient of the fit, vertices in
+    // parallel: one sweep over the centers per vertex. The +1 constraints sit outside,
+    // so the gradient points out of the surface.
+    static void vertexNormals(ArrayList<Constraint> C, double[] lambda, MeshBuffer mb){
+        mb.nrm = null;
+        vertexNormals(C, lambda, mb, 0);
+    }
+
+    // vertices [from, vertexCount) only; mb.nrm grows to match (streamed extraction)
+    static void vertexNormals(ArrayList<Constraint> C, double[] lambda, MeshBuffer mb, int from){
+        Metrics.Stage st = Metrics.begin("vertexNormals");
+        int m = C.size(), nv = mb.vertexCount;
+        double[] c = new double[3*m];
+        for(int j=0;j<m;j++){ Vector3 p = C.get(j).x; c[3*j] = p.x; c[3*j+1] = p.y; c[3*j+2] = p.z; }
+        double[] pos = mb.pos, nrm = mb.nrm == null ? new double[Math.max(1, nv) * 3]
+                                                    : mb.nrm.length >= 3*nv ? mb.nrm : Arrays.copyOf(mb.nrm, Math.max(3*nv, 2*mb.nrm.length));
+        JobEngine.Job<?> job = JobEngine.current();
+        IntStream.range(from, nv).parallel().forEach(v -> {
+            if((v & 1023) == 0) JobEngine.checkCancelled(job);
+            double[] g = new double[3];
+            evalRBFGrad(c, lambda, pos[3*v], pos[3*v+1], pos[3*v+2], g);
+            double l = Math.sqrt(g[0]*g[0] + g[1]*g[1] + g[2]*g[2]);
+            if(l > 1e-300){ nrm[3*v] = g[0]/l; nrm[3*v+1] = g[1]/l; nrm[3*v+2] = g[2]/l; }
+        });
+        mb.nrm = nrm;
+        Metrics.count("kernel.evals", (long) (nv - from) * m);
+        st.end();
+    }
+
     // ====== BBox ======
     static class BBox {
         Vector3 min, max;
@@ -246,11 +533,20 @@ public class Project02{
         int nx, ny, nz;
         BBox box;
         double[] val; // size nx*ny*nz
+        BitSet signOnly; // hierarchical mode: nodes whose val only carries the sign (null = all exact)
+        BitSet culled;   // hierarchical mode: cells (by min corner idx) proven not to contain the iso level
         ScalarField(int nx,int ny,int nz, BBox box){
+            this(nx, ny, nz, box, true);
+        }
+        // alloc=false: for stores that keep their own layout (see BrickField)
+        ScalarField(int nx,int ny,int nz, BBox box, boolean alloc){
             this.nx=nx; this.ny=ny; this.nz=nz; this.box=box;
-            val = new double[nx*ny*nz];
+            if(alloc) val = new double[nx*ny*nz];
         }
         int idx(int i,int j,int k){ return (k*ny + j)*nx + i; }
+        double get(int i,int j,int k){ return val[idx(i,j,k)]; }
+        void set(int i,int j,int k, double v){ val[idx(i,j,k)] = v; }
+        boolean exactEverywhere(){ return signOnly == null; }
         Vector3 pos(int i,int j,int k){
             double tx = (nx==1)?0:(i/(double)(nx-1));
             double ty = (ny==1)?0:(j/(double)(ny-1));
@@ -264,11 +560,16 @@ public class Project02{
     }
 
     static ScalarField buildField(ArrayList<Constraint> C, double[] lambda, BBox box, int res){
+        // many centers: FFT convolution on the grid instead of res^3 * m kernel evaluations
+        if(C.size() >= PM_MIN && res >= ParticleMesh.ORDER){
+            return ParticleMesh.build(C, lambda, box, res);
+        }
+        Metrics.Stage st = Metrics.begin("buildField");
         ScalarField f = new ScalarField(res, res, res, box);
         double mn = 1e100, mx = -1e100;
 
         for(int k=0;k<res;k++){
-            if(k % 8 == 0) System.out.println("field z-slice " + k + "/" + (res-1));
+            JobEngine.checkCancelled();
             for(int j=0;j<res;j++){
                 for(int i=0;i<res;i++){
                     Vector3 x = f.pos(i,j,k);
@@ -280,6 +581,28 @@ public class Project02{
             }
         }
         System.out.println("Field min=" + mn + " max=" + mx + " (should straddle 0)");
+        Metrics.count("field.nodes", (long) res * res * res);
+        Metrics.count("kernel.evals", (long) res * res * res * C.size());
+        st.end();
+        return f;
+    }
+
+    // Hierarchical mode: blocks whose Lipschitz bound excludes iso are not evaluated
+    // node by node (see HierarchicalField). Only valid for extraction at this iso.
+    // With PM_MIN or more constraints the particle-mesh field is cheaper even than the
+    // culled one; it is filled everywhere, so it serves any iso. From BRICK_MIN_RES on
+    // the culled field is kept as bricks, so empty space costs no memory either.
+    static ScalarField buildField(ArrayList<Constraint> C, double[] lambda, BBox box, int res, double iso){
+        if(C.size() >= PM_MIN && res >= ParticleMesh.ORDER){
+            return ParticleMesh.build(C, lambda, box, res);
+        }
+        if(res >= BRICK_MIN_RES){
+            return BrickField.build(C, lambda, box, res, iso);
+        }
+        Metrics.Stage st = Metrics.begin("buildField");
+        ScalarField f = HierarchicalField.build(C, lambda, box, res, iso);
+        System.out.println("Field exact nodes=" + (f.val.length - f.signOnly.cardinality()) + "/" + f.val.length);
+        st.end();
         return f;
     }
 
@@ -296,14 +619,59 @@ public class Project02{
         return lerp(p1, p2, t);
     }
 
+    // allocation-free kernel (MCKernel); vertices are shared between neighbouring cells.
+    // Triangles stay in extraction (slab) order, so re-extracting a field that only grew
+    // keeps the earlier faces as a prefix (ViewerPanel.updateMesh); the vertex-cache
+    // order is a separate step for export and final display (optimized).
     static Mesh marchingCubes(ScalarField field, double iso){
+        return marchingCubes(field, iso, null, null);
+    }
+
+    // same, plus per-vertex normals (Mesh.N) from the gradient of the fit C, lambda
+    static Mesh marchingCubes(ScalarField field, double iso, ArrayList<Constraint> C, double[] lambda){
+        Mesh mesh = extract(field, iso, C, lambda).toMesh();
+        System.out.println("Mesh: V=" + mesh.V.size() + " F=" + mesh.F.size());
+        return mesh;
+    }
+
+    // kernel output in extraction order; normals if C != null
+    static MeshBuffer extract(ScalarField field, double iso, ArrayList<Constraint> C, double[] lambda){
+        MeshBuffer mb = MCKernel.extract(field, iso);
+        if(C != null) vertexNormals(C, lambda, mb);
+        return mb;
+    }
+
+    // same, and each finished z-slab (its normals included) goes to slab while the
+    // kernel works on the next one: the export and the viewer follow the extraction
+    static MeshBuffer extract(ScalarField field, double iso, ArrayList<Constraint> C, double[] lambda, MCKernel.Slab slab){
+        MeshBuffer mb = new MeshBuffer();
+        MCKernel.extract(field, iso, mb, (out, fromVertex, fromTri) -> {
+            if(C != null) vertexNormals(C, lambda, out, fromVertex);
+            slab.done(out, fromVertex, fromTri);
+        });
+        return mb;
+    }
+
+    // reordered for vertex-cache reuse (MeshOptimizer, in place), then as a Mesh
+    static Mesh optimized(MeshBuffer mb){
+        MeshOptimizer.optimize(mb);
+        Mesh mesh = mb.toMesh();
+        System.out.println("Mesh: V=" + mesh.V.size() + " F=" + mesh.F.size());
+        return mesh;
+    }
+
+    // Per-cell reference path (one vertex per triangle corner), for Bench
+    static Mesh marchingCubesPerCell(ScalarField field, double iso){
+        Metrics.Stage st = Metrics.begin("marchingCubes");
         Mesh mesh = new Mesh();
         int nx = field.nx, ny = field.ny, nz = field.nz;
+        long active = 0;
 
         for(int k=0;k<nz-1;k++){
-            if(k % 4 == 0) System.out.println("MC z " + k + "/" + (nz-2));
+            JobEngine.checkCancelled();
             for(int j=0;j<ny-1;j++){
                 for(int i=0;i<nx-1;i++){
+                    if(field.culled != null && field.culled.get(field.idx(i,j,k))) continue;
 
                     Vector3[] p = new Vector3[8];
                     double[] val = new double[8];
@@ -312,7 +680,7 @@ public class Project02{
                         int[] o = VERT_OFF[c];
                         int ii = i + o[0], jj = j + o[1], kk = k + o[2];
                         p[c] = field.pos(ii, jj, kk);
-                        val[c] = field.val[field.idx(ii, jj, kk)];
+                        val[c] = field.get(ii, jj, kk);
                     }
 
                     int cubeindex = 0;
@@ -322,6 +690,7 @@ public class Project02{
 
                     int edges = MCTables.edgeTable[cubeindex];
                     if(edges == 0) continue;
+                    active++;
 
                     Vector3[] vertList = new Vector3[12];
                     for(int e=0;e<12;e++){
@@ -353,10 +722,108 @@ public class Project02{
         }
 
         System.out.println("Mesh: V=" + mesh.V.size() + " F=" + mesh.F.size());
+        Metrics.count("mc.cellsVisited", (long)(nx-1) * (ny-1) * (nz-1));
+        Metrics.count("mc.cellsActive", active);
+        Metrics.count("mc.triangles", mesh.F.size());
+        st.end();
         return mesh;
     }
 
+    // One sweep over the grid for several iso values (sorted ascending); mesh[l] is
+    // the surface at isos[l]. Corners are loaded once per cell and the cell's
+    // min/max selects the levels it can contain: a cell is cut by iso iff
+    // min < iso <= max (same rule as the "val < iso" case index).
+    // Needs a dense field: sign-only values are only valid for one iso.
+    static Mesh[] marchingCubes(ScalarField field, double[] isos){
+        if(!field.exactEverywhere()){
+            throw new IllegalArgumentException("multi-iso extraction needs a dense field (buildField without iso)");
+        }
+        for(int l=1;l<isos.length;l++){
+            if(isos[l] < isos[l-1]) throw new IllegalArgumentException("iso values must be sorted");
+        }
+
+        Metrics.Stage st = Metrics.begin("marchingCubesMulti");
+        int L = isos.length;
+        Mesh[] meshes = new Mesh[L];
+        for(int l=0;l<L;l++) meshes[l] = new Mesh();
+        int nx = field.nx, ny = field.ny, nz = field.nz;
+        long active = 0;
+
+        Vector3[] p = new Vector3[8];
+        double[] val = new double[8];
+        Vector3[] vertList = new Vector3[12];
+
+        for(int k=0;k<nz-1;k++){
+            JobEngine.checkCancelled();
+            for(int j=0;j<ny-1;j++){
+                for(int i=0;i<nx-1;i++){
+
+                    double mn = Double.POSITIVE_INFINITY, mx = Double.NEGATIVE_INFINITY;
+                    for(int c=0;c<8;c++){
+                        int[] o = VERT_OFF[c];
+                        double v = field.get(i + o[0], j + o[1], k + o[2]);
+                        val[c] = v;
+                        if(v < mn) mn = v;
+                        if(v > mx) mx = v;
+                    }
+
+                    // first level with iso > mn
+                    int lo = 0, hi = L;
+                    while(lo < hi){
+                        int mid = (lo + hi) >>> 1;
+                        if(isos[mid] > mn) hi = mid; else lo = mid + 1;
+                    }
+                    if(lo == L || isos[lo] > mx) continue;
+                    active++;
+
+                    for(int c=0;c<8;c++){
+                        int[] o = VERT_OFF[c];
+                        p[c] = field.pos(i + o[0], j + o[1], k + o[2]);
+                    }
+
+                    for(int l=lo; l<L && isos[l] <= mx; l++){
+                        double iso = isos[l];
+                        Mesh mesh = meshes[l];
+
+                        int cubeindex = 0;
+                        for(int c=0;c<8;c++){
+                            if(val[c] < iso) cubeindex |= (1<<c);
+                        }
+
+                        int edges = MCTables.edgeTable[cubeindex];
+                        if(edges == 0) continue;
+
+                        for(int e=0;e<12;e++){
+                            if((edges & (1<<e)) != 0){
+                                int a = EDGE_VERT[e][0];
+                                int b = EDGE_VERT[e][1];
+                                vertList[e] = vertexInterp(iso, p[a], p[b], val[a], val[b]);
+                            }
+                        }
+
+                        int[] tri = MCTables.triTable[cubeindex];
+                        for(int t=0; t<16; t+=3){
+                            int e0 = tri[t];
+                            if(e0 == -1) break;
+
+                            int id0 = mesh.V.size(); mesh.V.add(vertList[e0]);
+                            int id1 = mesh.V.size(); mesh.V.add(vertList[tri[t+1]]);
+                            int id2 = mesh.V.size(); mesh.V.add(vertList[tri[t+2]]);
+                            mesh.F.add(new int[]{id0,id1,id2});
+                        }
+                    }
+                }
+            }
+        }
+
+        Metrics.count("mc.cellsVisited", (long)(nx-1) * (ny-1) * (nz-1));
+        Metrics.count("mc.cellsActive", active);
+        st.end();
+        return meshes;
+    }
+
     static ArrayList<PointN> loadXYZ(String path) throws IOException {
+        Metrics.Stage st = Metrics.begin("loadXYZ");
         ArrayList<PointN> pts = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new FileReader(path))) {
             String line;
@@ -379,6 +846,8 @@ public class Project02{
                 pts.add(new PointN(p,n));
             }
         }
+        Metrics.count("points", pts.size());
+        st.end();
         return pts;
     }
 }
\ No newline at end of file
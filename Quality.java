@@ -0,0 +1,286 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+// ====== Reconstruction quality ======
+//  - residuals: |f(p)| at every input point (the surface is f = 0), evaluated in
+//    parallel batches; inside a batch the loop runs center-major over flat arrays
+//  - distances between the mesh and the cloud, both ways:
+//      cloud -> mesh: each input point to its closest triangle (BVH over triangles)
+//      mesh -> cloud: each mesh vertex to its closest input point (KDTree)
+//    Hausdorff = max of the two maxima; means are reported per direction
+// Distances are also given relative to the bbox diagonal, which is what gate() checks.
+public class Quality {
+
+    static final int BATCH = 1024;
+
+    static class Report {
+        long points, vertices;
+        double diag;
+        double maxResidual, meanResidual, rmsResidual;
+        double maxCloudToMesh, meanCloudToMesh;
+        double maxMeshToCloud, meanMeshToCloud;
+
+        double hausdorff(){ return Math.max(maxCloudToMesh, maxMeshToCloud); }
+
+        @Override
+        public String toString(){
+            return String.format(Locale.ROOT,
+                "residual max=%.3g mean=%.3g rms=%.3g | hausdorff=%.3g (%.3g%% diag) | mean cloud->mesh=%.3g mesh->cloud=%.3g",
+                maxResidual, meanResidual, rmsResidual, hausdorff(), 100*hausdorff()/diag, meanCloudToMesh, meanMeshToCloud);
+        }
+    }
+
+    static Report evaluate(ArrayList<Constraint> C, double[] lambda, ArrayList<PointN> pts, Mesh mesh){
+        Metrics.Stage st = Metrics.begin("quality");
+        Report r = new Report();
+        r.points = pts.size();
+        r.vertices = mesh.V.size();
+        r.diag = Project02.bboxDiag(pts);
+
+        double[] xyz = new double[pts.size()*3];
+        for(int i=0;i<pts.size();i++){
+            Vector3 p = pts.get(i).p;
+            xyz[3*i] = p.x; xyz[3*i+1] = p.y; xyz[3*i+2] = p.z;
+        }
+
+        // ---- residuals ----
+        double[] res = residuals(C, lambda, xyz, pts.size());
+        double s = 0, s2 = 0, mx = 0;
+        for(double v: res){ s += v; s2 += v*v; mx = Math.max(mx, v); }
+        r.maxResidual = mx;
+        r.meanResidual = res.length == 0 ? 0 : s / res.length;
+        r.rmsResidual = res.length == 0 ? 0 : Math.sqrt(s2 / res.length);
+
+        // ---- cloud -> mesh ----
+        if(!mesh.F.isEmpty()){
+            TriangleBVH bvh = new TriangleBVH(mesh);
+            double[] d = new double[pts.size()];
+            IntStream.range(0, batches(pts.size())).parallel().forEach(b -> {
+                for(int i=b*BATCH, e=Math.min(pts.size(), i+BATCH); i<e; i++){
+                    d[i] = Math.sqrt(bvh.nearestDist2(xyz[3*i], xyz[3*i+1], xyz[3*i+2]));
+                }
+            });
+            double sum = 0, m = 0;
+            for(double v: d){ sum += v; m = Math.max(m, v); }
+            r.maxCloudToMesh = m;
+            r.meanCloudToMesh = d.length == 0 ? 0 : sum / d.length;
+        }
+        else{
+            r.maxCloudToMesh = r.meanCloudToMesh = Double.POSITIVE_INFINITY;
+        }
+
+        // ---- mesh -> cloud ----
+        KDTree kd = new KDTree(xyz, pts.size());
+        int nv = mesh.V.size();
+        double[] d = new double[nv];
+        IntStream.range(0, batches(nv)).parallel().forEach(b -> {
+            double[] d2 = new double[1];
+            for(int i=b*BATCH, e=Math.min(nv, i+BATCH); i<e; i++){
+                Vector3 v = mesh.V.get(i);
+                kd.nearest(v.x, v.y, v.z, d2);
+                d[i] = Math.sqrt(d2[0]);
+            }
+        });
+        double sum = 0, m = 0;
+        for(double v: d){ sum += v; m = Math.max(m, v); }
+        r.maxMeshToCloud = m;
+        r.meanMeshToCloud = nv == 0 ? 0 : sum / nv;
+
+        Metrics.gauge("quality.residual.max", r.maxResidual);
+        Metrics.gauge("quality.residual.rms", r.rmsResidual);
+        Metrics.gauge("quality.hausdorff", r.hausdorff());
+        Metrics.gauge("quality.hausdorffRel", r.hausdorff() / r.diag);
+        Metrics.gauge("quality.meanCloudToMesh", r.meanCloudToMesh);
+        Metrics.gauge("quality.meanMeshToCloud", r.meanMeshToCloud);
+        st.end();
+        return r;
+    }
+
+    // true if both limits hold; maxHausdorffRel is a fraction of the bbox diagonal
+    static boolean gate(Report r, double maxHausdorffRel, double maxResidual){
+        return r.hausdorff() <= maxHausdorffRel * r.diag && r.maxResidual <= maxResidual;
+    }
+
+    static int batches(int n){ return (n + BATCH - 1) / BATCH; }
+
+    // |f(p_i)| for n points in xyz
+    static double[] residuals(ArrayList<Constraint> C, double[] lambda, double[] xyz, int n){
+        int m = C.size();
+        double[] cx = new double[m], cy = new double[m], cz = new double[m];
+        for(int j=0;j<m;j++){
+            Vector3 c = C.get(j).x;
+            cx[j] = c.x; cy[j] = c.y; cz[j] = c.z;
+        }
+        double[] out = new double[n];
+        IntStream.range(0, batches(n)).parallel().forEach(b -> {
+            int i0 = b*BATCH, i1 = Math.min(n, i0+BATCH), k = i1-i0;
+            double[] qx = new double[k], qy = new double[k], qz = new double[k], acc = new double[k];
+            for(int i=0;i<k;i++){ qx[i] = xyz[3*(i0+i)]; qy[i] = xyz[3*(i0+i)+1]; qz[i] = xyz[3*(i0+i)+2]; }
+            // one center against the whole batch: the inner loop is a straight array sweep
+            for(int j=0;j<m;j++){
+                double x = cx[j], y = cy[j], z = cz[j], l = lambda[j];
+                for(int i=0;i<k;i++){
+                    double dx = qx[i]-x, dy = qy[i]-y, dz = qz[i]-z;
+                    acc[i] += l * Math.sqrt(dx*dx + dy*dy + dz*dz);
+                }
+            }
+            for(int i=0;i<k;i++) out[i0+i] = Math.abs(acc[i]);
+        });
+        Metrics.count("kernel.evals", (long) n * m);
+        return out;
+    }
+
+    // ====== BVH over triangles (closest-point queries) ======
+    static class TriangleBVH {
+        static final int LEAF = 4;
+
+        final double[] t;       // per triangle (in tree order): a, b, c as 9 doubles
+        final int nt;
+        // nodes: bounds, and either children (left, right) or a triangle range
+        double[] lo = new double[64*3], hi = new double[64*3];
+        int[] left = new int[64], right = new int[64], from = new int[64], to = new int[64];
+        int nodes = 0;
+
+        TriangleBVH(Mesh mesh){
+            nt = mesh.F.size();
+            double[] raw = new double[nt*9];
+            double[] cen = new double[nt*3];
+            for(int f=0;f<nt;f++){
+                int[] F = mesh.F.get(f);
+                for(int c=0;c<3;c++){
+                    Vector3 v = mesh.V.get(F[c]);
+                    raw[9*f+3*c] = v.x; raw[9*f+3*c+1] = v.y; raw[9*f+3*c+2] = v.z;
+                    cen[3*f] += v.x/3; cen[3*f+1] += v.y/3; cen[3*f+2] += v.z/3;
+                }
+            }
+            int[] order = new int[nt];
+            for(int i=0;i<nt;i++) order[i] = i;
+            build(order, cen, raw, 0, nt);
+            t = new double[nt*9];
+            for(int i=0;i<nt;i++) System.arraycopy(raw, 9*order[i], t, 9*i, 9);
+        }
+
+        private int build(int[] order, double[] cen, double[] raw, int a, int b){
+            int node = nodes++;
+            if(node >= left.length){
+                int cap = left.length*2;
+                lo = Arrays.copyOf(lo, cap*3); hi = Arrays.copyOf(hi, cap*3);
+                left = Arrays.copyOf(left, cap); right = Arrays.copyOf(right, cap);
+                from = Arrays.copyOf(from, cap); to = Arrays.copyOf(to, cap);
+            }
+            double[] l = { 1e300, 1e300, 1e300 }, h = { -1e300, -1e300, -1e300 };
+            double[] cl = { 1e300, 1e300, 1e300 }, ch = { -1e300, -1e300, -1e300 };
+            for(int i=a;i<b;i++){
+                int f = order[i];
+                for(int c=0;c<3;c++)
+                    for(int ax=0;ax<3;ax++){
+                        double v = raw[9*f+3*c+ax];
+                        l[ax] = Math.min(l[ax], v); h[ax] = Math.max(h[ax], v);
+                    }
+                for(int ax=0;ax<3;ax++){
+                    cl[ax] = Math.min(cl[ax], cen[3*f+ax]); ch[ax] = Math.max(ch[ax], cen[3*f+ax]);
+                }
+            }
+            for(int ax=0;ax<3;ax++){ lo[3*node+ax] = l[ax]; hi[3*node+ax] = h[ax]; }
+            from[node] = a; to[node] = b; left[node] = right[node] = -1;
+            if(b - a <= LEAF) return node;
+
+            int axis = 0;
+            for(int ax=1;ax<3;ax++) if(ch[ax]-cl[ax] > ch[axis]-cl[axis]) axis = ax;
+            int mid = (a + b) >>> 1;
+            select(order, cen, axis, a, b-1, mid);
+            int L = build(order, cen, raw, a, mid);
+            int R = build(order, cen, raw, mid, b);
+            left[node] = L; right[node] = R;
+            return node;
+        }
+
+        private static void select(int[] order, double[] cen, int axis, int lo, int hi, int k){
+            while(lo < hi){
+                double pivot = cen[3*order[(lo + hi) >>> 1] + axis];
+                int i = lo, j = hi;
+                while(i <= j){
+                    while(cen[3*order[i] + axis] < pivot) i++;
+                    while(cen[3*order[j] + axis] > pivot) j--;
+                    if(i <= j){ int s = order[i]; order[i] = order[j]; order[j] = s; i++; j--; }
+                }
+                if(k <= j) hi = j;
+                else if(k >= i) lo = i;
+                else return;
+            }
+        }
+
+        double nearestDist2(double px, double py, double pz){
+            double[] best = { Double.POSITIVE_INFINITY };
+            search(0, px, py, pz, best);
+            return best[0];
+        }
+
+        private void search(int node, double px, double py, double pz, double[] best){
+            if(left[node] < 0){
+                for(int i=from[node];i<to[node];i++){
+                    double d = pointTriangleDist2(px, py, pz, t, 9*i);
+                    if(d < best[0]) best[0] = d;
+                }
+                return;
+            }
+            int L = left[node], R = right[node];
+            double dl = boxDist2(L, px, py, pz), dr = boxDist2(R, px, py, pz);
+            if(dl > dr){ int s = L; L = R; R = s; double d = dl; dl = dr; dr = d; }
+            if(dl < best[0]) search(L, px, py, pz, best);
+            if(dr < best[0]) search(R, px, py, pz, best);
+        }
+
+        private double boxDist2(int node, double px, double py, double pz){
+            double dx = Math.max(0, Math.max(lo[3*node] - px, px - hi[3*node]));
+            double dy = Math.max(0, Math.max(lo[3*node+1] - py, py - hi[3*node+1]));
+            double dz = Math.max(0, Math.max(lo[3*node+2] - pz, pz - hi[3*node+2]));
+            return dx*dx + dy*dy + dz*dz;
+        }
+    }
+
+    // squared distance from p to triangle (a, b, c) stored at t[o..o+9); closest point
+    // by Voronoi region of the triangle (vertex, edge or face)
+    static double pointTriangleDist2(double px, double py, double pz, double[] t, int o){
+        double ax = t[o], ay = t[o+1], az = t[o+2];
+        double abx = t[o+3]-ax, aby = t[o+4]-ay, abz = t[o+5]-az;
+        double acx = t[o+6]-ax, acy = t[o+7]-ay, acz = t[o+8]-az;
+        double apx = px-ax, apy = py-ay, apz = pz-az;
+
+        double d1 = abx*apx + aby*apy + abz*apz, d2 = acx*apx + acy*apy + acz*apz;
+        double qx, qy, qz;
+        if(d1 <= 0 && d2 <= 0){ qx = ax; qy = ay; qz = az; }
+        else{
+            double bpx = px-t[o+3], bpy = py-t[o+4], bpz = pz-t[o+5];
+            double d3 = abx*bpx + aby*bpy + abz*bpz, d4 = acx*bpx + acy*bpy + acz*bpz;
+            double cpx = px-t[o+6], cpy = py-t[o+7], cpz = pz-t[o+8];
+            double d5 = abx*cpx + aby*cpy + abz*cpz, d6 = acx*cpx + acy*cpy + acz*cpz;
+            double vc = d1*d4 - d3*d2, vb = d5*d2 - d1*d6, va = d3*d6 - d5*d4;
+
+            if(d3 >= 0 && d4 <= d3){ qx = t[o+3]; qy = t[o+4]; qz = t[o+5]; }
+            else if(d6 >= 0 && d5 <= d6){ qx = t[o+6]; qy = t[o+7]; qz = t[o+8]; }
+            else if(vc <= 0 && d1 >= 0 && d3 <= 0){
+                double v = d1 / (d1 - d3);
+                qx = ax + v*abx; qy = ay + v*aby; qz = az + v*abz;
+            }
+            else if(vb <= 0 && d2 >= 0 && d6 <= 0){
+                double w = d2 / (d2 - d6);
+                qx = ax + w*acx; qy = ay + w*acy; qz = az + w*acz;
+            }
+            else if(va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0){
+                double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+                qx = t[o+3] + w*(t[o+6]-t[o+3]); qy = t[o+4] + w*(t[o+7]-t[o+4]); qz = t[o+5] + w*(t[o+8]-t[o+5]);
+            }
+            else{
+                double den = va + vb + vc;
+                if(den == 0){ qx = ax; qy = ay; qz = az; } // degenerate triangle
+                else{
+                    double v = vb / den, w = vc / den;
+                    qx = ax + abx*v + acx*w; qy = ay + aby*v + acy*w; qz = az + abz*v + acz*w;
+                }
+            }
+        }
+        double dx = px-qx, dy = py-qy, dz = pz-qz;
+        return dx*dx + dy*dy + dz*dz;
+    }
+}
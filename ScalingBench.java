@@ -0,0 +1,288 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// ====== End-to-end scaling benchmark ======
+// Generates analytic point clouds with exact normals, writes them as .xyz, and runs
+// the whole pipeline (loadXYZ -> buildConstraints -> fitRBF -> buildField ->
+// marchingCubes) for every combination of cloud size, constraint count and grid
+// resolution. Per stage it records wall time, peak heap (during that stage; the
+// total row has the whole run's) and throughput, writes
+// scaling.csv / scaling.json, and with -baseline compares wall times against an
+// earlier scaling.csv (exit code 1 on a regression).
+//
+// % java -Xmx8g -cp ".:lib/*" ScalingBench
+// % java -Xmx8g -cp ".:lib/*" ScalingBench -n 10000,100000,1000000,10000000 -m 200,400,800 -res 64,128
+// % java -cp ".:lib/*" ScalingBench -shapes sphere,noisy-torus -baseline scaling/scaling.csv -tol 1.25
+//
+// shapes: sphere, torus, 2torus (two separate tori side by side), noisy-sphere,
+// noisy-torus (positions jittered by 0.5% of the bbox diagonal, normals by ~3 deg)
+public class ScalingBench {
+
+    static final String[] STAGES = { "loadXYZ", "buildConstraints", "fitRBF", "buildField", "marchingCubes" };
+    static final double NOISE = 0.005;
+    static final long MIN_REGRESSION_MS = 50;   // ignore slowdowns smaller than this
+
+    static List<Integer> sizes = List.of(10_000, 100_000, 1_000_000);
+    static List<Integer> maxNs = List.of(200, 400);
+    static List<Integer> resList = List.of(64, 128);
+    static List<String> shapes = List.of("sphere", "torus", "2torus", "noisy-sphere");
+    static File outDir = new File("scaling");
+    static File baseline = null;
+    static double tol = 1.25;
+
+    static class Row {
+        String shape; int n, maxN, res;
+        String stage;
+        double wallMs, cpuMs;
+        long peakHeap;
+        double throughput; String unit;
+    }
+
+    public static void main(String[] args) throws Exception {
+        for(int a=0;a<args.length;a++){
+            switch(args[a]){
+                case "-n":        sizes = ints(args[++a]); break;
+                case "-m":        maxNs = ints(args[++a]); break;
+                case "-res":      resList = ints(args[++a]); break;
+                case "-shapes":   shapes = Arrays.asList(args[++a].split(",")); break;
+                case "-out":      outDir = new File(args[++a]); break;
+                case "-baseline": baseline = new File(args[++a]); break;
+                case "-tol":      tol = Double.parseDouble(args[++a]); break;
+                default:
+                    System.out.println("unknown option " + args[a]);
+                    System.exit(2);
+            }
+        }
+        outDir.mkdirs();
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        File tmp = Files.createTempDirectory("project02-scaling").toFile();
+        ArrayList<Row> rows = new ArrayList<>();
+        out.printf("%-14s %9s %5s %5s %-17s %11s %11s %14s%n", "shape", "points", "maxN", "res", "stage", "wall ms", "peak MB", "throughput");
+        try {
+            // one small untimed run so the first measured row doesn't pay for JIT warmup
+            File warm = new File(tmp, "warmup.xyz");
+            writeXYZ(generate(shapes.get(0), 10_000, 0), warm);
+            run(shapes.get(0), 10_000, Collections.min(maxNs), Collections.min(resList), warm.getPath());
+            warm.delete();
+
+            for(String shape: shapes){
+                for(int n: sizes){
+                    File xyz = new File(tmp, shape + "-" + n + ".xyz");
+                    writeXYZ(generate(shape, n, 1), xyz);
+                    for(int maxN: maxNs){
+                        for(int res: resList){
+                            for(Row r: run(shape, n, maxN, res, xyz.getPath())){
+                                rows.add(r);
+                                out.printf(Locale.ROOT, "%-14s %9d %5d %5d %-17s %11.1f %11.1f %10.3g %s%n", r.shape, r.n, r.maxN, r.res,
+                                           r.stage, r.wallMs, r.peakHeap / 1048576.0, r.throughput, r.unit);
+                            }
+                        }
+                    }
+                    xyz.delete();
+                }
+            }
+        } finally {
+            File[] fs = tmp.listFiles();
+            if(fs != null) for(File f: fs) f.delete();
+            tmp.delete();
+        }
+
+        File csv = new File(outDir, "scaling.csv"), json = new File(outDir, "scaling.json");
+        // read the baseline first: it may be the file about to be overwritten
+        Map<String, Double> base = baseline != null ? readBaseline(baseline) : null;
+        writeCsv(rows, csv);
+        writeJson(rows, json);
+        out.println("Wrote " + csv + " and " + json);
+
+        if(base != null){
+            int regressions = compare(rows, base, out);
+            System.setOut(out);
+            if(regressions > 0) System.exit(1);
+        }
+        System.setOut(out);
+    }
+
+    // ---- one pipeline run ----
+
+    static List<Row> run(String shape, int n, int maxN, int res, String path) throws IOException {
+        System.gc();
+        Metrics.reset();
+        long t0 = System.nanoTime();
+
+        ArrayList<PointN> pts = Project02.loadXYZ(path);
+        ArrayList<Constraint> C = Project02.buildConstraints(pts, maxN);
+        double[] lambda = Project02.fitRBF(C);
+        Project02.BBox box = Project02.expand(Project02.bbox(pts), 0.10);
+        Project02.ScalarField f = Project02.buildField(C, lambda, box, res, 0.0);
+        Mesh mesh = Project02.marchingCubes(f, 0.0);
+        double totalMs = (System.nanoTime() - t0) / 1e6;
+        long peak = Metrics.peakHeap();
+        long cells = (long) (res-1) * (res-1) * (res-1);
+        double[] per = {
+            pts.size(),                         // points parsed
+            C.size(),                           // constraints built
+            C.size(),                           // constraints fitted
+            (double) res * res * res,           // grid nodes resolved (exact or culled)
+            cells                               // cells visited
+        };
+        String[] unit = { "pts/s", "constraints/s", "constraints/s", "nodes/s", "cells/s" };
+
+        ArrayList<Row> rows = new ArrayList<>();
+        for(int s=0;s<STAGES.length;s++){
+            Metrics.StageStats t = Metrics.stage(STAGES[s]);
+            if(t == null) t = new Metrics.StageStats();
+            Row r = row(shape, n, maxN, res, STAGES[s], t.wallNanos / 1e6, t.cpuNanos / 1e6, t.peakHeap);
+            r.throughput = r.wallMs > 0 ? per[s] / (r.wallMs / 1000) : 0;
+            r.unit = unit[s];
+            rows.add(r);
+        }
+        Row tot = row(shape, n, maxN, res, "total", totalMs, 0, peak);
+        tot.throughput = mesh.F.size() / (totalMs / 1000);
+        tot.unit = "tris/s";
+        rows.add(tot);
+        return rows;
+    }
+
+    static Row row(String shape, int n, int maxN, int res, String stage, double wall, double cpu, long peak){
+        Row r = new Row();
+        r.shape = shape; r.n = n; r.maxN = maxN; r.res = res; r.stage = stage;
+        r.wallMs = wall; r.cpuMs = cpu; r.peakHeap = peak;
+        return r;
+    }
+
+    // ---- synthetic clouds ----
+
+    static ArrayList<PointN> generate(String shape, int n, long seed){
+        switch(shape){
+            case "sphere":       return Bench.sphere(n, 1.0, seed);
+            case "torus":        return torus(n, 1.0, 0.35, new Vector3(0,0,0), new Random(seed));
+            case "2torus":       return twoTorus(n, seed);
+            case "noisy-sphere": return noisy(Bench.sphere(n, 1.0, seed), seed);
+            case "noisy-torus":  return noisy(torus(n, 1.0, 0.35, new Vector3(0,0,0), new Random(seed)), seed);
+            default: throw new IllegalArgumentException("unknown shape " + shape);
+        }
+    }
+
+    // uniform by area: accept (u, v) with probability (R + r cos v) / (R + r)
+    static ArrayList<PointN> torus(int n, double R, double r, Vector3 c, Random rnd){
+        ArrayList<PointN> pts = new ArrayList<>(n);
+        while(pts.size() < n){
+            double u = rnd.nextDouble() * 2*Math.PI, v = rnd.nextDouble() * 2*Math.PI;
+            if(rnd.nextDouble() * (R + r) > R + r*Math.cos(v)) continue;
+            Vector3 nrm = new Vector3(Math.cos(v)*Math.cos(u), Math.cos(v)*Math.sin(u), Math.sin(v));
+            Vector3 p = new Vector3((R + r*Math.cos(v))*Math.cos(u), (R + r*Math.cos(v))*Math.sin(u), r*Math.sin(v));
+            pts.add(new PointN(p.add(c), nrm));
+        }
+        return pts;
+    }
+
+    static ArrayList<PointN> twoTorus(int n, long seed){
+        Random rnd = new Random(seed);
+        ArrayList<PointN> pts = torus(n/2, 1.0, 0.35, new Vector3(-1.4, 0, 0), rnd);
+        pts.addAll(torus(n - n/2, 1.0, 0.35, new Vector3(1.4, 0, 0), rnd));
+        return pts;
+    }
+
+    static ArrayList<PointN> noisy(ArrayList<PointN> pts, long seed){
+        Random rnd = new Random(seed ^ 0x5DEECE66DL);
+        double s = NOISE * Project02.bboxDiag(pts);
+        for(PointN pn: pts){
+            pn.p = pn.p.add(new Vector3(rnd.nextGaussian()*s, rnd.nextGaussian()*s, rnd.nextGaussian()*s));
+            pn.n = pn.n.add(new Vector3(rnd.nextGaussian()*0.05, rnd.nextGaussian()*0.05, rnd.nextGaussian()*0.05)).normalize();
+        }
+        return pts;
+    }
+
+    static void writeXYZ(ArrayList<PointN> pts, File f) throws IOException {
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 20)) {
+            StringBuilder sb = new StringBuilder(96);
+            for(PointN pn: pts){
+                sb.setLength(0);
+                sb.append((float) pn.p.x).append(' ').append((float) pn.p.y).append(' ').append((float) pn.p.z).append(' ')
+                  .append((float) pn.n.x).append(' ').append((float) pn.n.y).append(' ').append((float) pn.n.z).append('\n');
+                w.append(sb);
+            }
+        }
+    }
+
+    // ---- reports ----
+
+    static final String HEADER = "shape,points,maxN,res,stage,wallMs,cpuMs,peakHeapBytes,throughput,unit";
+
+    static void writeCsv(List<Row> rows, File f) throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(f))) {
+            w.println(HEADER);
+            for(Row r: rows){
+                w.printf(Locale.ROOT, "%s,%d,%d,%d,%s,%.3f,%.3f,%d,%.6g,%s%n",
+                         r.shape, r.n, r.maxN, r.res, r.stage, r.wallMs, r.cpuMs, r.peakHeap, r.throughput, r.unit);
+            }
+        }
+    }
+
+    static void writeJson(List<Row> rows, File f) throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(f))) {
+            w.println("{");
+            w.println("  \"java\": \"" + System.getProperty("java.version") + "\",");
+            w.println("  \"cpus\": " + Runtime.getRuntime().availableProcessors() + ",");
+            w.println("  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + ",");
+            w.println("  \"runs\": [");
+            for(int i=0;i<rows.size();i++){
+                Row r = rows.get(i);
+                w.printf(Locale.ROOT, "    {\"shape\": \"%s\", \"points\": %d, \"maxN\": %d, \"res\": %d, \"stage\": \"%s\", "
+                         + "\"wallMs\": %.3f, \"cpuMs\": %.3f, \"peakHeapBytes\": %d, \"throughput\": %.6g, \"unit\": \"%s\"}%s%n",
+                         r.shape, r.n, r.maxN, r.res, r.stage, r.wallMs, r.cpuMs, r.peakHeap, r.throughput, r.unit,
+                         i + 1 < rows.size() ? "," : "");
+            }
+            w.println("  ]");
+            w.println("}");
+        }
+    }
+
+    static String key(String shape, int n, int maxN, int res, String stage){
+        return shape + "," + n + "," + maxN + "," + res + "," + stage;
+    }
+
+    // key -> wallMs from an earlier scaling.csv
+    static Map<String, Double> readBaseline(File f) throws IOException {
+        Map<String, Double> m = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String line = br.readLine();
+            if(line == null || !line.startsWith("shape,points")) throw new IOException("not a scaling.csv: " + f);
+            while((line = br.readLine()) != null){
+                String[] t = line.split(",");
+                if(t.length < 6) continue;
+                m.put(key(t[0], Integer.parseInt(t[1]), Integer.parseInt(t[2]), Integer.parseInt(t[3]), t[4]), Double.parseDouble(t[5]));
+            }
+        }
+        return m;
+    }
+
+    // prints ratios vs the baseline; returns the number of regressions
+    static int compare(List<Row> rows, Map<String, Double> base, PrintStream out){
+        int bad = 0, matched = 0;
+        out.println();
+        out.printf("%-52s %11s %11s %8s%n", "vs baseline", "base ms", "now ms", "ratio");
+        for(Row r: rows){
+            Double b = base.get(key(r.shape, r.n, r.maxN, r.res, r.stage));
+            if(b == null) continue;
+            matched++;
+            double ratio = b > 0 ? r.wallMs / b : Double.POSITIVE_INFINITY;
+            boolean reg = ratio > tol && r.wallMs - b > MIN_REGRESSION_MS;
+            if(reg) bad++;
+            out.printf(Locale.ROOT, "%-52s %11.1f %11.1f %8.2f%s%n", key(r.shape, r.n, r.maxN, r.res, r.stage),
+                       b, r.wallMs, ratio, reg ? "  REGRESSION" : "");
+        }
+        out.println(matched + " matched, " + bad + " regression(s) over x" + tol);
+        return bad;
+    }
+
+    static List<Integer> ints(String s){
+        ArrayList<Integer> r = new ArrayList<>();
+        for(String t: s.split(",")) r.add(Integer.parseInt(t.trim().replace("_", "")));
+        return r;
+    }
+}
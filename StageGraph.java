@@ -0,0 +1,217 @@
+import java.io.*;
+import java.util.*;
+
+// ====== Memoized stage graph ======
+// The pipeline as a chain of cached stages:
+//
+//   points(path) -> constraints(maxN, epsRatio) -> lambda -> field(res) -> mesh(iso)
+//
+// Each output is cached under a key made of its parameters and the key of its input,
+// so changing a parameter only invalidates the stages downstream of it:
+//   iso      -> marchingCubes only
+//   res      -> buildField + marchingCubes
+//   epsRatio -> buildConstraints, fitRBF, buildField, marchingCubes (no reload / parse)
+// The field is the exact one (no hierarchical culling), since a culled field is only
+// valid for the iso it was built for.
+//
+// Entries are kept in LRU order and evicted once their estimated size exceeds the
+// heap budget; an output larger than the whole budget is returned but not cached.
+//
+// Edits (addPoints / removeConstraints) update an IncrementalFit over the current
+// constraints in O(m^2 k) instead of refitting; each edit is a new version of the
+// constraints key, so field and mesh are rebuilt from the new weights. Changing
+// path, maxN or epsRatio starts over from the file.
+//
+//   StageGraph g = new StageGraph("xyz/bunny.xyz", 256L << 20);
+//   Mesh a = g.mesh();
+//   g.setIso(0.05);  Mesh b = g.mesh();   // only re-extracts
+//   g.addPoints(patch);  Mesh c = g.mesh();
+public class StageGraph {
+
+    private static class Entry {
+        final Object value;
+        final long bytes;
+        Entry(Object value, long bytes){ this.value = value; this.bytes = bytes; }
+    }
+
+    interface Compute<T> { T run() throws IOException; }
+    interface Size { long of(Object v); }
+
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final long budget;
+    private long used = 0;
+
+    String path;
+    int maxN = -1;          // -1: points/5, as in Project02.main
+    double epsRatio = 0.01;
+    int res = 64;
+    double iso = 0.0;
+    double boxMargin = 0.10;
+
+    // edits since the constraints of baseKey were built (see IncrementalFit)
+    private IncrementalFit inc = null;
+    private String baseKey = null;
+    private int edits = 0;
+    private final ArrayList<PointN> added = new ArrayList<>();
+
+    StageGraph(String path, long budgetBytes){
+        this.path = path;
+        this.budget = budgetBytes;
+    }
+
+    void setPath(String p){ path = p; }
+    void setMaxN(int n){ maxN = n; }
+    void setEpsRatio(double r){ epsRatio = r; }
+    void setRes(int r){ res = r; }
+    void setIso(double v){ iso = v; }
+
+    // ---- stages ----
+
+    @SuppressWarnings("unchecked")
+    ArrayList<PointN> points() throws IOException {
+        // a rewritten file gets a new key
+        return (ArrayList<PointN>) get(pointsKey(), () -> Project02.loadXYZ(path), v -> 112L * ((ArrayList<?>) v).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    ArrayList<Constraint> constraints() throws IOException {
+        if(edited()) return (ArrayList<Constraint>) get(constraintsKey(), () -> inc.constraints(), v -> 72L * ((ArrayList<?>) v).size());
+        return baseConstraints();
+    }
+
+    double[] lambda() throws IOException {
+        return (double[]) get(constraintsKey() + "|fit", () -> edited() ? inc.lambda() : Project02.fitRBF(constraints()),
+                              v -> 16L + 8L * ((double[]) v).length);
+    }
+
+    Project02.ScalarField field() throws IOException {
+        return (Project02.ScalarField) get(fieldKey(), () -> {
+            ArrayList<Constraint> C = constraints();
+            double[] lambda = lambda();
+            ArrayList<PointN> pts = points();
+            if(edited() && !added.isEmpty()){
+                pts = new ArrayList<>(pts);
+                pts.addAll(added);
+            }
+            Project02.BBox box = Project02.expand(Project02.bbox(pts), boxMargin);
+            return Project02.buildField(C, lambda, box, res);
+        }, v -> 8L * ((Project02.ScalarField) v).val.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayList<Constraint> baseConstraints() throws IOException {
+        return (ArrayList<Constraint>) get(baseConstraintsKey(), () -> {
+            ArrayList<PointN> pts = points();
+            return Project02.buildConstraints(pts, maxN < 0 ? pts.size()/5 : maxN, epsRatio);
+        }, v -> 72L * ((ArrayList<?>) v).size());
+    }
+
+    // ---- edits ----
+
+    // constraints for a new scan patch (same eps as the base set); returns their ids
+    int[] addPoints(ArrayList<PointN> patch) throws IOException {
+        int[] ids = editable().addPoints(patch);
+        added.addAll(patch);
+        edits++;
+        return ids;
+    }
+
+    // ids as in constraintIds()
+    void removeConstraints(int[] ids) throws IOException {
+        editable().remove(ids);
+        edits++;
+    }
+
+    // ids of constraints(), in the same order; base constraints are numbered 0..m-1
+    int[] constraintIds() throws IOException {
+        if(edited()) return inc.ids();
+        int[] ids = new int[baseConstraints().size()];
+        for(int i=0;i<ids.length;i++) ids[i] = i;
+        return ids;
+    }
+
+    private boolean edited(){
+        return inc != null && edits > 0 && baseConstraintsKey().equals(baseKey);
+    }
+
+    private IncrementalFit editable() throws IOException {
+        String key = baseConstraintsKey();
+        if(inc == null || !key.equals(baseKey)){
+            ArrayList<Constraint> C = baseConstraints();
+            if(C.size() >= Project02.HMATRIX_MIN){
+                throw new IllegalStateException("edits need fewer than " + Project02.HMATRIX_MIN + " constraints, have " + C.size());
+            }
+            inc = new IncrementalFit(C, epsRatio * Project02.bboxDiag(points()));
+            baseKey = key;
+            edits = 0;
+            added.clear();
+        }
+        return inc;
+    }
+
+    Mesh mesh() throws IOException {
+        return (Mesh) get(fieldKey() + "|mc:" + iso, () -> Project02.marchingCubes(field(), iso),
+                          v -> 48L * ((Mesh) v).V.size() + 40L * ((Mesh) v).F.size());
+    }
+
+    // ---- keys ----
+
+    private String pointsKey(){
+        File f = new File(path);
+        return "load:" + f.getAbsolutePath() + "@" + f.lastModified() + ":" + f.length();
+    }
+
+    private String baseConstraintsKey(){
+        return pointsKey() + "|c:" + maxN + ":" + epsRatio;
+    }
+
+    private String constraintsKey(){
+        return edited() ? baseKey + "|edit:" + edits : baseConstraintsKey();
+    }
+
+    private String fieldKey(){
+        return constraintsKey() + "|fit|field:" + res + ":" + boxMargin;
+    }
+
+    // ---- cache ----
+
+    private Object get(String key, Compute<?> compute, Size size) throws IOException {
+        synchronized(cache){
+            Entry e = cache.get(key);
+            if(e != null){
+                Metrics.count("graph.hits", 1);
+                return e.value;
+            }
+        }
+        Metrics.count("graph.misses", 1);
+        Object v = compute.run();
+        long bytes = size.of(v);
+        synchronized(cache){
+            if(bytes > budget || cache.containsKey(key)) return v;
+            evict(budget - bytes);
+            cache.put(key, new Entry(v, bytes));
+            used += bytes;
+        }
+        return v;
+    }
+
+    // least recently used first, until used <= target
+    private void evict(long target){
+        Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+        while(used > target && it.hasNext()){
+            used -= it.next().getValue().bytes;
+            it.remove();
+            Metrics.count("graph.evictions", 1);
+        }
+    }
+
+    void clear(){
+        synchronized(cache){
+            cache.clear();
+            used = 0;
+        }
+    }
+
+    long bytesUsed(){ synchronized(cache){ return used; } }
+    int entries(){ synchronized(cache){ return cache.size(); } }
+}
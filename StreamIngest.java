@@ -0,0 +1,141 @@
+import java.io.*;
+import java.util.*;
+
+// ====== Single-pass streaming ingest ======
+// For inputs that don't fit in memory: the .xyz file is read once, line by line, and
+// only two fixed-size uniform samples are kept:
+//  - sample:  the points the constraints are built from (maxN)
+//  - preview: a larger capped subset for the viewer and the quality report
+// The bounding box and the point count come from every line. Memory is
+// O(maxN + previewN) whatever the file size.
+//
+// Each sample is a reservoir (Algorithm L): after the first k points it draws how
+// many points to skip before the next replacement, so a point that no reservoir takes
+// only gets its x y z parsed (for the box).
+//
+//   StreamIngest in = StreamIngest.read("scan.xyz", 10000, 1000000, 0);
+//   ArrayList<Constraint> C = Project02.buildConstraintsFromSample(in.sample, in.diag(), 0.01);
+public class StreamIngest {
+
+    final ArrayList<PointN> sample, preview;
+    long count = 0;
+    double minx = 1e100, miny = 1e100, minz = 1e100;
+    double maxx = -1e100, maxy = -1e100, maxz = -1e100;
+
+    private StreamIngest(ArrayList<PointN> sample, ArrayList<PointN> preview){
+        this.sample = sample; this.preview = preview;
+    }
+
+    static StreamIngest read(String path, int maxN, int previewN, long seed) throws IOException {
+        Metrics.Stage st = Metrics.begin("streamIngest");
+        Random rnd = new Random(seed);
+        Reservoir rs = new Reservoir(maxN, rnd), rp = new Reservoir(previewN, rnd);
+        double[] v = new double[6];
+
+        long n = 0;
+        double minx = 1e100, miny = 1e100, minz = 1e100;
+        double maxx = -1e100, maxy = -1e100, maxz = -1e100;
+        try (BufferedReader br = new BufferedReader(new FileReader(path), 1 << 20)) {
+            String line;
+            while((line = br.readLine()) != null){
+                boolean keep = rs.wants(n) || rp.wants(n);
+                int got = parse(line, v, keep ? 6 : 3);
+                if(got < 3) continue;
+
+                double x = v[0], y = v[1], z = v[2];
+                if(x < minx) minx = x;
+                if(x > maxx) maxx = x;
+                if(y < miny) miny = y;
+                if(y > maxy) maxy = y;
+                if(z < minz) minz = z;
+                if(z > maxz) maxz = z;
+
+                if(keep){
+                    // missing normals: zero, so addConstraints emits the on-surface constraint only
+                    PointN p = got >= 6
+                        ? new PointN(new Vector3(x, y, z), new Vector3(v[3], v[4], v[5]))
+                        : new PointN(new Vector3(x, y, z), new Vector3(0, 0, 0));
+                    rs.offer(n, p);
+                    rp.offer(n, p);
+                }
+                n++;
+                if((n & 0xFFFFF) == 0) JobEngine.checkCancelled();
+            }
+        }
+
+        StreamIngest in = new StreamIngest(rs.toList(), rp.toList());
+        in.count = n;
+        in.minx = minx; in.miny = miny; in.minz = minz;
+        in.maxx = maxx; in.maxy = maxy; in.maxz = maxz;
+        System.out.println("Streamed " + n + " points, kept sample=" + in.sample.size() + " preview=" + in.preview.size());
+        Metrics.count("points", n);
+        st.end();
+        return in;
+    }
+
+    double diag(){
+        double dx = maxx-minx, dy = maxy-miny, dz = maxz-minz;
+        return count == 0 ? 0 : Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    Project02.BBox box(){
+        return new Project02.BBox(new Vector3(minx, miny, minz), new Vector3(maxx, maxy, maxz));
+    }
+
+    // up to max whitespace-separated numbers into v; -1 for blank / comment lines.
+    // Same rules as Project02.loadXYZ, without split() and its per-token strings.
+    static int parse(String line, double[] v, int max){
+        int len = line.length(), i = 0, got = 0;
+        while(i < len && Character.isWhitespace(line.charAt(i))) i++;
+        if(i == len || line.charAt(i) == '#') return -1;
+        while(i < len && got < max){
+            int s = i;
+            while(i < len && !Character.isWhitespace(line.charAt(i))) i++;
+            v[got++] = Double.parseDouble(line.substring(s, i));
+            while(i < len && Character.isWhitespace(line.charAt(i))) i++;
+        }
+        return got;
+    }
+
+    // ====== Reservoir of k items, Algorithm L (Li 1994) ======
+    static class Reservoir {
+        final PointN[] items;
+        final Random rnd;
+        int size = 0;
+        long next;          // index of the next item to take once full
+        double w;
+
+        Reservoir(int k, Random rnd){
+            items = new PointN[Math.max(0, k)];
+            this.rnd = rnd;
+            next = items.length;
+            if(items.length > 0){
+                w = Math.exp(Math.log(rnd.nextDouble()) / items.length);
+                next = items.length + skip();
+            }
+        }
+
+        boolean wants(long i){ return i < items.length || i == next; }
+
+        void offer(long i, PointN p){
+            if(i < items.length){
+                items[size++] = p;
+            }
+            else if(i == next && items.length > 0){
+                items[rnd.nextInt(items.length)] = p;
+                w *= Math.exp(Math.log(rnd.nextDouble()) / items.length);
+                next = i + 1 + skip();
+            }
+        }
+
+        // points passed over before the next replacement
+        private long skip(){
+            double s = Math.floor(Math.log(rnd.nextDouble()) / Math.log(1 - w));
+            return s >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE / 2 : (long) s;
+        }
+
+        ArrayList<PointN> toList(){
+            return new ArrayList<>(Arrays.asList(items).subList(0, size));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.*;
+
+// ====== Surface-following marching cubes ======
+// Instead of evaluating all res^3 nodes and visiting all cells, start from the cells
+// that hold the on-surface constraints (y == 0) and flood across cell faces the
+// surface actually crosses. Node values are evaluated lazily and kept in a primitive
+// hash map, edge vertices in another, so the work grows with the surface area
+// (~res^2 cells) rather than the volume.
+//
+// Each surface component that has a seed is extracted completely, with the same
+// vertices and triangles MCKernel produces for it on the dense field. Components
+// without any constraint nearby (spurious blobs far from the data) are not visited.
+public class SurfaceTracker {
+
+    final HierarchicalField h;      // flat-array evaluation of the fit
+    final Project02.ScalarField grid; // node positions only (no values)
+    final double iso;
+    final int nx, ny, nz;
+    final double x0, y0, z0, dx, dy, dz;
+    final MeshBuffer out;
+
+    final LongMap values;           // node -> value bits
+    final LongMap verts;            // edge (node*3 + axis) -> vertex index
+    final LongMap seen;             // cells already queued
+    long[] queue = new long[1024];
+    int qhead = 0, qtail = 0;
+
+    final double[] v = new double[8];
+    final int[] ev = new int[12];
+    long evals = 0, visited = 0, active = 0;
+
+    private SurfaceTracker(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res, double iso, MeshBuffer out){
+        grid = new Project02.ScalarField(res, res, res, box, false);
+        h = new HierarchicalField(C, lambda, grid, iso);
+        this.iso = iso;
+        this.out = out;
+        nx = ny = nz = res;
+        x0 = box.min.x; y0 = box.min.y; z0 = box.min.z;
+        dx = (nx==1) ? 0 : (box.max.x - box.min.x) / (nx-1);
+        dy = (ny==1) ? 0 : (box.max.y - box.min.y) / (ny-1);
+        dz = (nz==1) ? 0 : (box.max.z - box.min.z) / (nz-1);
+        int expect = 16 * res * res;
+        values = new LongMap(expect);
+        verts = new LongMap(expect);
+        seen = new LongMap(expect);
+    }
+
+    static MeshBuffer extract(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res, double iso){
+        return extract(C, lambda, box, res, iso, new MeshBuffer());
+    }
+
+    static MeshBuffer extract(ArrayList<Constraint> C, double[] lambda, Project02.BBox box, int res, double iso, MeshBuffer out){
+        Metrics.Stage st = Metrics.begin("surfaceTrack");
+        SurfaceTracker t = new SurfaceTracker(C, lambda, box, res, iso, out);
+        if(res >= 2){
+            for(Constraint c: C){
+                if(c.y == 0.0) t.seed(c.x);
+            }
+            t.flood();
+        }
+        Metrics.count("field.nodes", t.evals);
+        Metrics.count("kernel.evals", t.evals * (long) C.size());
+        Metrics.count("mc.cellsVisited", t.visited);
+        Metrics.count("mc.cellsActive", t.active);
+        Metrics.count("mc.triangles", out.triangleCount);
+        System.out.println("Surface tracking: nodes=" + t.evals + " cells=" + t.visited + " (grid " + (long) res*res*res + ")");
+        st.end();
+        return out;
+    }
+
+    // the cell containing p, or a crossing cell next to it (the fit only passes near
+    // the point, and iso may be off zero)
+    private void seed(Vector3 p){
+        int ci = cellOf(p.x, x0, dx, nx), cj = cellOf(p.y, y0, dy, ny), ck = cellOf(p.z, z0, dz, nz);
+        if(seen.containsKey(cellId(ci, cj, ck))) return;
+        for(int dk=-1;dk<=1;dk++)
+            for(int dj=-1;dj<=1;dj++)
+                for(int di=-1;di<=1;di++){
+                    int i = ci+di, j = cj+dj, k = ck+dk;
+                    if(i < 0 || j < 0 || k < 0 || i >= nx-1 || j >= ny-1 || k >= nz-1) continue;
+                    int c = cube(i, j, k);
+                    if(c != 0 && c != 255) push(i, j, k);
+                }
+    }
+
+    private static int cellOf(double x, double x0, double d, int n){
+        if(d == 0) return 0;
+        int c = (int) Math.floor((x - x0) / d);
+        return Math.max(0, Math.min(n-2, c));
+    }
+
+    private long cellId(int i, int j, int k){ return ((long) k*ny + j)*nx + i; }
+
+    private void push(int i, int j, int k){
+        if(i < 0 || j < 0 || k < 0 || i >= nx-1 || j >= ny-1 || k >= nz-1) return;
+        long id = cellId(i, j, k);
+        if(!seen.add(id)) return;
+        if(qtail == queue.length){
+            // compact, then grow if still full
+            System.arraycopy(queue, qhead, queue, 0, qtail - qhead);
+            qtail -= qhead; qhead = 0;
+            if(qtail * 2 > queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queue[qtail++] = id;
+    }
+
+    private void flood(){
+        while(qhead < qtail){
+            JobEngine.checkCancelled();
+            long id = queue[qhead++];
+            int i = (int) (id % nx), j = (int) ((id / nx) % ny), k = (int) (id / ((long) nx*ny));
+            visited++;
+
+            int cube = cube(i, j, k);
+            int[] edges = MCKernel.CASE_EDGES[cube];
+            if(edges.length == 0) continue;
+            active++;
+
+            for(int e: edges) ev[e] = vertex(i, j, k, e);
+            int[] tri = MCTables.triTable[cube];
+            for(int t=0; t<16 && tri[t] != -1; t+=3){
+                out.addTriangle(ev[tri[t]], ev[tri[t+1]], ev[tri[t+2]]);
+            }
+
+            // follow the surface through faces with a sign change (bits of cube per corner)
+            if(mixed(cube, 0, 3, 4, 7)) push(i-1, j, k);
+            if(mixed(cube, 1, 2, 5, 6)) push(i+1, j, k);
+            if(mixed(cube, 0, 1, 4, 5)) push(i, j-1, k);
+            if(mixed(cube, 2, 3, 6, 7)) push(i, j+1, k);
+            if(mixed(cube, 0, 1, 2, 3)) push(i, j, k-1);
+            if(mixed(cube, 4, 5, 6, 7)) push(i, j, k+1);
+        }
+    }
+
+    private static boolean mixed(int cube, int a, int b, int c, int d){
+        int s = ((cube >> a) & 1) + ((cube >> b) & 1) + ((cube >> c) & 1) + ((cube >> d) & 1);
+        return s != 0 && s != 4;
+    }
+
+    // case index of cell (i,j,k); also leaves its corner values in v
+    private int cube(int i, int j, int k){
+        int[][] off = Project02.VERT_OFF;
+        int cube = 0;
+        for(int c=0;c<8;c++){
+            v[c] = value(i+off[c][0], j+off[c][1], k+off[c][2]);
+            if(v[c] < iso) cube |= 1 << c;
+        }
+        return cube;
+    }
+
+    private double value(int i, int j, int k){
+        long key = ((long) k*ny + j)*nx + i;
+        double val = values.getDouble(key, Double.NaN);
+        if(val == val) return val;
+        Vector3 p = grid.pos(i, j, k);   // same node positions as buildField
+        val = h.eval(p.x, p.y, p.z);
+        values.putDouble(key, val);
+        evals++;
+        return val;
+    }
+
+    // same interpolation as MCKernel.vertex, shared through the edge map
+    private int vertex(int ci, int cj, int ck, int e){
+        int a = MCKernel.EDGE_A[e], b = MCKernel.EDGE_B[e];
+        int[] oa = Project02.VERT_OFF[a], ob = Project02.VERT_OFF[b];
+        int ai = ci+oa[0], aj = cj+oa[1], ak = ck+oa[2];
+        int axis = ob[0] != oa[0] ? 0 : ob[1] != oa[1] ? 1 : 2;
+        long key = (((long) ak*ny + aj)*nx + ai) * 3 + axis;
+        long id = verts.get(key, -1);
+        if(id >= 0) return (int) id;
+
+        double ax = x0 + ai*dx, ay = y0 + aj*dy, az = z0 + ak*dz;
+        double va = v[a], d = v[b] - va;
+        int r;
+        if(Math.abs(d) < 1e-12){
+            r = out.addVertex(ax, ay, az);
+        }
+        else{
+            double t = (iso - va) / d;
+            if(t < 0) t = 0;
+            if(t > 1) t = 1;
+            double bx = x0 + (ci+ob[0])*dx, by = y0 + (cj+ob[1])*dy, bz = z0 + (ck+ob[2])*dz;
+            r = out.addVertex(ax + (bx-ax)*t, ay + (by-ay)*t, az + (bz-az)*t);
+        }
+        verts.put(key, r);
+        return r;
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+// ====== Symmetric matrix in packed lower-triangle storage ======
+// Row i holds A[i][0..i] contiguously at rowStart(i): n(n+1)/2 doubles instead of n^2.
+// The RBF matrix |x_i - x_j| (+ DIAG_SHIFT) is symmetric and indefinite (one positive
+// eigenvalue, the rest negative), so it is factored as
+//
+//     P A P^T = L D L^T
+//
+// with Bunch-Kaufman pivoting: D has 1x1 and 2x2 blocks, L is unit lower triangular,
+// P is the sequence of symmetric interchanges. Half the flops of LU and the factors
+// overwrite the packed matrix (D on the diagonal and at [k+1][k] for a 2x2 block).
+//
+//   SymPacked A = SymPacked.rbf(C);
+//   A.factor();
+//   double[] lambda = A.solve(y);
+public class SymPacked {
+
+    static final double ALPHA = (1 + Math.sqrt(17)) / 8;   // Bunch-Kaufman growth bound
+    static final int PAR_ROWS = 256;                        // trailing updates below this run serially
+
+    final int n;
+    final double[] a;
+    int[] piv;          // after factor(): 1x1 at k swaps k<->piv[k]; 2x2 at k, k+1: both -(r+1), swap k+1<->r
+    boolean[] second;   // k+1 of a 2x2 block: its [k+1][k] entry belongs to D, not L
+    long twoByTwo = 0, swaps = 0;
+    private final JobEngine.Job<?> job = JobEngine.current();   // for cancellation inside parallel rows
+
+    SymPacked(int n){
+        this.n = n;
+        long len = (long) n * (n + 1) / 2;
+        if(len > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("packed matrix too large: n=" + n);
+        a = new double[(int) len];
+    }
+
+    int rowStart(int i){ return (int) ((long) i * (i + 1) / 2); }
+
+    // either triangle
+    double get(int i, int j){ return i >= j ? a[rowStart(i) + j] : a[rowStart(j) + i]; }
+
+    void set(int i, int j, double v){
+        if(i >= j) a[rowStart(i) + j] = v; else a[rowStart(j) + i] = v;
+    }
+
+    // A[i][j] = phi(|x_i - x_j|), A[i][i] += DIAG_SHIFT; rows in parallel, each entry once
+    static SymPacked rbf(ArrayList<Constraint> C){
+        int m = C.size();
+        SymPacked A = new SymPacked(m);
+        double[] x = new double[m], y = new double[m], z = new double[m];
+        for(int i=0;i<m;i++){ Vector3 p = C.get(i).x; x[i] = p.x; y[i] = p.y; z[i] = p.z; }
+        IntStream.range(0, m).parallel().forEach(i -> {
+            if((i & 255) == 0) JobEngine.checkCancelled(A.job);
+            int o = A.rowStart(i);
+            double xi = x[i], yi = y[i], zi = z[i];
+            for(int j=0;j<i;j++){
+                double dx = xi - x[j], dy = yi - y[j], dz = zi - z[j];
+                A.a[o + j] = Project02.phi(Math.sqrt(dx*dx + dy*dy + dz*dz));
+            }
+            A.a[o + i] = Project02.phi(0) + Project02.DIAG_SHIFT;
+        });
+        Metrics.count("kernel.evals", (long) m * (m + 1) / 2);
+        return A;
+    }
+
+    // ---- factorization ----
+
+    void factor(){
+        piv = new int[n];
+        second = new boolean[n];
+        double[] c0 = new double[n], c1 = new double[n];
+        double minPiv = Double.POSITIVE_INFINITY, maxPiv = 0.0;
+
+        int k = 0;
+        while(k < n){
+            JobEngine.checkCancelled();
+            double akk = Math.abs(a[rowStart(k) + k]);
+
+            // largest off-diagonal in column k
+            int r = k;
+            double colmax = 0;
+            for(int i=k+1;i<n;i++){
+                double v = Math.abs(a[rowStart(i) + k]);
+                if(v > colmax){ colmax = v; r = i; }
+            }
+            if(Math.max(akk, colmax) < 1e-12){
+                throw new RuntimeException("Singular / ill-conditioned matrix at k=" + k);
+            }
+
+            int size = 1, p = k;
+            if(akk < ALPHA * colmax){
+                // largest off-diagonal in row / column r of the trailing block
+                double rowmax = 0;
+                int or = rowStart(r);
+                for(int j=k;j<r;j++) rowmax = Math.max(rowmax, Math.abs(a[or + j]));
+                for(int i=r+1;i<n;i++) rowmax = Math.max(rowmax, Math.abs(a[rowStart(i) + r]));
+
+                if(akk * rowmax >= ALPHA * colmax * colmax){
+                    p = k;                                      // 1x1, no interchange
+                }
+                else if(Math.abs(a[or + r]) >= ALPHA * rowmax){
+                    p = r;                                      // 1x1 on r
+                }
+                else{
+                    size = 2; p = r;                            // 2x2 on (k, r)
+                }
+            }
+
+            if(size == 1){
+                if(p != k){ swap(k, p); swaps++; }
+                piv[k] = p;
+                double d = a[rowStart(k) + k];
+                minPiv = Math.min(minPiv, Math.abs(d));
+                maxPiv = Math.max(maxPiv, Math.abs(d));
+
+                for(int i=k+1;i<n;i++) c0[i] = a[rowStart(i) + k];
+                double inv = 1.0 / d;
+                int c = k;
+                update(c+1, (o, i) -> {
+                    double l = c0[i] * inv;
+                    for(int j=c+1;j<=i;j++) a[o + j] -= l * c0[j];
+                    a[o + c] = l;
+                });
+                k += 1;
+            }
+            else{
+                if(p != k+1){ swap(k+1, p); swaps++; }
+                piv[k] = piv[k+1] = -(p + 1);
+                second[k+1] = true;
+                twoByTwo++;
+                double d11 = a[rowStart(k) + k], d21 = a[rowStart(k+1) + k], d22 = a[rowStart(k+1) + k+1];
+                double det = d11*d22 - d21*d21;
+                double dabs = Math.abs(det) / Math.max(Math.abs(d11) + Math.abs(d21), Math.abs(d21) + Math.abs(d22));
+                minPiv = Math.min(minPiv, dabs);
+                maxPiv = Math.max(maxPiv, dabs);
+
+                for(int i=k+2;i<n;i++){
+                    int o = rowStart(i);
+                    c0[i] = a[o + k]; c1[i] = a[o + k+1];
+                }
+                // [l0 l1] = [c0 c1] D^-1
+                double e11 = d22 / det, e12 = -d21 / det, e22 = d11 / det;
+                int c = k;
+                update(c+2, (o, i) -> {
+                    double l0 = c0[i]*e11 + c1[i]*e12, l1 = c0[i]*e12 + c1[i]*e22;
+                    for(int j=c+2;j<=i;j++) a[o + j] -= l0 * c0[j] + l1 * c1[j];
+                    a[o + c] = l0; a[o + c+1] = l1;
+                });
+                k += 2;
+            }
+        }
+
+        Metrics.count("solver.rowSwaps", swaps);
+        Metrics.count("solver.pivots2x2", twoByTwo);
+        Metrics.gauge("solver.minPivot", minPiv);
+        Metrics.gauge("solver.maxPivot", maxPiv);
+        Metrics.gauge("solver.pivotRatio", maxPiv / minPiv);
+    }
+
+    private interface RowOp { void apply(int rowStart, int i); }
+
+    // rows from..n-1 of the trailing block; they don't share entries, so rows run in parallel
+    private void update(int from, RowOp op){
+        if(n - from < PAR_ROWS){
+            for(int i=from;i<n;i++) op.apply(rowStart(i), i);
+        }
+        else{
+            IntStream.range(from, n).parallel().forEach(i -> {
+                if((i & 255) == 0) JobEngine.checkCancelled(job);
+                op.apply(rowStart(i), i);
+            });
+        }
+    }
+
+    // symmetric interchange of rows / columns p < r over the whole matrix, so the
+    // columns of L already computed move with their rows
+    private void swap(int p, int r){
+        int op = rowStart(p), or = rowStart(r);
+        for(int j=0;j<p;j++){ double t = a[op + j]; a[op + j] = a[or + j]; a[or + j] = t; }
+        double t = a[op + p]; a[op + p] = a[or + r]; a[or + r] = t;
+        for(int j=p+1;j<r;j++){
+            int o = rowStart(j) + p;
+            t = a[o]; a[o] = a[or + j]; a[or + j] = t;
+        }
+        for(int i=r+1;i<n;i++){
+            int o = rowStart(i);
+            t = a[o + p]; a[o + p] = a[o + r]; a[o + r] = t;
+        }
+    }
+
+    // ---- solve (after factor) ----
+
+    double[] solve(double[] b){
+        double[] x = b.clone();
+        // P b
+        for(int k=0;k<n;){
+            if(piv[k] >= 0){ swapEntries(x, k, piv[k]); k++; }
+            else{ swapEntries(x, k+1, -piv[k] - 1); k += 2; }
+        }
+        // L y = P b
+        for(int i=0;i<n;i++){
+            int o = rowStart(i);
+            double s = x[i];
+            for(int j=0, lim = second[i] ? i-1 : i; j<lim; j++) s -= a[o + j] * x[j];
+            x[i] = s;
+        }
+        // D z = y
+        for(int k=0;k<n;){
+            if(piv[k] >= 0){ x[k] /= a[rowStart(k) + k]; k++; }
+            else{
+                double d11 = a[rowStart(k) + k], d21 = a[rowStart(k+1) + k], d22 = a[rowStart(k+1) + k+1];
+                double det = d11*d22 - d21*d21, y0 = x[k], y1 = x[k+1];
+                x[k] = (d22*y0 - d21*y1) / det;
+                x[k+1] = (d11*y1 - d21*y0) / det;
+                k += 2;
+            }
+        }
+        // L^T x = z, column-oriented over the packed rows
+        for(int i=n-1;i>=0;i--){
+            int o = rowStart(i);
+            double xi = x[i];
+            for(int j=0, lim = second[i] ? i-1 : i; j<lim; j++) x[j] -= a[o + j] * xi;
+        }
+        // P^T x
+        int[] order = new int[n];
+        int cnt = 0;
+        for(int k=0;k<n;) { order[cnt++] = k; k += piv[k] >= 0 ? 1 : 2; }
+        for(int q=cnt-1;q>=0;q--){
+            int k = order[q];
+            if(piv[k] >= 0) swapEntries(x, k, piv[k]);
+            else swapEntries(x, k+1, -piv[k] - 1);
+        }
+        return x;
+    }
+
+    private static void swapEntries(double[] x, int i, int j){
+        double t = x[i]; x[i] = x[j]; x[j] = t;
+    }
+}
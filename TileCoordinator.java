@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// ====== Tile-based distributed reconstruction ======
+// Splits the expanded bbox into tiles x tiles x tiles blocks of grid cells, so no
+// process ever holds the dense system or the field of the whole model:
+//
+//  1. fit:     each tile's points (its core box grown by 2*overlap) go to a worker JVM,
+//              which fits an RBF on at most maxPerTile of them
+//  2. extract: each worker gets its own fit plus those of the neighbours whose blend
+//              region reaches it, evaluates the blended field on the tile's grid nodes
+//              and runs marching cubes on the tile's cells only
+//  3. stitch:  the coordinator concatenates the tile meshes and welds the vertices on
+//              the seams (neighbours produce the same vertex for a shared cell edge)
+//
+// Workers are child processes of this JVM (same java binary and classpath); all data
+// is exchanged through files in workDir, so the directory can also be a shared mount.
+//
+// % java -cp ".:lib/*" TileCoordinator xyz/armadillo.xyz out.ply [tiles] [res]
+public class TileCoordinator {
+
+    int tiles = 2;              // per axis
+    int res = 64;               // global grid nodes per axis
+    int maxPerTile = 400;       // sampled points per tile fit (-> ~3x constraints)
+    double overlapRatio = 0.15; // blend half-width, as a fraction of a tile edge
+    double iso = 0.0;
+    int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+    String workerHeap = "-Xmx1g";
+    int minTilePoints = 32;     // sparser tiles grow their fit region until they have this many
+    File workDir;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2){
+            System.out.println("usage: java TileCoordinator <in.xyz> <out.ply|stl|obj> [tiles] [res]");
+            System.exit(1);
+        }
+        TileCoordinator tc = new TileCoordinator();
+        if(args.length > 2) tc.tiles = Integer.parseInt(args[2]);
+        if(args.length > 3) tc.res = Integer.parseInt(args[3]);
+
+        ArrayList<PointN> pts = Project02.loadXYZ(args[0]);
+        Mesh mesh = tc.reconstruct(pts);
+        MeshWriter.write(mesh, args[1]);
+        System.out.println("Wrote " + args[1]);
+        System.out.println(Metrics.toJson());
+    }
+
+    Mesh reconstruct(ArrayList<PointN> pts) throws IOException, InterruptedException {
+        Metrics.Stage st = Metrics.begin("tiles.reconstruct");
+        if(res - 1 < 2*tiles) throw new IllegalArgumentException("res " + res + " too small for " + tiles + " tiles");
+
+        boolean tmpDir = workDir == null;
+        File dir = tmpDir ? Files.createTempDirectory("project02-tiles").toFile() : workDir;
+        dir.mkdirs();
+
+        Project02.BBox box = Project02.expand(Project02.bbox(pts), 0.10);
+        Project02.ScalarField grid = new Project02.ScalarField(res, res, res, box, false);
+        double eps = 0.01 * Project02.bboxDiag(pts);
+
+        // tile t = (a, b, c) owns cells [cut[a], cut[a+1]) on x, etc.
+        int T = tiles, n = T*T*T;
+        int[] cut = new int[T+1];
+        for(int a=0;a<=T;a++) cut[a] = (int) Math.round(a * (res-1) / (double) T);
+
+        double edge = Double.MAX_VALUE;
+        double[][] core = new double[n][6];
+        int[] open = new int[n];
+        for(int t=0;t<n;t++){
+            int[] c = tileCoord(t);
+            Vector3 lo = grid.pos(cut[c[0]], cut[c[1]], cut[c[2]]);
+            Vector3 hi = grid.pos(cut[c[0]+1], cut[c[1]+1], cut[c[2]+1]);
+            core[t] = new double[]{ lo.x, lo.y, lo.z, hi.x, hi.y, hi.z };
+            for(int a=0;a<3;a++){
+                if(c[a] > 0) open[t] |= 1 << a;
+                if(c[a] < T-1) open[t] |= 1 << (3+a);
+                edge = Math.min(edge, core[t][3+a] - core[t][a]);
+            }
+        }
+        double overlap = overlapRatio * edge;
+
+        // ---- 1. fit ----
+        Metrics.Stage fitSt = Metrics.begin("tiles.fit");
+        ArrayList<String[]> fitTasks = new ArrayList<>();
+        for(int t=0;t<n;t++){
+            String p = new File(dir, "tile" + t + ".pts").getPath();
+            TileWorker.writePoints(fitPoints(pts, core[t], 2*overlap), p);
+            fitTasks.add(new String[]{ "fit", p, new File(dir, "tile" + t + ".model").getPath(),
+                                       Integer.toString(maxPerTile), Double.toString(eps) });
+        }
+        runAll(fitTasks, dir);
+        double[][] centers = new double[n][], lambda = new double[n][];
+        for(int t=0;t<n;t++){
+            double[][] m = TileWorker.readModel(new File(dir, "tile" + t + ".model").getPath());
+            centers[t] = m[0];
+            lambda[t] = m[1];
+        }
+        fitSt.end();
+
+        // ---- 2. extract ----
+        Metrics.Stage exSt = Metrics.begin("tiles.extract");
+        ArrayList<String[]> exTasks = new ArrayList<>();
+        for(int t=0;t<n;t++){
+            int[] c = tileCoord(t);
+
+            // neighbours in global tile order, so every tile sums the blend the same way
+            ArrayList<Integer> near = new ArrayList<>();
+            for(int u=0;u<n;u++) if(reaches(core[u], open[u], overlap, core[t])) near.add(u);
+            double[][] nc = new double[near.size()][], ncen = new double[near.size()][], nl = new double[near.size()][];
+            int[] no = new int[near.size()];
+            for(int q=0;q<near.size();q++){
+                int u = near.get(q);
+                nc[q] = core[u]; no[q] = open[u]; ncen[q] = centers[u]; nl[q] = lambda[u];
+            }
+
+            String spec = new File(dir, "tile" + t + ".spec").getPath();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spec)))) {
+                TileWorker.writeVec(out, box.min);
+                TileWorker.writeVec(out, box.max);
+                out.writeInt(res);
+                out.writeInt(cut[c[0]]); out.writeInt(cut[c[1]]); out.writeInt(cut[c[2]]);
+                out.writeInt(cut[c[0]+1]); out.writeInt(cut[c[1]+1]); out.writeInt(cut[c[2]+1]);
+                out.writeDouble(iso);
+                new TileWorker.Blend(overlap, nc, no, ncen, nl).write(out);
+            }
+            exTasks.add(new String[]{ "extract", spec, new File(dir, "tile" + t + ".mesh").getPath() });
+        }
+        runAll(exTasks, dir);
+        exSt.end();
+
+        // ---- 3. stitch ----
+        Metrics.Stage stSt = Metrics.begin("tiles.stitch");
+        ArrayList<MeshBuffer> parts = new ArrayList<>();
+        for(int t=0;t<n;t++) parts.add(TileWorker.readMesh(new File(dir, "tile" + t + ".mesh").getPath()));
+        Mesh mesh = stitch(parts, grid);
+        stSt.end();
+
+        if(tmpDir) deleteAll(dir);
+        Metrics.count("tiles", n);
+        System.out.println("Stitched " + n + " tiles: V=" + mesh.V.size() + " F=" + mesh.F.size());
+        st.end();
+        return mesh;
+    }
+
+    int[] tileCoord(int t){
+        return new int[]{ t % tiles, (t / tiles) % tiles, t / (tiles*tiles) };
+    }
+
+    // points inside the core grown by margin; sparse tiles grow further, so every tile
+    // has a fit (an empty tile would otherwise blend in a zero field, i.e. a fake surface)
+    ArrayList<PointN> fitPoints(ArrayList<PointN> pts, double[] core, double margin){
+        ArrayList<PointN> in = new ArrayList<>();
+        for(double g = margin; ; g *= 2){
+            in.clear();
+            for(PointN pn: pts){
+                Vector3 p = pn.p;
+                if(p.x >= core[0]-g && p.x <= core[3]+g && p.y >= core[1]-g && p.y <= core[4]+g
+                   && p.z >= core[2]-g && p.z <= core[5]+g) in.add(pn);
+            }
+            if(in.size() >= Math.min(minTilePoints, pts.size())) return in;
+        }
+    }
+
+    // does tile u's blend region (core grown by overlap on open sides) touch box b?
+    static boolean reaches(double[] core, int open, double overlap, double[] b){
+        for(int a=0;a<3;a++){
+            double lo = core[a] - ((open & (1<<a)) != 0 ? overlap : 0);
+            double hi = core[3+a] + ((open & (1<<(3+a))) != 0 ? overlap : 0);
+            if(hi < b[a] || lo > b[3+a]) return false;
+        }
+        return true;
+    }
+
+    // Vertices of neighbouring tiles on a shared cell edge come from identical node values
+    // but from each tile's own origin / spacing, so they agree to rounding only. Weld by
+    // position quantized to 1/2^16 of a global cell (coarser if the grid is so large that
+    // 21 bits per axis would not hold that), packed into one LongMap key.
+    static final int WELD_BITS = 21;
+
+    static Mesh stitch(List<MeshBuffer> parts, Project02.ScalarField grid){
+        Project02.BBox b = grid.box;
+        double sx = weldScale(grid.nx, b.max.x - b.min.x);
+        double sy = weldScale(grid.ny, b.max.y - b.min.y);
+        double sz = weldScale(grid.nz, b.max.z - b.min.z);
+
+        int total = 0;
+        for(MeshBuffer mb: parts) total += mb.vertexCount;
+        Mesh mesh = new Mesh();
+        LongMap ids = new LongMap(Math.max(16, total));
+        long dropped = 0;
+        for(MeshBuffer mb: parts){
+            int[] map = new int[mb.vertexCount];
+            for(int v=0;v<mb.vertexCount;v++){
+                double x = mb.pos[3*v], y = mb.pos[3*v+1], z = mb.pos[3*v+2];
+                long key = weldCoord((x - b.min.x) * sx) | weldCoord((y - b.min.y) * sy) << WELD_BITS
+                         | weldCoord((z - b.min.z) * sz) << (2*WELD_BITS);
+                int id = (int) ids.get(key, -1);
+                if(id < 0){
+                    id = mesh.V.size();
+                    mesh.V.add(new Vector3(x, y, z));
+                    ids.put(key, id);
+                }
+                map[v] = id;
+            }
+            for(int t=0;t<mb.triangleCount;t++){
+                int i = map[mb.tri[3*t]], j = map[mb.tri[3*t+1]], k = map[mb.tri[3*t+2]];
+                // welding can collapse a sliver whose vertices sat on a grid node
+                if(i == j || j == k || i == k){ dropped++; continue; }
+                mesh.F.add(new int[]{ i, j, k });
+            }
+        }
+        Metrics.count("tiles.weldedDegenerate", dropped);
+        return mesh;
+    }
+
+    // quanta per unit length along an axis of n nodes spanning extent
+    private static double weldScale(int n, double extent){
+        double perCell = Math.min(65536.0, Math.floor(((1L << WELD_BITS) - 2) / (double) Math.max(1, n-1)));
+        return (n-1) / Math.max(1e-300, extent) * perCell;
+    }
+
+    private static long weldCoord(double q){
+        return Math.max(0, Math.min((1L << WELD_BITS) - 1, Math.round(q)));
+    }
+
+    // ---- worker processes ----
+
+    private void runAll(List<String[]> tasks, File dir) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, tasks.size()));
+        try {
+            List<Future<Void>> fs = new ArrayList<>();
+            for(String[] task: tasks) fs.add(pool.submit(() -> { runWorker(task, dir); return null; }));
+            for(Future<Void> f: fs){
+                try {
+                    f.get();
+                } catch (ExecutionException ex){
+                    for(Future<Void> g: fs) g.cancel(true);
+                    Throwable c = ex.getCause();
+                    if(c instanceof IOException) throw (IOException) c;
+                    throw new IOException(c);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void runWorker(String[] task, File dir) throws IOException, InterruptedException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<String> cmd = new ArrayList<>(List.of(java, workerHeap, "-cp", System.getProperty("java.class.path"), "TileWorker"));
+        cmd.addAll(Arrays.asList(task));
+
+        File log = new File(dir, new File(task[task.length-1]).getName() + ".log");
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(log).start();
+        try {
+            int code = p.waitFor();
+            if(code != 0){
+                throw new IOException("worker " + String.join(" ", task) + " exited with " + code + ":\n"
+                                      + new String(Files.readAllBytes(log.toPath())));
+            }
+        } finally {
+            p.destroyForcibly();
+        }
+        Metrics.count("tiles.workerRuns", 1);
+    }
+
+    private static void deleteAll(File dir){
+        File[] fs = dir.listFiles();
+        if(fs != null) for(File f: fs) f.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.*;
+import java.util.*;
+
+// ====== Tile worker process ======
+// Child JVM started by TileCoordinator. All input and output goes through files in
+// the coordinator's work directory (a shared directory also works across machines).
+//
+//   java TileWorker fit <tile.pts> <tile.model> <maxN> <eps>
+//       samples the tile's points, fits the RBF, writes centers + lambda
+//   java TileWorker extract <tile.spec> <tile.mesh>
+//       evaluates the blended field (this tile's fit and its neighbours', weighted
+//       by a partition of unity) on the tile's nodes and runs marching cubes
+//
+// Every node value is computed by the same formula, in the same order, whichever
+// tile evaluates it, so the shared planes of neighbouring tiles match exactly.
+//
+// Exit code 0 on success; errors go to stderr (the coordinator keeps a log per task).
+public class TileWorker {
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 5 && args[0].equals("fit")){
+            fit(args[1], args[2], Integer.parseInt(args[3]), Double.parseDouble(args[4]));
+        }
+        else if(args.length == 3 && args[0].equals("extract")){
+            extract(args[1], args[2]);
+        }
+        else{
+            System.err.println("usage: TileWorker fit <pts> <model> <maxN> <eps> | extract <spec> <mesh>");
+            System.exit(2);
+        }
+    }
+
+    static void fit(String ptsPath, String modelPath, int maxN, double eps) throws IOException {
+        ArrayList<PointN> pts = readPoints(ptsPath);
+        ArrayList<Constraint> C = new ArrayList<>();
+        // eps is absolute (from the whole cloud), so all tiles agree on the scale of the fit
+        for(PointN pn: Project02.samplePoints(pts, maxN, 0)) Project02.addConstraints(C, pn, eps);
+        double[] lambda = C.isEmpty() ? new double[0] : Project02.fitRBF(C);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(modelPath)))) {
+            out.writeInt(C.size());
+            for(int j=0;j<C.size();j++){
+                Vector3 c = C.get(j).x;
+                out.writeDouble(c.x); out.writeDouble(c.y); out.writeDouble(c.z);
+                out.writeDouble(lambda[j]);
+            }
+        }
+    }
+
+    static void extract(String specPath, String meshPath) throws IOException {
+        Blend blend;
+        int res, i0, j0, k0, i1, j1, k1;
+        double iso;
+        Project02.BBox global;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(specPath)))) {
+            global = new Project02.BBox(readVec(in), readVec(in));
+            res = in.readInt();
+            i0 = in.readInt(); j0 = in.readInt(); k0 = in.readInt();
+            i1 = in.readInt(); j1 = in.readInt(); k1 = in.readInt();
+            iso = in.readDouble();
+            blend = Blend.read(in);
+        }
+
+        // node positions from the global grid, so neighbours place shared nodes identically
+        Project02.ScalarField g = new Project02.ScalarField(res, res, res, global, false);
+        Project02.ScalarField f = new Project02.ScalarField(i1-i0+1, j1-j0+1, k1-k0+1,
+                new Project02.BBox(g.pos(i0, j0, k0), g.pos(i1, j1, k1)));
+        for(int k=k0;k<=k1;k++)
+            for(int j=j0;j<=j1;j++)
+                for(int i=i0;i<=i1;i++)
+                    f.set(i-i0, j-j0, k-k0, blend.eval(g.pos(i, j, k)));
+
+        MeshBuffer mb = MCKernel.extract(f, iso);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(meshPath)))) {
+            out.writeInt(mb.vertexCount);
+            for(int t=0;t<mb.vertexCount*3;t++) out.writeDouble(mb.pos[t]);
+            out.writeInt(mb.triangleCount);
+            for(int t=0;t<mb.triangleCount*3;t++) out.writeInt(mb.tri[t]);
+        }
+    }
+
+    // ---- partition of unity over tile fits ----
+
+    // Tile t is trusted on its core box; its weight ramps from 1 to 0 across
+    // [core - overlap, core + overlap] on every side that has a neighbour. The ramps of
+    // two neighbours are s(u) and s(1-u), which sum to 1 on the seam.
+    static class Blend {
+        final double overlap;
+        final double[][] core;      // per tile: min x,y,z, max x,y,z
+        final int[] open;           // per tile: bit a (low side) / 3+a (high side) has a neighbour
+        final double[][] centers;   // per tile: x,y,z interleaved
+        final double[][] lambda;
+
+        Blend(double overlap, double[][] core, int[] open, double[][] centers, double[][] lambda){
+            this.overlap = overlap; this.core = core; this.open = open; this.centers = centers; this.lambda = lambda;
+        }
+
+        double eval(Vector3 p){
+            double[] x = { p.x, p.y, p.z };
+            double s = 0, ws = 0;
+            for(int t=0;t<core.length;t++){
+                double w = weight(t, x);
+                if(w <= 0) continue;
+                s += w * rbf(t, p.x, p.y, p.z);
+                ws += w;
+            }
+            return ws > 0 ? s / ws : 0.0;
+        }
+
+        double weight(int t, double[] x){
+            double w = 1;
+            for(int a=0;a<3;a++){
+                if((open[t] & (1<<a)) != 0)     w *= ramp((x[a] - (core[t][a] - overlap)) / (2*overlap));
+                if((open[t] & (1<<(3+a))) != 0) w *= ramp(((core[t][3+a] + overlap) - x[a]) / (2*overlap));
+                if(w == 0) return 0;
+            }
+            return w;
+        }
+
+        static double ramp(double u){
+            if(u <= 0) return 0;
+            if(u >= 1) return 1;
+            return u*u*(3 - 2*u);
+        }
+
+        // same sum as Project02.evalRBF (phi(r) = r) over flat arrays
+        double rbf(int t, double x, double y, double z){
+            double[] c = centers[t], l = lambda[t];
+            double s = 0;
+            for(int j=0;j<l.length;j++){
+                double dx = x - c[3*j], dy = y - c[3*j+1], dz = z - c[3*j+2];
+                s += l[j] * Math.sqrt(dx*dx + dy*dy + dz*dz);
+            }
+            return s;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(overlap);
+            out.writeInt(core.length);
+            for(int t=0;t<core.length;t++){
+                for(int a=0;a<6;a++) out.writeDouble(core[t][a]);
+                out.writeInt(open[t]);
+                out.writeInt(lambda[t].length);
+                for(int j=0;j<lambda[t].length;j++){
+                    out.writeDouble(centers[t][3*j]); out.writeDouble(centers[t][3*j+1]); out.writeDouble(centers[t][3*j+2]);
+                    out.writeDouble(lambda[t][j]);
+                }
+            }
+        }
+
+        static Blend read(DataInputStream in) throws IOException {
+            double overlap = in.readDouble();
+            int n = in.readInt();
+            double[][] core = new double[n][6], centers = new double[n][], lambda = new double[n][];
+            int[] open = new int[n];
+            for(int t=0;t<n;t++){
+                for(int a=0;a<6;a++) core[t][a] = in.readDouble();
+                open[t] = in.readInt();
+                int m = in.readInt();
+                centers[t] = new double[3*m];
+                lambda[t] = new double[m];
+                for(int j=0;j<m;j++){
+                    centers[t][3*j] = in.readDouble(); centers[t][3*j+1] = in.readDouble(); centers[t][3*j+2] = in.readDouble();
+                    lambda[t][j] = in.readDouble();
+                }
+            }
+            return new Blend(overlap, core, open, centers, lambda);
+        }
+    }
+
+    // ---- file helpers (shared with TileCoordinator) ----
+
+    static void writePoints(List<PointN> pts, String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(pts.size());
+            for(PointN pn: pts){
+                writeVec(out, pn.p);
+                writeVec(out, pn.n);
+            }
+        }
+    }
+
+    static ArrayList<PointN> readPoints(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            int n = in.readInt();
+            ArrayList<PointN> pts = new ArrayList<>(n);
+            for(int i=0;i<n;i++) pts.add(new PointN(readVec(in), readVec(in)));
+            return pts;
+        }
+    }
+
+    // centers (x,y,z interleaved) and lambda of a fitted tile
+    static double[][] readModel(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            int m = in.readInt();
+            double[] c = new double[3*m], l = new double[m];
+            for(int j=0;j<m;j++){
+                c[3*j] = in.readDouble(); c[3*j+1] = in.readDouble(); c[3*j+2] = in.readDouble();
+                l[j] = in.readDouble();
+            }
+            return new double[][]{ c, l };
+        }
+    }
+
+    static MeshBuffer readMesh(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            int nv = in.readInt();
+            MeshBuffer mb = new MeshBuffer(nv, 1);
+            for(int v=0;v<nv;v++) mb.addVertex(in.readDouble(), in.readDouble(), in.readDouble());
+            int nt = in.readInt();
+            for(int t=0;t<nt;t++) mb.addTriangle(in.readInt(), in.readInt(), in.readInt());
+            return mb;
+        }
+    }
+
+    static void writeVec(DataOutputStream out, Vector3 v) throws IOException {
+        out.writeDouble(v.x); out.writeDouble(v.y); out.writeDouble(v.z);
+    }
+
+    static Vector3 readVec(DataInputStream in) throws IOException {
+        return new Vector3(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+}
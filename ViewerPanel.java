@@ -5,12 +5,20 @@ import com.jogamp.common.nio.Buffers;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.FloatBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.io.IOException;
 
-public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListener, MouseMotionListener, MouseWheelListener  {
+public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListener, MouseMotionListener, MouseWheelListener, KeyListener  {
 
         ArrayList<PointN> pts;
         Vector3 center = new Vector3(0,0,0);
@@ -27,19 +35,35 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
         private int prog = 0;
         private int locMVP = -1;
         private int locColor = -1;
+        private int locMV = -1;
 
-        private int vaoTri = 0, vboTri = 0;
-        private int vaoLine = 0, vboLine = 0;
-        private int vaoPts = 0, vboPts = 0;
-
-        private int triVertexCount = 0;
-        private int lineVertexCount = 0;
-        private int ptVertexCount = 0;
+        // packed on the caller's thread, uploaded by range on the GL thread (see DynamicVBO)
+        private final DynamicVBO triBuf = new DynamicVBO(true);     // positions + normals
+        private final DynamicVBO lineBuf = new DynamicVBO();
+        private final DynamicVBO ptBuf = new DynamicVBO();
 
         private float[] proj = identity();
-
-        private boolean needUploadMesh = false;
-        private boolean needUploadPoints = false;
+        private int viewH = 1;
+
+        // ---- out-of-core point LOD (see PointLOD) ----
+        PointLOD lod = null;
+        long lodBudget = 3_000_000;           // points drawn per frame
+        static final int LOD_UPLOADS_PER_FRAME = 8;
+        private int[] slotVao, slotVbo, slotCount;
+        private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+        private final LinkedHashMap<Integer, Integer> nodeSlot = new LinkedHashMap<>(16, 0.75f, true); // LRU order
+
+        // ---- z-slice of the fit through a LazyField (S toggles, Up/Down moves it) ----
+        // The slice's zero contour is drawn as lines; the level follows the zoom. Slices
+        // are computed on one background thread, stale ones are dropped, and the tiles
+        // of the neighbouring slices are prefetched.
+        LazyField lazy = null;
+        boolean sliceOn = false;
+        double sliceT = 0.5;                  // slice position along z, 0..1 of the box
+        static final int SLICE_MAX_LEVEL = 1;
+        private final DynamicVBO sliceBuf = new DynamicVBO();
+        private final AtomicInteger sliceGen = new AtomicInteger();
+        private ExecutorService sliceExec = null;
 
         private String VS;
         private String FS;
@@ -54,8 +78,11 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
             addMouseListener(this);   
             addMouseMotionListener(this);
             addMouseWheelListener(this);
+            addKeyListener(this);
+            setFocusable(true);
             computeCenterAndScale();
-            needUploadPoints = true;
+            float[] pos = packPoints(pts);
+            ptBuf.set(pos, pos.length);
         }
 
         void computeCenterAndScale(){
@@ -125,18 +152,8 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
             prog = createProgram(gl, VS, FS);
             locMVP = gl.glGetUniformLocation(prog, "uMVP");
             locColor = gl.glGetUniformLocation(prog, "uColor");
+            locMV = gl.glGetUniformLocation(prog, "uMV");
 
-            if (needUploadPoints) {
-                uploadPoints(gl);
-                needUploadPoints = false;
-            }
-
-            if (mesh != null) {
-                uploadMesh(gl);
-                needUploadMesh = false;
-            }
-
-            
         }
 
         public void reshape(GLAutoDrawable drawable, int x, int y, int w, int h) {
@@ -144,6 +161,7 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
             if (h == 0) h = 1;
 
             gl.glViewport(0, 0, w, h);
+            viewH = h;
 
             float aspect = (float) w / (float) h;
             proj = perspective((float) Math.toRadians(60.0), aspect, 0.01f, 100.0f);
@@ -154,14 +172,11 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
 
             gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
 
-            if (needUploadMesh && mesh != null) {
-                uploadMesh(gl);
-                needUploadMesh = false;
-            }
-            if (needUploadPoints) {
-                uploadPoints(gl);
-                needUploadPoints = false;
-            }
+            // only the ranges changed since the last frame go to the GPU
+            triBuf.flush(gl);
+            lineBuf.flush(gl);
+            ptBuf.flush(gl);
+            sliceBuf.flush(gl);
 
             // Build MVP
             // View = T(0,0,-zoom) * Rx(pitch) * Ry(yaw)
@@ -172,47 +187,64 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
             float[] model = mul(scale((float) scale),
                         translate((float) -center.x, (float) -center.y, (float) -center.z));
 
-            float[] mvp = mul(proj, mul(view, model));
+            float[] mv = mul(view, model);
+            float[] mvp = mul(proj, mv);
 
             gl.glUseProgram(prog);
             gl.glUniformMatrix4fv(locMVP, 1, false, mvp, 0);
+            gl.glUniformMatrix4fv(locMV, 1, false, mv, 0);
 
             // ---- Triangles ----
-            if (vaoTri != 0 && triVertexCount > 0) {
+            if (triBuf.indexCount() > 0) {
                 gl.glEnable(GL.GL_BLEND);
                 gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
 
                 gl.glUniform4f(locColor, 0.6f, 0.6f, 0.9f, 0.30f);
-                gl.glBindVertexArray(vaoTri);
-                gl.glDrawArrays(GL.GL_TRIANGLES, 0, triVertexCount);
+                gl.glBindVertexArray(triBuf.vao());
+                gl.glDrawElements(GL.GL_TRIANGLES, triBuf.indexCount(), GL.GL_UNSIGNED_INT, 0);
                 gl.glBindVertexArray(0);
 
                 gl.glDisable(GL.GL_BLEND);
             }
 
             // ---- Edges ----
-            if (vaoLine != 0 && lineVertexCount > 0) {
+            if (lineBuf.vertexCount() > 0) {
                 gl.glLineWidth(3.0f);
 
                 gl.glUniform4f(locColor, 0f, 0f, 0f, 1f);
-                gl.glBindVertexArray(vaoLine);
-                gl.glDrawArrays(GL.GL_LINES, 0, lineVertexCount);
+                gl.glBindVertexArray(lineBuf.vao());
+                gl.glDrawArrays(GL.GL_LINES, 0, lineBuf.vertexCount());
+                gl.glBindVertexArray(0);
+            }
+
+            // ---- Slice contour ----
+            if (sliceOn && sliceBuf.vertexCount() > 0) {
+                gl.glLineWidth(2.0f);
+
+                gl.glUniform4f(locColor, 0.85f, 0.1f, 0.1f, 1f);
+                gl.glBindVertexArray(sliceBuf.vao());
+                gl.glDrawArrays(GL.GL_LINES, 0, sliceBuf.vertexCount());
                 gl.glBindVertexArray(0);
             }
 
             // ---- Points ----
-            if (vaoPts != 0 && ptVertexCount > 0) {
+            if (ptBuf.vertexCount() > 0) {
                 gl.glDisable(GL.GL_DEPTH_TEST);
                 gl.glPointSize(5.0f);
 
                 gl.glUniform4f(locColor, 0.05f, 0.05f, 0.05f, 0.9f);
-                gl.glBindVertexArray(vaoPts);
-                gl.glDrawArrays(GL.GL_POINTS, 0, ptVertexCount);
+                gl.glBindVertexArray(ptBuf.vao());
+                gl.glDrawArrays(GL.GL_POINTS, 0, ptBuf.vertexCount());
                 gl.glBindVertexArray(0);
 
                 gl.glEnable(GL.GL_DEPTH_TEST);
             }
 
+            // ---- LOD points ----
+            if (lod != null) {
+                drawLOD(gl, mv);
+            }
+
             gl.glUseProgram(0);
         }
 
@@ -225,55 +257,60 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
                 prog = 0;
             }
 
-            deleteVAOVBO(gl, vaoTri, vboTri); vaoTri = vboTri = 0;
-            deleteVAOVBO(gl, vaoLine, vboLine); vaoLine = vboLine = 0;
-            deleteVAOVBO(gl, vaoPts, vboPts); vaoPts = vboPts = 0;
+            triBuf.delete(gl);
+            lineBuf.delete(gl);
+            ptBuf.delete(gl);
+            sliceBuf.delete(gl);
+            if (sliceExec != null) sliceExec.shutdownNow();
+            if (lazy != null) lazy.shutdown();
+            deleteLODSlots(gl);
+            if (lod != null) lod.close();
         }
 
-        private void uploadMesh(GL3 gl) {
-            if (mesh == null) return;
-
-            // delete old
-            deleteVAOVBO(gl, vaoTri, vboTri); vaoTri = vboTri = 0;
-            deleteVAOVBO(gl, vaoLine, vboLine); vaoLine = vboLine = 0;
+        // ====== array packing (GL-free, so it can be benchmarked) ======
+        // x,y,z,nx,ny,nz per vertex; zero normal (flat colour) where Mesh.N has none
+        static float[] packVertices(Mesh mesh) {
+            return packVertices(mesh, 0);
+        }
 
-            // ---- triangles ----
-            triVertexCount = mesh.F.size() * 3;
-            float[] triPos = new float[triVertexCount * 3];
+        // vertices [from, V.size()) only
+        static float[] packVertices(Mesh mesh, int from) {
+            float[] pos = new float[(mesh.V.size() - from) * 6];
             int k = 0;
-            for (int[] f : mesh.F) {
-                Vector3 a = mesh.V.get(f[0]);
-                Vector3 b = mesh.V.get(f[1]);
-                Vector3 c = mesh.V.get(f[2]);
-
-                triPos[k++] = (float) a.x; triPos[k++] = (float) a.y; triPos[k++] = (float) a.z;
-                triPos[k++] = (float) b.x; triPos[k++] = (float) b.y; triPos[k++] = (float) b.z;
-                triPos[k++] = (float) c.x; triPos[k++] = (float) c.y; triPos[k++] = (float) c.z;
+            for (int i = from; i < mesh.V.size(); i++) {
+                Vector3 v = mesh.V.get(i);
+                pos[k++] = (float) v.x; pos[k++] = (float) v.y; pos[k++] = (float) v.z;
+                if (i < mesh.N.size()) {
+                    Vector3 n = mesh.N.get(i);
+                    pos[k++] = (float) n.x; pos[k++] = (float) n.y; pos[k++] = (float) n.z;
+                }
+                else {
+                    k += 3;
+                }
             }
-            int[] ids = new int[1];
-
-            gl.glGenVertexArrays(1, ids, 0);
-            vaoTri = ids[0];
-            gl.glBindVertexArray(vaoTri);
-
-            gl.glGenBuffers(1, ids, 0);
-            vboTri = ids[0];
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboTri);
-
-            FloatBuffer fb = Buffers.newDirectFloatBuffer(triPos);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) triPos.length * 4L, fb, GL.GL_STATIC_DRAW);
+            return pos;
+        }
 
-            gl.glEnableVertexAttribArray(0);
-            gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 0, 0);
+        // faces [from, F.size()) as index triples
+        static int[] packIndices(Mesh mesh, int from) {
+            int[] idx = new int[(mesh.F.size() - from) * 3];
+            int k = 0;
+            for (int t = from; t < mesh.F.size(); t++) {
+                int[] f = mesh.F.get(t);
+                idx[k++] = f[0]; idx[k++] = f[1]; idx[k++] = f[2];
+            }
+            return idx;
+        }
 
-            gl.glBindVertexArray(0);
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        static float[] packEdges(Mesh mesh) {
+            return packEdges(mesh, 0);
+        }
 
-            // ---- edges----
-            lineVertexCount = mesh.F.size() * 6;
-            float[] linePos = new float[lineVertexCount * 3];
-            k = 0;
-            for (int[] f : mesh.F) {
+        static float[] packEdges(Mesh mesh, int from) {
+            float[] linePos = new float[(mesh.F.size() - from) * 18];
+            int k = 0;
+            for (int t = from; t < mesh.F.size(); t++) {
+                int[] f = mesh.F.get(t);
                 Vector3 a = mesh.V.get(f[0]);
                 Vector3 b = mesh.V.get(f[1]);
                 Vector3 c = mesh.V.get(f[2]);
@@ -288,35 +325,58 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
                 linePos[k++] = (float) c.x; linePos[k++] = (float) c.y; linePos[k++] = (float) c.z;
                 linePos[k++] = (float) a.x; linePos[k++] = (float) a.y; linePos[k++] = (float) a.z;
             }
+            return linePos;
+        }
 
-            gl.glGenVertexArrays(1, ids, 0);
-            vaoLine = ids[0];
-            gl.glBindVertexArray(vaoLine);
-
-            gl.glGenBuffers(1, ids, 0);
-            vboLine = ids[0];
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboLine);
-
-            fb = Buffers.newDirectFloatBuffer(linePos);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) linePos.length * 4L, fb, GL.GL_STATIC_DRAW);
-
-            gl.glEnableVertexAttribArray(0);
-            gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 0, 0);
-
-            gl.glBindVertexArray(0);
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        // iso contour of a one-node-thick slice (marching squares) as line segments;
+        // saddle cells are split by the cell-centre average
+        static float[] packContour(Project02.ScalarField s, double iso) {
+            int nu = s.nx, nv = s.ny, au = 0, av = 1;
+            if (s.nx == 1) { nu = s.ny; nv = s.nz; au = 1; av = 2; }
+            else if (s.ny == 1) { nv = s.nz; av = 2; }
+            float[] out = new float[64];
+            int k = 0;
+            float[][] e = new float[4][];
+            for (int v = 0; v + 1 < nv; v++) {
+                for (int u = 0; u + 1 < nu; u++) {
+                    int[] c0 = node(u, v, au, av), c1 = node(u+1, v, au, av), c2 = node(u+1, v+1, au, av), c3 = node(u, v+1, au, av);
+                    double f0 = s.get(c0[0], c0[1], c0[2]) - iso, f1 = s.get(c1[0], c1[1], c1[2]) - iso;
+                    double f2 = s.get(c2[0], c2[1], c2[2]) - iso, f3 = s.get(c3[0], c3[1], c3[2]) - iso;
+                    e[0] = cross(s, c0, c1, f0, f1); e[1] = cross(s, c1, c2, f1, f2);
+                    e[2] = cross(s, c2, c3, f2, f3); e[3] = cross(s, c3, c0, f3, f0);
+                    int n = 0;
+                    for (float[] p : e) if (p != null) n++;
+                    if (n < 2) continue;
+                    if (k + 12 > out.length) out = java.util.Arrays.copyOf(out, out.length * 2);
+                    if (n == 4) {
+                        boolean sameAsC0 = (f0 + f1 + f2 + f3 >= 0) == (f0 >= 0);
+                        int[] pairs = sameAsC0 ? new int[]{ 0, 1, 2, 3 } : new int[]{ 0, 3, 1, 2 };
+                        for (int q = 0; q < 4; q++) for (int a = 0; a < 3; a++) out[k++] = e[pairs[q]][a];
+                    }
+                    else {
+                        for (float[] p : e) if (p != null) for (int a = 0; a < 3; a++) out[k++] = p[a];
+                    }
+                }
+            }
+            return java.util.Arrays.copyOf(out, k);
         }
 
-        private void uploadPoints(GL3 gl) {
-            deleteVAOVBO(gl, vaoPts, vboPts); vaoPts = vboPts = 0;
+        private static int[] node(int u, int v, int au, int av) {
+            int[] c = new int[3];
+            c[au] = u; c[av] = v;
+            return c;
+        }
 
-            if (pts == null || pts.isEmpty()) {
-                ptVertexCount = 0;
-                return;
-            }
+        // crossing of the iso level on edge a-b, null if none
+        private static float[] cross(Project02.ScalarField s, int[] a, int[] b, double fa, double fb) {
+            if ((fa >= 0) == (fb >= 0)) return null;
+            double t = fa / (fa - fb);
+            Vector3 pa = s.pos(a[0], a[1], a[2]), pb = s.pos(b[0], b[1], b[2]);
+            return new float[]{ (float) (pa.x + t*(pb.x - pa.x)), (float) (pa.y + t*(pb.y - pa.y)), (float) (pa.z + t*(pb.z - pa.z)) };
+        }
 
-            ptVertexCount = pts.size();
-            float[] pos = new float[ptVertexCount * 3];
+        static float[] packPoints(ArrayList<PointN> pts) {
+            float[] pos = new float[pts.size() * 3];
             int k = 0;
             for (PointN pn : pts) {
                 Vector3 p = pn.p;
@@ -324,35 +384,89 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
                 pos[k++] = (float) p.y;
                 pos[k++] = (float) p.z;
             }
+            return pos;
+        }
 
-            int[] ids = new int[1];
-            gl.glGenVertexArrays(1, ids, 0);
-            vaoPts = ids[0];
-            gl.glBindVertexArray(vaoPts);
+        // Budget-limited node set for this view; finished reads are uploaded into
+        // pooled fixed-size VBOs (least recently drawn node evicted when full).
+        private void drawLOD(GL3 gl, float[] mv) {
+            if (slotVao == null) createLODSlots(gl);
+
+            float pixelScale = (float) (1.0 / Math.tan(Math.toRadians(30.0))) * viewH / 2f;
+            int[] sel = lod.select(mv, pixelScale, lodBudget, 1f);
+            HashSet<Integer> wanted = new HashSet<>();
+            for (int n : sel) wanted.add(n);
+
+            for (int u = 0; u < LOD_UPLOADS_PER_FRAME; u++) {
+                Object[] r = lod.pollLoaded();
+                if (r == null) break;
+                int node = (Integer) r[0];
+                if (!wanted.contains(node) || nodeSlot.containsKey(node)) continue;
+                int slot = takeSlot(wanted);
+                if (slot < 0) break;
+                FloatBuffer fb = (FloatBuffer) r[1];
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, slotVbo[slot]);
+                gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, (long) fb.remaining() * 4L, fb);
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+                slotCount[slot] = fb.remaining() / 3;
+                nodeSlot.put(node, slot);
+            }
+
+            lod.request(sel, nodeSlot.keySet());
 
-            gl.glGenBuffers(1, ids, 0);
-            vboPts = ids[0];
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboPts);
+            gl.glDisable(GL.GL_DEPTH_TEST);
+            gl.glPointSize(2.0f);
+            gl.glUniform4f(locColor, 0.05f, 0.05f, 0.05f, 0.9f);
+            for (int n : sel) {
+                Integer slot = nodeSlot.get(n); // also marks it recently used
+                if (slot == null) continue;
+                gl.glBindVertexArray(slotVao[slot]);
+                gl.glDrawArrays(GL.GL_POINTS, 0, slotCount[slot]);
+            }
+            gl.glBindVertexArray(0);
+            gl.glEnable(GL.GL_DEPTH_TEST);
 
-            FloatBuffer fb = Buffers.newDirectFloatBuffer(pos);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) pos.length * 4L, fb, GL.GL_STATIC_DRAW);
+            // keep drawing while nodes are still streaming in
+            if (lod.loading()) repaint();
+        }
 
-            gl.glEnableVertexAttribArray(0);
-            gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 0, 0);
+        private int takeSlot(HashSet<Integer> wanted) {
+            if (!freeSlots.isEmpty()) return freeSlots.poll();
+            Iterator<Map.Entry<Integer, Integer>> it = nodeSlot.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Integer> e = it.next();
+                if (wanted.contains(e.getKey())) continue;
+                it.remove();
+                return e.getValue();
+            }
+            return -1;
+        }
 
+        private void createLODSlots(GL3 gl) {
+            int cap = lod.maxNodePoints();
+            int n = (int) (lodBudget / Math.max(1, PointLOD.NODE_CAP / 2)) + 32;
+            slotVao = new int[n]; slotVbo = new int[n]; slotCount = new int[n];
+            gl.glGenVertexArrays(n, slotVao, 0);
+            gl.glGenBuffers(n, slotVbo, 0);
+            for (int s = 0; s < n; s++) {
+                gl.glBindVertexArray(slotVao[s]);
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, slotVbo[s]);
+                gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) cap * 12L, null, GL.GL_DYNAMIC_DRAW);
+                gl.glEnableVertexAttribArray(0);
+                gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 0, 0);
+                freeSlots.add(s);
+            }
             gl.glBindVertexArray(0);
             gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
         }
 
-        private void deleteVAOVBO(GL3 gl, int vao, int vbo) {
-            if (vao != 0) {
-                int[] a = { vao };
-                gl.glDeleteVertexArrays(1, a, 0);
-            }
-            if (vbo != 0) {
-                int[] b = { vbo };
-                gl.glDeleteBuffers(1, b, 0);
-            }
+        private void deleteLODSlots(GL3 gl) {
+            if (slotVao == null) return;
+            gl.glDeleteVertexArrays(slotVao.length, slotVao, 0);
+            gl.glDeleteBuffers(slotVbo.length, slotVbo, 0);
+            slotVao = slotVbo = slotCount = null;
+            freeSlots.clear();
+            nodeSlot.clear();
         }
 
         private static int createProgram(GL3 gl, String vsSrc, String fsSrc) {
@@ -474,6 +588,7 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
         // ====== mouse controls ======
         public void mousePressed(MouseEvent e){
             dragging = true;
+            requestFocusInWindow();
             lastX = e.getX();
             lastY = e.getY();
         }
@@ -495,6 +610,7 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
             zoom += rot * 0.2;
             if(zoom < 0.5) zoom = 0.5;
             if(zoom > 20.0) zoom = 20.0;
+            if(sliceOn) updateSlice();
             repaint();
         }
 
@@ -503,9 +619,114 @@ public class ViewerPanel extends GLCanvas implements GLEventListener, MouseListe
         public void mouseExited(MouseEvent e){}
         public void mouseMoved(MouseEvent e){}
 
+        public void keyPressed(KeyEvent e){
+            if(lazy == null) return;
+            int code = e.getKeyCode();
+            if(code == KeyEvent.VK_S) sliceOn = !sliceOn;
+            else if(code == KeyEvent.VK_UP) sliceT = Math.min(1.0, sliceT + sliceStep());
+            else if(code == KeyEvent.VK_DOWN) sliceT = Math.max(0.0, sliceT - sliceStep());
+            else return;
+            if(sliceOn) updateSlice();
+            repaint();
+        }
+        public void keyReleased(KeyEvent e){}
+        public void keyTyped(KeyEvent e){}
+
+        // Draw a PointLOD instead of uploading every point. The pts given to the
+        // constructor (if any) are still used for centering and can be a small preview.
+        public void setPointLOD(PointLOD l){
+            this.lod = l;
+            if (pts == null || pts.isEmpty()) {
+                center = new Vector3(l.cx[0], l.cy[0], l.cz[0]);
+                scale = 2.0 / (l.half[0] * 2.0 * Math.sqrt(3.0));
+            }
+            repaint();
+        }
+
+        // Slices of the fit for the S / Up / Down keys; the panel shuts the field down on dispose.
+        public void setLazyField(LazyField l){
+            this.lazy = l;
+            if (sliceExec == null) {
+                sliceExec = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "ViewerPanel-slice");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            if (sliceOn) updateSlice();
+        }
+
+        // closer camera, finer level: the default distance gets level 0, half of it level 1
+        // (tiles are 16 nodes deep, so finer slices get expensive quickly)
+        int sliceLevel(){
+            int l = (int) Math.round(Math.log(1.7 / zoom) / Math.log(2.0));
+            return Math.max(0, Math.min(SLICE_MAX_LEVEL, l));
+        }
+
+        // one node spacing at the current level
+        double sliceStep(){
+            return 1.0 / (lazy.nodes(sliceLevel()) - 1);
+        }
+
+        private void updateSlice(){
+            final int gen = sliceGen.incrementAndGet();
+            final int level = sliceLevel();
+            final double t = sliceT, step = sliceStep();
+            final Project02.BBox b = lazy.box;
+            sliceExec.execute(() -> {
+                if (gen != sliceGen.get()) return;          // a newer slice was asked for
+                double z = b.min.z + t * (b.max.z - b.min.z);
+                float[] line = packContour(lazy.slice(2, z, level), 0.0);
+                if (gen != sliceGen.get()) return;
+                sliceBuf.set(line, line.length);
+                repaint();
+                for (double dz : new double[]{ step, -step }) {
+                    double zn = b.min.z + Math.max(0, Math.min(1, t + dz)) * (b.max.z - b.min.z);
+                    lazy.prefetch(new Project02.BBox(new Vector3(b.min.x, b.min.y, zn), new Vector3(b.max.x, b.max.y, zn)), level);
+                }
+            });
+        }
+
+        // Packing happens here, on the caller's thread; the GL thread then uploads only
+        // the float ranges that differ from what it already has.
+        // Triangles are drawn indexed (shared vertices).
         public void setMesh(Mesh m){
             this.mesh = m;
-            needUploadMesh = true;
+            float[] pos = packVertices(m), line = packEdges(m);
+            int[] tri = packIndices(m, 0);
+            triBuf.set(pos, pos.length);
+            triBuf.setIndices(tri, tri.length);
+            lineBuf.set(line, line.length);
+            repaint();
+        }
+
+        // For meshes that only grow (progressive extraction, appended tiles): vertices
+        // before fromVertex and faces before fromFace are taken to be what was uploaded
+        // last, and only the rest is packed and appended, so the cost follows the new
+        // part. A reordered mesh (MeshOptimizer) goes through setMesh instead.
+        public void updateMesh(Mesh m, int fromVertex, int fromFace){
+            fromVertex = Math.max(0, Math.min(fromVertex, m.V.size()));
+            fromFace = Math.max(0, Math.min(fromFace, m.F.size()));
+            if (fromVertex * 6 > triBuf.length() || fromFace * 3 > triBuf.indexLength()) {   // nothing to append to
+                setMesh(m);
+                return;
+            }
+            this.mesh = m;
+            float[] pos = packVertices(m, fromVertex), line = packEdges(m, fromFace);
+            int[] tri = packIndices(m, fromFace);
+            triBuf.write(fromVertex * 6, pos, pos.length);
+            triBuf.setLength(m.V.size() * 6);
+            triBuf.writeIndices(fromFace * 3, tri, tri.length);
+            triBuf.setIndexLength(m.F.size() * 3);
+            lineBuf.write(fromFace * 18, line, line.length);
+            lineBuf.setLength(m.F.size() * 18);
+            repaint();
+        }
+
+        public void setPoints(ArrayList<PointN> p){
+            this.pts = p;
+            float[] pos = packPoints(p);
+            ptBuf.set(pos, pos.length);
             repaint();
         }
 }
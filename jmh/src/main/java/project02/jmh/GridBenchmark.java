@@ -0,0 +1,41 @@
+package project02.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// ====== Field and extraction over grid resolution ======
+// One fit (800 points on a sphere, 200 fit points), sampled and extracted at each res.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+
+    @Param({ "32", "48", "64" })
+    public int res;
+
+    Object C, box, field;
+    double[] lambda;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Throwable {
+        Object pts = Stages.sphere(800, 2);
+        C = Stages.buildConstraints(pts, 200);
+        lambda = Stages.fitRBF(C);
+        box = Stages.box(pts);
+        field = Stages.buildField(C, lambda, box, res);
+    }
+
+    @Benchmark
+    public Object buildField() throws Throwable {
+        return Stages.buildField(C, lambda, box, res);
+    }
+
+    @Benchmark
+    public Object marchingCubes() throws Throwable {
+        return Stages.extract(field);
+    }
+}
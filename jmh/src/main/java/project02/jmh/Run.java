@@ -0,0 +1,23 @@
+package project02.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// JMH's command line with the GC profiler always on, so every result comes with
+// allocation per op (gc.alloc.rate.norm) and GC counts next to the time.
+//
+// % java -cp "jmh/target/benchmarks.jar:lib/*" project02.jmh.Run                      (everything)
+// % java -cp "jmh/target/benchmarks.jar:lib/*" project02.jmh.Run fitRBF -p input=sphere:400 -f 3
+public class Run {
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,130 @@
+package project02.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ====== Every stage of main, per input ======
+// Inputs: the bundled models and synthetic spheres ("sphere:<n>": 4n points, n fit
+// points, ~3n constraints), at grid resolution res (-p res=64 for another one).
+// Each benchmark gets its inputs from the stages before it, built once per trial;
+// in-place stages (the LU solve, the vertex-cache reorder) get a fresh copy per
+// invocation, outside the timing.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+
+    @Param({ "xyz/bunny.xyz", "xyz/armadillo.xyz", "xyz/2torus.xyz", "sphere:100", "sphere:200", "sphere:400" })
+    public String input;
+
+    @Param({ "32" })
+    public int res;
+
+    Object pts, C, box, field, mesh;
+    double[] lambda, y;
+    double[][] A0;
+    int maxN;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Throwable {
+        pts = points();
+        maxN = input.startsWith("sphere:") ? Integer.parseInt(input.substring(7)) : Math.min(((List<?>) pts).size() / 5, 400);
+        C = Stages.buildConstraints(pts, maxN);
+        lambda = Stages.fitRBF(C);
+        A0 = Stages.rbfMatrix(C);
+        y = Stages.rhs(C);
+        box = Stages.box(pts);
+        field = Stages.buildField(C, lambda, box, res);
+        mesh = Stages.toMesh(Stages.extract(field));
+    }
+
+    Object points() throws Throwable {
+        if(input.startsWith("sphere:")) return Stages.sphere(4 * Integer.parseInt(input.substring(7)), 1);
+        return Stages.loadXYZ(input);
+    }
+
+    // the copy the in-place LU works on
+    @State(Scope.Thread)
+    public static class Matrix {
+        double[][] A;
+
+        @Setup(Level.Invocation)
+        public void copy(StageBenchmark b){
+            A = new double[b.A0.length][];
+            for(int i=0;i<A.length;i++) A[i] = b.A0[i].clone();
+        }
+    }
+
+    // a fresh extraction (extraction order) for the reorder
+    @State(Scope.Thread)
+    public static class Extracted {
+        Object mb;
+
+        @Setup(Level.Invocation)
+        public void extract(StageBenchmark b) throws Throwable {
+            mb = Stages.extract(b.field);
+        }
+    }
+
+    @Benchmark
+    public Object loadXYZ() throws Throwable {
+        return points();
+    }
+
+    @Benchmark
+    public Object buildConstraints() throws Throwable {
+        return Stages.buildConstraints(pts, maxN);
+    }
+
+    @Benchmark
+    public double[] fitRBF() throws Throwable {
+        return Stages.fitRBF(C);
+    }
+
+    @Benchmark
+    public double[] solveLinearSystem(Matrix m) throws Throwable {
+        return Stages.solveLinearSystem(m.A, y);
+    }
+
+    @Benchmark
+    public double evalRBF1000() throws Throwable {
+        return Stages.evalRBF1000(C, lambda, pts);
+    }
+
+    @Benchmark
+    public Object buildField() throws Throwable {
+        return Stages.buildField(C, lambda, box, res);
+    }
+
+    @Benchmark
+    public Object marchingCubes() throws Throwable {
+        return Stages.extract(field);
+    }
+
+    @Benchmark
+    public Object vertexNormals(Extracted e) throws Throwable {
+        Stages.vertexNormals(C, lambda, e.mb);
+        return e.mb;
+    }
+
+    @Benchmark
+    public Object optimize(Extracted e) throws Throwable {
+        Stages.optimize(e.mb);
+        return e.mb;
+    }
+
+    // what ViewerPanel uploads for the mesh and the cloud
+    @Benchmark
+    public void pack(Blackhole bh) throws Throwable {
+        bh.consume(Stages.packVertices(mesh));
+        bh.consume(Stages.packIndices(mesh));
+        bh.consume(Stages.packEdges(mesh));
+        bh.consume(Stages.packPoints(pts));
+    }
+}
@@ -0,0 +1,78 @@
+package project02.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+// ====== The application's stages, for the benchmarks ======
+// JMH won't generate code for classes in the default package and a named package
+// can't import from it, so the stages are reached through method handles, resolved
+// once by name and parameter count. Values of application types (point lists,
+// constraints, fields, meshes) travel as Object. A static final handle is a JIT
+// constant, so the call costs about as much as a direct one.
+final class Stages {
+
+    private Stages(){ }
+
+    private static final MethodHandle LOAD_XYZ = find("Project02", "loadXYZ", 1);
+    private static final MethodHandle BUILD_CONSTRAINTS = find("Project02", "buildConstraints", 2);
+    private static final MethodHandle FIT_RBF = find("Project02", "fitRBF", 1);
+    private static final MethodHandle SOLVE = find("Project02", "solveLinearSystem", 2);
+    private static final MethodHandle BBOX = find("Project02", "bbox", 1);
+    private static final MethodHandle EXPAND = find("Project02", "expand", 2);
+    private static final MethodHandle BUILD_FIELD = find("Project02", "buildField", 4);
+    private static final MethodHandle VERTEX_NORMALS = find("Project02", "vertexNormals", 3);
+    private static final MethodHandle EXTRACT = find("MCKernel", "extract", 2);
+    private static final MethodHandle OPTIMIZE = find("MeshOptimizer", "optimize", 1);
+    private static final MethodHandle TO_MESH = find("MeshBuffer", "toMesh", 0);
+    private static final MethodHandle PACK_VERTICES = find("ViewerPanel", "packVertices", 1);
+    private static final MethodHandle PACK_INDICES = find("ViewerPanel", "packIndices", 2);
+    private static final MethodHandle PACK_EDGES = find("ViewerPanel", "packEdges", 1);
+    private static final MethodHandle PACK_POINTS = find("ViewerPanel", "packPoints", 1);
+    private static final MethodHandle RBF_MATRIX = find("Bench", "rbfMatrix", 1);
+    private static final MethodHandle RHS = find("Bench", "rhs", 1);
+    private static final MethodHandle EVAL_RBF_1000 = find("Bench", "evalRBF1000", 3);
+    private static final MethodHandle SPHERE = find("Bench", "sphere", 3);
+
+    static Object loadXYZ(String path) throws Throwable { return LOAD_XYZ.invoke(path); }
+    static Object buildConstraints(Object pts, int maxN) throws Throwable { return BUILD_CONSTRAINTS.invoke(pts, maxN); }
+    static double[] fitRBF(Object C) throws Throwable { return (double[]) FIT_RBF.invoke(C); }
+    static double[] solveLinearSystem(double[][] A, double[] y) throws Throwable { return (double[]) SOLVE.invoke(A, y); }
+    static double[][] rbfMatrix(Object C) throws Throwable { return (double[][]) RBF_MATRIX.invoke(C); }
+    static double[] rhs(Object C) throws Throwable { return (double[]) RHS.invoke(C); }
+    static double evalRBF1000(Object C, double[] lambda, Object pts) throws Throwable { return (double) EVAL_RBF_1000.invoke(C, lambda, pts); }
+
+    // bounding box of pts grown by 10%, as main uses it
+    static Object box(Object pts) throws Throwable { return EXPAND.invoke(BBOX.invoke(pts), 0.10); }
+
+    static Object buildField(Object C, double[] lambda, Object box, int res) throws Throwable { return BUILD_FIELD.invoke(C, lambda, box, res); }
+    static Object extract(Object field) throws Throwable { return EXTRACT.invoke(field, 0.0); }
+    static void vertexNormals(Object C, double[] lambda, Object mb) throws Throwable { VERTEX_NORMALS.invoke(C, lambda, mb); }
+    static void optimize(Object mb) throws Throwable { OPTIMIZE.invoke(mb); }
+    static Object toMesh(Object mb) throws Throwable { return TO_MESH.invoke(mb); }
+
+    static float[] packVertices(Object mesh) throws Throwable { return (float[]) PACK_VERTICES.invoke(mesh); }
+    static int[] packIndices(Object mesh) throws Throwable { return (int[]) PACK_INDICES.invoke(mesh, 0); }
+    static float[] packEdges(Object mesh) throws Throwable { return (float[]) PACK_EDGES.invoke(mesh); }
+    static float[] packPoints(Object pts) throws Throwable { return (float[]) PACK_POINTS.invoke(pts); }
+
+    // n points on a sphere with exact normals (Bench.sphere)
+    static Object sphere(int n, long seed) throws Throwable { return SPHERE.invoke(n, 1.0, seed); }
+
+    private static MethodHandle find(String cls, String name, int arity){
+        try {
+            Method found = null;
+            // not initialised here: ViewerPanel's superclass is a JOGL canvas
+            for(Method m: Class.forName(cls, false, Stages.class.getClassLoader()).getDeclaredMethods()){
+                if(!m.getName().equals(name) || m.getParameterCount() != arity) continue;
+                if(found != null) throw new IllegalStateException(cls + "." + name + " has two overloads with " + arity + " parameters");
+                found = m;
+            }
+            if(found == null) throw new IllegalStateException("no " + cls + "." + name + " with " + arity + " parameters");
+            found.setAccessible(true);
+            return MethodHandles.lookup().unreflect(found);
+        } catch (ReflectiveOperationException ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+}
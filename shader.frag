@@ -1,8 +1,15 @@
 #version 330 core
 
 uniform vec4 uColor;
+in vec3 vNormal;
 out vec4 fragColor;
 
 void main() {
-    fragColor = uColor;
+    // no normal: flat colour; otherwise a two-sided headlight
+    if (dot(vNormal, vNormal) < 1e-12) {
+        fragColor = uColor;
+        return;
+    }
+    float d = abs(normalize(vNormal).z);
+    fragColor = vec4(uColor.rgb * (0.35 + 0.65 * d), uColor.a);
 }
\ No newline at end of file
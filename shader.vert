@@ -1,8 +1,12 @@
 #version 330 core
 
 layout(location = 0) in vec3 inPos;
+layout(location = 1) in vec3 inNormal;   // (0,0,0) when the buffer has no normals
 uniform mat4 uMVP;
+uniform mat4 uMV;
+out vec3 vNormal;
 
 void main() {
+    vNormal = mat3(uMV) * inNormal;
     gl_Position = uMVP * vec4(inPos, 1.0);
 }
\ No newline at end of file